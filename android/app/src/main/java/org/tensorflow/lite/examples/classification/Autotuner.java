@@ -0,0 +1,284 @@
+/*
+ * Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.classification;
+
+import android.app.Activity;
+import android.content.res.AssetFileDescriptor;
+import android.content.res.AssetManager;
+import android.os.Build;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.zip.CRC32;
+import org.tensorflow.lite.examples.classification.env.Logger;
+import org.tensorflow.lite.examples.classification.tflite.Classifier;
+import org.tensorflow.lite.examples.classification.tflite.Classifier.Device;
+import org.tensorflow.lite.examples.classification.tflite.Classifier.Model;
+import org.tensorflow.lite.examples.classification.tflite.ModelDescriptor;
+import org.tensorflow.lite.examples.classification.tflite.ModelRegistry;
+
+/**
+ * Benchmarks every model of the {@link ModelRegistry} x Device x thread count and remembers, per
+ * model, the configuration with the lowest p95 latency. The model's interpreter is timed on its
+ * own with a synthetic input, see {@link Classifier#benchmarkInference()}, since face detection
+ * would find no face in a synthetic frame and skip the model.
+ *
+ * <p>The profile is a small properties file keyed by a fingerprint of the model assets and the
+ * CPU, so it is measured once per board and model set and read back instantly afterwards. Takes
+ * several seconds; run it off the UI thread, while no other inference runs.
+ */
+public final class Autotuner {
+  private static final Logger LOGGER = new Logger();
+
+  private static final String PROFILE_FILE = "autotune_profile.properties";
+  private static final String KEY_FINGERPRINT = "fingerprint";
+
+  private static final int[] CPU_THREADS = {1, 2, 4};
+  private static final int WARMUP_RUNS = 3;
+  private static final int MEASURED_RUNS = 20;
+  /** Bytes of each model file that go into the fingerprint. */
+  private static final int FINGERPRINT_PREFIX_BYTES = 64 * 1024;
+
+  /** Latency of one configuration. */
+  public static final class Measurement {
+    public final String model;
+    public final Device device;
+    public final int numThreads;
+    public final long p50Nanos;
+    public final long p95Nanos;
+
+    Measurement(String model, Device device, int numThreads, long p50Nanos, long p95Nanos) {
+      this.model = model;
+      this.device = device;
+      this.numThreads = numThreads;
+      this.p50Nanos = p50Nanos;
+      this.p95Nanos = p95Nanos;
+    }
+  }
+
+  private final Activity activity;
+  private final File profileFile;
+  private final Properties profile = new Properties();
+  private volatile boolean cancelled = false;
+
+  public Autotuner(Activity activity) {
+    this.activity = activity;
+    this.profileFile = new File(activity.getFilesDir(), PROFILE_FILE);
+  }
+
+  /** Loads the stored profile; returns false if there is none for this board and model set. */
+  public boolean load() {
+    profile.clear();
+    if (!profileFile.exists()) {
+      return false;
+    }
+    try (InputStream in = new FileInputStream(profileFile)) {
+      profile.load(in);
+    } catch (IOException e) {
+      LOGGER.w("Failed to read autotune profile: %s", e.getMessage());
+      profile.clear();
+      return false;
+    }
+    if (!fingerprint().equals(profile.getProperty(KEY_FINGERPRINT))) {
+      LOGGER.i("Autotune profile is stale, models or CPU changed.");
+      profile.clear();
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Stops {@link #run()} after the configuration it is measuring, without storing a profile, so
+   * that it lets go of the activity soon. Any thread.
+   */
+  public void cancel() {
+    cancelled = true;
+  }
+
+  /**
+   * Measures every configuration and stores the profile, unless cancelled.
+   *
+   * @return The measurements, incomplete if cancelled.
+   */
+  public List<Measurement> run() {
+    List<Measurement> measurements = new ArrayList<>();
+    profile.clear();
+    ModelRegistry registry;
+    try {
+      registry = ModelRegistry.get(activity);
+    } catch (IOException e) {
+      LOGGER.e(e, "Failed to read the model registry.");
+      return measurements;
+    }
+    for (String model : registry.getNames()) {
+      ModelDescriptor descriptor = registry.getDescriptor(model);
+      Measurement best = null;
+      for (Device device : Device.values()) {
+        if (device == Device.GPU && descriptor.quantized) {
+          continue;
+        }
+        int[] threadCounts = device == Device.CPU ? CPU_THREADS : new int[] {1};
+        for (int numThreads : threadCounts) {
+          if (cancelled) {
+            LOGGER.i("Autotune cancelled.");
+            profile.clear();
+            return measurements;
+          }
+          Measurement m = measure(model, device, numThreads);
+          if (m == null) {
+            continue;
+          }
+          measurements.add(m);
+          LOGGER.i(
+              "Autotune %s/%s/%d: p50 %d us, p95 %d us",
+              model, device, numThreads, m.p50Nanos / 1000, m.p95Nanos / 1000);
+          if (best == null || m.p95Nanos < best.p95Nanos) {
+            best = m;
+          }
+        }
+      }
+      if (best != null) {
+        profile.setProperty(model + ".device", best.device.name());
+        profile.setProperty(model + ".threads", String.valueOf(best.numThreads));
+        profile.setProperty(model + ".p50_us", String.valueOf(best.p50Nanos / 1000));
+        profile.setProperty(model + ".p95_us", String.valueOf(best.p95Nanos / 1000));
+      }
+    }
+    profile.setProperty(KEY_FINGERPRINT, fingerprint());
+    store();
+    return measurements;
+  }
+
+  private Measurement measure(String model, Device device, int numThreads) {
+    Classifier classifier;
+    try {
+      classifier = Classifier.create(activity, model, device, numThreads, true);
+    } catch (IOException | RuntimeException e) {
+      LOGGER.w("Autotune skips %s/%s/%d: %s", model, device, numThreads, e.getMessage());
+      return null;
+    }
+    long[] latencies = new long[MEASURED_RUNS];
+    try {
+      for (int i = 0; i < WARMUP_RUNS + MEASURED_RUNS; i++) {
+        long latency = classifier.benchmarkInference();
+        if (latency < 0) {
+          LOGGER.w("Autotune skips %s/%s/%d: no model to time", model, device, numThreads);
+          return null;
+        }
+        if (i >= WARMUP_RUNS) {
+          latencies[i - WARMUP_RUNS] = latency;
+        }
+      }
+    } catch (RuntimeException e) {
+      LOGGER.w("Autotune failed on %s/%s/%d: %s", model, device, numThreads, e.getMessage());
+      return null;
+    } finally {
+      classifier.close();
+    }
+    Arrays.sort(latencies);
+    return new Measurement(
+        model,
+        device,
+        numThreads,
+        latencies[MEASURED_RUNS / 2],
+        latencies[(int) Math.ceil(MEASURED_RUNS * 0.95) - 1]);
+  }
+
+  /** Fastest device for the model, or null if the profile has none. */
+  public Device getDevice(Model model) {
+    return getDevice(model.name());
+  }
+
+  /** Fastest device for the named model, or null if the profile has none. */
+  public Device getDevice(String model) {
+    String device = profile.getProperty(model + ".device");
+    return device == null ? null : Device.valueOf(device);
+  }
+
+  /** Fastest thread count for the model, or -1 if the profile has none. */
+  public int getNumThreads(Model model) {
+    return getNumThreads(model.name());
+  }
+
+  /** Fastest thread count for the named model, or -1 if the profile has none. */
+  public int getNumThreads(String model) {
+    String threads = profile.getProperty(model + ".threads");
+    return threads == null ? -1 : Integer.parseInt(threads);
+  }
+
+  private void store() {
+    File tmp = new File(profileFile.getPath() + ".tmp");
+    try (OutputStream out = new FileOutputStream(tmp)) {
+      profile.store(out, "Autotune results, p95 winner per model");
+    } catch (IOException e) {
+      LOGGER.w("Failed to write autotune profile: %s", e.getMessage());
+      return;
+    }
+    if (!tmp.renameTo(profileFile)) {
+      LOGGER.w("Failed to replace autotune profile.");
+    }
+  }
+
+  /** Hash of the model assets (names, sizes and leading bytes) and a description of the CPU. */
+  private String fingerprint() {
+    CRC32 crc = new CRC32();
+    AssetManager assets = activity.getAssets();
+    try {
+      String[] names = assets.list("");
+      Arrays.sort(names);
+      byte[] buffer = new byte[FINGERPRINT_PREFIX_BYTES];
+      for (String name : names) {
+        if (!name.endsWith(".tflite")) {
+          continue;
+        }
+        crc.update(name.getBytes());
+        try (AssetFileDescriptor fd = assets.openFd(name)) {
+          crc.update(Long.toString(fd.getLength()).getBytes());
+        } catch (IOException e) {
+          // compressed asset, the prefix below still identifies it
+        }
+        try (InputStream in = assets.open(name)) {
+          int total = 0;
+          int read;
+          while (total < buffer.length
+              && (read = in.read(buffer, total, buffer.length - total)) > 0) {
+            total += read;
+          }
+          crc.update(buffer, 0, total);
+        }
+      }
+    } catch (IOException e) {
+      LOGGER.w("Failed to hash model assets: %s", e.getMessage());
+    }
+    String cpu =
+        Build.HARDWARE
+            + "/"
+            + Build.BOARD
+            + "/"
+            + Build.SUPPORTED_ABIS[0]
+            + "/"
+            + Runtime.getRuntime().availableProcessors();
+    return String.format("%08x-%s", crc.getValue(), cpu);
+  }
+}
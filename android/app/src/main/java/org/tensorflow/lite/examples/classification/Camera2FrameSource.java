@@ -0,0 +1,132 @@
+/*
+ * Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.classification;
+
+import android.media.Image;
+import android.media.Image.Plane;
+import android.media.ImageReader;
+import android.media.ImageReader.OnImageAvailableListener;
+import android.os.SystemClock;
+import android.os.Trace;
+import java.nio.ByteBuffer;
+import org.tensorflow.lite.examples.classification.env.Logger;
+
+/**
+ * Frames of the Camera2 API, fed by the {@link ImageReader} of {@link CameraConnectionFragment}.
+ *
+ * <p>The planes are copied out and the image closed right away, so the reader never runs out of
+ * images. Frames come from a small pool: one processed, one waiting in a {@link LatestFrameSlot}
+ * and the one replacing it. Images arriving while the pool is empty are dropped.
+ */
+public class Camera2FrameSource implements FrameSource, OnImageAvailableListener {
+  private static final Logger LOGGER = new Logger();
+  private static final int FRAME_COUNT = 3;
+
+  private final Frame[] frames = new Frame[FRAME_COUNT];
+  private final boolean[] inUse = new boolean[FRAME_COUNT];
+  private volatile Listener listener;
+
+  /** @param rotation Clockwise rotation of the sensor, in degrees. */
+  public Camera2FrameSource(int rotation) {
+    for (int i = 0; i < FRAME_COUNT; i++) {
+      final int index = i;
+      frames[i] = new Frame();
+      frames[i].format = Format.YUV_420_888;
+      frames[i].rotation = rotation;
+      frames[i].setReleaser(() -> releaseFrame(index));
+    }
+  }
+
+  @Override
+  public void start(Listener listener) {
+    this.listener = listener;
+  }
+
+  @Override
+  public void stop() {
+    listener = null;
+  }
+
+  @Override
+  public void onImageAvailable(final ImageReader reader) {
+    final Listener target = listener;
+    if (target == null) {
+      return;
+    }
+    final Image image = reader.acquireLatestImage();
+    if (image == null) {
+      return;
+    }
+    final int index = acquireFrame();
+    if (index < 0) {
+      LOGGER.w("Dropping frame!");
+      image.close();
+      return;
+    }
+    final Frame frame = frames[index];
+    Trace.beginSection("imageAvailable");
+    try {
+      // Image.getTimestamp() is not guaranteed to share a time base with SystemClock, so use
+      // the arrival time like the legacy path does.
+      frame.timestampNanos = SystemClock.elapsedRealtimeNanos();
+      final Plane[] planes = image.getPlanes();
+      frame.y = fill(planes[0], frame.y);
+      frame.u = fill(planes[1], frame.u);
+      frame.v = fill(planes[2], frame.v);
+      frame.width = image.getWidth();
+      frame.height = image.getHeight();
+      frame.yRowStride = planes[0].getRowStride();
+      frame.uvRowStride = planes[1].getRowStride();
+      frame.uvPixelStride = planes[1].getPixelStride();
+    } catch (final Exception e) {
+      LOGGER.e(e, "Exception!");
+      releaseFrame(index);
+      return;
+    } finally {
+      image.close();
+      Trace.endSection();
+    }
+    target.onFrame(frame);
+  }
+
+  private synchronized int acquireFrame() {
+    for (int i = 0; i < FRAME_COUNT; i++) {
+      if (!inUse[i]) {
+        inUse[i] = true;
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private synchronized void releaseFrame(int index) {
+    inUse[index] = false;
+  }
+
+  /** Copies the plane into {@code bytes}, allocating it on first use. */
+  private static byte[] fill(final Plane plane, byte[] bytes) {
+    // Because of the variable row stride it's not possible to know in
+    // advance the actual necessary dimensions of the yuv planes.
+    final ByteBuffer buffer = plane.getBuffer();
+    if (bytes == null || bytes.length != buffer.capacity()) {
+      LOGGER.d("Initializing buffer at size %d", buffer.capacity());
+      bytes = new byte[buffer.capacity()];
+    }
+    buffer.get(bytes);
+    return bytes;
+  }
+}
@@ -25,15 +25,13 @@ import android.hardware.camera2.CameraAccessException;
 import android.hardware.camera2.CameraCharacteristics;
 import android.hardware.camera2.CameraManager;
 import android.hardware.camera2.params.StreamConfigurationMap;
-import android.media.Image;
-import android.media.Image.Plane;
 import android.media.ImageReader;
 import android.media.ImageReader.OnImageAvailableListener;
 import android.os.Build;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.HandlerThread;
-import android.os.Trace;
+import android.os.SystemClock;
 import androidx.appcompat.app.AppCompatActivity;
 import android.util.Size;
 import android.view.Surface;
@@ -47,19 +45,17 @@ import android.widget.Spinner;
 import android.widget.TextView;
 import android.widget.Toast;
 import androidx.annotation.NonNull;
-import androidx.annotation.UiThread;
 import com.google.android.material.bottomsheet.BottomSheetBehavior;
-import java.nio.ByteBuffer;
-import java.util.List;
+import java.io.File;
 import org.tensorflow.lite.examples.classification.env.ImageUtils;
 import org.tensorflow.lite.examples.classification.env.Logger;
 import org.tensorflow.lite.examples.classification.tflite.Classifier.Device;
 import org.tensorflow.lite.examples.classification.tflite.Classifier.Model;
-import org.tensorflow.lite.examples.classification.tflite.Classifier.Recognition;
 
 public abstract class CameraActivity extends AppCompatActivity
     implements OnImageAvailableListener,
         Camera.PreviewCallback,
+        FrameSource.Listener,
         View.OnClickListener,
         AdapterView.OnItemSelectedListener {
   private static final Logger LOGGER = new Logger();
@@ -67,17 +63,33 @@ public abstract class CameraActivity extends AppCompatActivity
   private static final int PERMISSIONS_REQUEST = 1;
 
   private static final String PERMISSION_CAMERA = Manifest.permission.CAMERA;
+  /**
+   * Intent extra naming a FER CSV or a directory of JPEGs to replay instead of the camera, as fast
+   * as frames are processed. Relative paths are resolved in the external files directory of the
+   * app.
+   */
+  public static final String EXTRA_REPLAY = "replay";
+  /** Float intent extra capping the debug HUD refreshes per second, 0 for every display frame. */
+  public static final String EXTRA_HUD_RATE = "hud_rate";
+  private static final float DEFAULT_HUD_RATE = 10.0F;
+  private static final int DEFAULT_PREVIEW_BUFFER_COUNT = 3;
   protected int previewWidth = 0;
   protected int previewHeight = 0;
   private Handler handler;
   private HandlerThread handlerThread;
   private boolean useCamera2API;
-  private boolean isProcessingFrame = false;
-  private byte[][] yuvBytes = new byte[3][];
   private int[] rgbBytes = null;
-  private int yRowStride;
-  private Runnable postInferenceCallback;
-  private Runnable imageConverter;
+  private long frameTimestampNanos;
+  private volatile LegacyCameraFrameSource legacySource;
+  /** Short side the open camera's resolution was picked for, -1 without a camera. */
+  private int previewMinShortSide = -1;
+  private volatile Camera2FrameSource camera2Source;
+  /** Recording replayed instead of the camera, null for the camera. */
+  private FrameSource replaySource;
+  /** Newest frame waiting while another is processed. */
+  private final LatestFrameSlot frameSlot = new LatestFrameSlot();
+  /** Frame being processed, until {@link #readyForNextImage}. */
+  private volatile FrameSource.Frame currentFrame;
   private LinearLayout bottomSheetLayout;
   private LinearLayout gestureLayout;
   private BottomSheetBehavior<LinearLayout> sheetBehavior;
@@ -92,6 +104,9 @@ public abstract class CameraActivity extends AppCompatActivity
       cameraResolutionTextView,
       rotationTextView,
       inferenceTimeTextView;
+  /** Debug values shown in the bottom sheet, see {@link #publishHud()}. */
+  protected final HudModel hud = new HudModel();
+  private HudPresenter hudPresenter;
   protected ImageView bottomSheetArrowImageView;
   private ImageView plusImageView, minusImageView;
   private Spinner modelSpinner;
@@ -110,12 +125,6 @@ public abstract class CameraActivity extends AppCompatActivity
 
     setContentView(R.layout.tfe_ic_activity_camera);
 
-    if (hasPermission()) {
-      setFragment();
-    } else {
-      requestPermission();
-    }
-
     threadsTextView = findViewById(R.id.threads);
     plusImageView = findViewById(R.id.plus);
     minusImageView = findViewById(R.id.minus);
@@ -185,6 +194,19 @@ public abstract class CameraActivity extends AppCompatActivity
     cameraResolutionTextView = findViewById(R.id.view_info);
     rotationTextView = findViewById(R.id.rotation_info);
     inferenceTimeTextView = findViewById(R.id.inference_info);
+    hudPresenter =
+        new HudPresenter(
+            hud,
+            frameValueTextView,
+            cropValueTextView,
+            cameraResolutionTextView,
+            rotationTextView,
+            inferenceTimeTextView,
+            new TextView[] {recognitionTextView, recognition1TextView, recognition2TextView},
+            new TextView[] {
+              recognitionValueTextView, recognition1ValueTextView, recognition2ValueTextView
+            });
+    hudPresenter.setMaxRate(getIntent().getFloatExtra(EXTRA_HUD_RATE, DEFAULT_HUD_RATE));
 
     modelSpinner.setOnItemSelectedListener(this);
     deviceSpinner.setOnItemSelectedListener(this);
@@ -195,128 +217,137 @@ public abstract class CameraActivity extends AppCompatActivity
     model = Model.valueOf(modelSpinner.getSelectedItem().toString().toUpperCase());
     device = Device.valueOf(deviceSpinner.getSelectedItem().toString());
     numThreads = Integer.parseInt(threadsTextView.getText().toString().trim());
+
+    // after the model is known, the preview size depends on it
+    replaySource = createReplaySource();
+    if (replaySource != null) {
+      LOGGER.i("Replaying %s instead of the camera", getIntent().getStringExtra(EXTRA_REPLAY));
+    } else if (hasPermission()) {
+      setFragment();
+    } else {
+      requestPermission();
+    }
   }
 
   protected int[] getRgbBytes() {
-    imageConverter.run();
+    final FrameSource.Frame frame = currentFrame;
+    switch (frame.format) {
+      case NV21:
+        ImageUtils.convertYUV420SPToARGB8888(frame.y, previewWidth, previewHeight, rgbBytes);
+        break;
+      case YUV_420_888:
+        ImageUtils.convertYUV420ToARGB8888(
+            frame.y,
+            frame.u,
+            frame.v,
+            previewWidth,
+            previewHeight,
+            frame.yRowStride,
+            frame.uvRowStride,
+            frame.uvPixelStride,
+            rgbBytes);
+        break;
+      case LUMA:
+        ImageUtils.convertLumaToARGB8888(
+            frame.y, previewWidth, previewHeight, frame.yRowStride, rgbBytes);
+        break;
+    }
     return rgbBytes;
   }
 
   protected int getLuminanceStride() {
-    return yRowStride;
+    return currentFrame.yRowStride;
   }
 
   protected byte[] getLuminance() {
-    return yuvBytes[0];
+    return currentFrame.y;
+  }
+
+  /** Ground truth emotion of the current frame, {@link FrameSource#NO_LABEL} for cameras. */
+  protected int getFrameLabel() {
+    return currentFrame.label;
+  }
+
+  /** Whether frames come from a recording rather than the camera, see {@link #EXTRA_REPLAY}. */
+  protected boolean isReplaying() {
+    return replaySource != null;
   }
 
   /** Callback for android.hardware.Camera API */
   @Override
   public void onPreviewFrame(final byte[] bytes, final Camera camera) {
-    if (isProcessingFrame) {
-      LOGGER.w("Dropping frame!");
-      return;
+    final LegacyCameraFrameSource source = legacySource;
+    if (source != null) {
+      source.onPreviewFrame(bytes, camera);
+    }
+  }
+
+  /** Callback for Camera2 API */
+  @Override
+  public void onImageAvailable(final ImageReader reader) {
+    final Camera2FrameSource source = camera2Source;
+    // We need wait until we have some size from onPreviewSizeChosen
+    if (source != null) {
+      source.onImageAvailable(reader);
+    }
+  }
+
+  /**
+   * Every source delivers here, on its own thread. A frame arriving while another is processed
+   * waits for it, replacing any older waiting frame.
+   */
+  @Override
+  public void onFrame(final FrameSource.Frame frame) {
+    final FrameSource.Frame next = frameSlot.offer(frame, SystemClock.elapsedRealtimeNanos());
+    if (next != null) {
+      process(next);
     }
+  }
 
+  private void process(final FrameSource.Frame frame) {
     try {
-      // Initialize the storage bitmaps once when the resolution is known.
-      if (rgbBytes == null) {
-        Camera.Size previewSize = camera.getParameters().getPreviewSize();
-        previewHeight = previewSize.height;
-        previewWidth = previewSize.width;
+      // Initialize the storage bitmaps once the resolution is known, and again if it changes.
+      if (frame.width != previewWidth || frame.height != previewHeight) {
+        previewWidth = frame.width;
+        previewHeight = frame.height;
+        onPreviewSizeChosen(new Size(frame.width, frame.height), frame.rotation);
+      }
+      if (rgbBytes == null || rgbBytes.length != previewWidth * previewHeight) {
         rgbBytes = new int[previewWidth * previewHeight];
-        onPreviewSizeChosen(new Size(previewSize.width, previewSize.height), 90);
       }
     } catch (final Exception e) {
       LOGGER.e(e, "Exception!");
+      currentFrame = frame;
+      readyForNextImage();
       return;
     }
 
-    isProcessingFrame = true;
-    yuvBytes[0] = bytes;
-    yRowStride = previewWidth;
-
-    imageConverter =
-        new Runnable() {
-          @Override
-          public void run() {
-            ImageUtils.convertYUV420SPToARGB8888(bytes, previewWidth, previewHeight, rgbBytes);
-          }
-        };
-
-    postInferenceCallback =
-        new Runnable() {
-          @Override
-          public void run() {
-            camera.addCallbackBuffer(bytes);
-            isProcessingFrame = false;
-          }
-        };
+    currentFrame = frame;
+    frameTimestampNanos = frame.timestampNanos;
     processImage();
   }
 
-  /** Callback for Camera2 API */
   @Override
-  public void onImageAvailable(final ImageReader reader) {
-    // We need wait until we have some size from onPreviewSizeChosen
-    if (previewWidth == 0 || previewHeight == 0) {
-      return;
+  public void onEnd() {
+    LOGGER.i("Replay of %s done", getIntent().getStringExtra(EXTRA_REPLAY));
+  }
+
+  /** The replay source named by the {@link #EXTRA_REPLAY} extra, or null to use the camera. */
+  private FrameSource createReplaySource() {
+    final String path = getIntent().getStringExtra(EXTRA_REPLAY);
+    if (path == null) {
+      return null;
     }
-    if (rgbBytes == null) {
-      rgbBytes = new int[previewWidth * previewHeight];
+    File file = new File(path);
+    if (!file.isAbsolute()) {
+      file = new File(getExternalFilesDir(null), path);
     }
-    try {
-      final Image image = reader.acquireLatestImage();
-
-      if (image == null) {
-        return;
-      }
-
-      if (isProcessingFrame) {
-        image.close();
-        return;
-      }
-      isProcessingFrame = true;
-      Trace.beginSection("imageAvailable");
-      final Plane[] planes = image.getPlanes();
-      fillBytes(planes, yuvBytes);
-      yRowStride = planes[0].getRowStride();
-      final int uvRowStride = planes[1].getRowStride();
-      final int uvPixelStride = planes[1].getPixelStride();
-
-      imageConverter =
-          new Runnable() {
-            @Override
-            public void run() {
-              ImageUtils.convertYUV420ToARGB8888(
-                  yuvBytes[0],
-                  yuvBytes[1],
-                  yuvBytes[2],
-                  previewWidth,
-                  previewHeight,
-                  yRowStride,
-                  uvRowStride,
-                  uvPixelStride,
-                  rgbBytes);
-            }
-          };
-
-      postInferenceCallback =
-          new Runnable() {
-            @Override
-            public void run() {
-              image.close();
-              isProcessingFrame = false;
-            }
-          };
-
-      processImage();
-    } catch (final Exception e) {
-      LOGGER.e(e, "Exception!");
-      Trace.endSection();
-      return;
+    if (file.isDirectory()) {
+      final Size size = getDesiredPreviewFrameSize();
+      final int side = Math.min(size.getWidth(), size.getHeight());
+      return new JpegDirectoryFrameSource(file, side, side);
     }
-    Trace.endSection();
+    return new FerCsvFrameSource(file);
   }
 
   @Override
@@ -333,12 +364,20 @@ public abstract class CameraActivity extends AppCompatActivity
     handlerThread = new HandlerThread("inference");
     handlerThread.start();
     handler = new Handler(handlerThread.getLooper());
+
+    if (replaySource != null) {
+      replaySource.start(this);
+    }
   }
 
   @Override
   public synchronized void onPause() {
     LOGGER.d("onPause " + this);
 
+    if (replaySource != null) {
+      replaySource.stop();
+    }
+
     handlerThread.quitSafely();
     try {
       handlerThread.join();
@@ -347,6 +386,13 @@ public abstract class CameraActivity extends AppCompatActivity
     } catch (final InterruptedException e) {
       LOGGER.e(e, "Exception!");
     }
+    // frames handed over while the inference thread was stopping are never finished by it
+    final FrameSource.Frame frame = currentFrame;
+    currentFrame = null;
+    if (frame != null) {
+      frame.release();
+    }
+    frameSlot.clear();
 
     super.onPause();
   }
@@ -363,10 +409,13 @@ public abstract class CameraActivity extends AppCompatActivity
     super.onDestroy();
   }
 
-  protected synchronized void runInBackground(final Runnable r) {
-    if (handler != null) {
-      handler.post(r);
-    }
+  /**
+   * Posts to the inference thread.
+   *
+   * @return false if the runnable was dropped because the activity is paused.
+   */
+  protected synchronized boolean runInBackground(final Runnable r) {
+    return handler != null && handler.post(r);
   }
 
   @Override
@@ -461,6 +510,9 @@ public abstract class CameraActivity extends AppCompatActivity
 
   protected void setFragment() {
     String cameraId = chooseCamera();
+    final PreviewSizeSelector sizeSelector = getPreviewSizeSelector();
+    previewMinShortSide = sizeSelector.getMinShortSide();
+    stopCameraSources();
 
     Fragment fragment;
     if (useCamera2API) {
@@ -469,104 +521,123 @@ public abstract class CameraActivity extends AppCompatActivity
               new CameraConnectionFragment.ConnectionCallback() {
                 @Override
                 public void onPreviewSizeChosen(final Size size, final int rotation) {
-                  previewHeight = size.getHeight();
-                  previewWidth = size.getWidth();
-                  CameraActivity.this.onPreviewSizeChosen(size, rotation);
+                  // the first frame of the new size sets up the pipeline, see process()
+                  camera2Source = new Camera2FrameSource(rotation);
+                  camera2Source.start(CameraActivity.this);
                 }
               },
               this,
               getLayoutId(),
-              getDesiredPreviewFrameSize());
+              sizeSelector);
 
       camera2Fragment.setCamera(cameraId);
       fragment = camera2Fragment;
     } else {
+      legacySource = new LegacyCameraFrameSource(getPreviewBufferCount());
+      legacySource.start(this);
       fragment =
-          new LegacyCameraConnectionFragment(this, getLayoutId(), getDesiredPreviewFrameSize());
+          new LegacyCameraConnectionFragment(
+              this, legacySource.getBufferPool(), getLayoutId(), sizeSelector);
     }
 
     getFragmentManager().beginTransaction().replace(R.id.container, fragment).commit();
   }
 
-  protected void fillBytes(final Plane[] planes, final byte[][] yuvBytes) {
-    // Because of the variable row stride it's not possible to know in
-    // advance the actual necessary dimensions of the yuv planes.
-    for (int i = 0; i < planes.length; ++i) {
-      final ByteBuffer buffer = planes[i].getBuffer();
-      if (yuvBytes[i] == null) {
-        LOGGER.d("Initializing buffer %d at size %d", i, buffer.capacity());
-        yuvBytes[i] = new byte[buffer.capacity()];
-      }
-      buffer.get(yuvBytes[i]);
+  /** Frames of the camera being replaced are not processed anymore, except one already waiting. */
+  private void stopCameraSources() {
+    if (camera2Source != null) {
+      camera2Source.stop();
+      camera2Source = null;
+    }
+    if (legacySource != null) {
+      legacySource.stop();
+      legacySource = null;
     }
   }
 
-  protected void readyForNextImage() {
-    if (postInferenceCallback != null) {
-      postInferenceCallback.run();
-    }
+  /**
+   * Requirements on the camera resolution, by default a short side of at least the smaller side of
+   * {@link #getDesiredPreviewFrameSize()}.
+   */
+  protected PreviewSizeSelector getPreviewSizeSelector() {
+    final Size size = getDesiredPreviewFrameSize();
+    return new PreviewSizeSelector(
+        Math.min(size.getWidth(), size.getHeight()), size.getWidth(), size.getHeight());
   }
 
-  protected int getScreenOrientation() {
-    switch (getWindowManager().getDefaultDisplay().getRotation()) {
-      case Surface.ROTATION_270:
-        return 270;
-      case Surface.ROTATION_180:
-        return 180;
-      case Surface.ROTATION_90:
-        return 90;
-      default:
-        return 0;
+  /**
+   * Reopens the camera if {@link #getPreviewSizeSelector()} asks for another resolution than the
+   * one it was opened with, e.g. after a model with another input size was picked.
+   */
+  protected void renegotiatePreviewSize() {
+    final int minShortSide = getPreviewSizeSelector().getMinShortSide();
+    if (previewMinShortSide < 0 || minShortSide == previewMinShortSide) {
+      return;
     }
+    LOGGER.i("Reopening the camera for a short side of %d", minShortSide);
+    setFragment();
   }
 
-  @UiThread
-  protected void showResultsInBottomSheet(List<Recognition> results) {
-    if (results != null && results.size() >= 3) {
-      Recognition recognition = results.get(0);
-      if (recognition != null) {
-        if (recognition.getTitle() != null) recognitionTextView.setText(recognition.getTitle());
-        if (recognition.getConfidence() != null)
-          recognitionValueTextView.setText(
-              String.format("%.2f", (100 * recognition.getConfidence())) + "%");
-      }
+  /**
+   * Preview buffers the legacy camera API rotates through, so that it has one to write into while
+   * frames are processed.
+   */
+  protected int getPreviewBufferCount() {
+    return DEFAULT_PREVIEW_BUFFER_COUNT;
+  }
 
-      Recognition recognition1 = results.get(1);
-      if (recognition1 != null) {
-        if (recognition1.getTitle() != null) recognition1TextView.setText(recognition1.getTitle());
-        if (recognition1.getConfidence() != null)
-          recognition1ValueTextView.setText(
-              String.format("%.2f", (100 * recognition1.getConfidence())) + "%");
-      }
+  /** Frames the legacy camera driver lost for want of a preview buffer, 0 with Camera2. */
+  protected long getDriverDroppedFrames() {
+    final LegacyCameraFrameSource source = legacySource;
+    return source != null ? source.getBufferPool().getDroppedFrames() : 0;
+  }
 
-      Recognition recognition2 = results.get(2);
-      if (recognition2 != null) {
-        if (recognition2.getTitle() != null) recognition2TextView.setText(recognition2.getTitle());
-        if (recognition2.getConfidence() != null)
-          recognition2ValueTextView.setText(
-              String.format("%.2f", (100 * recognition2.getConfidence())) + "%");
-      }
-    }
+  /** Capture time of the current frame, on the {@link SystemClock#elapsedRealtimeNanos()} base. */
+  protected long getFrameTimestampNanos() {
+    return frameTimestampNanos;
   }
 
-  protected void showFrameInfo(String frameInfo) {
-    frameValueTextView.setText(frameInfo);
+  protected void readyForNextImage() {
+    // cleared before the slot lets the next frame in, which may happen on the source thread
+    final FrameSource.Frame frame = currentFrame;
+    currentFrame = null;
+    if (frame == null) {
+      return;
+    }
+    frame.release();
+    // the newest frame that arrived meanwhile, if any, on this thread
+    final FrameSource.Frame next = frameSlot.next(SystemClock.elapsedRealtimeNanos());
+    if (next != null) {
+      process(next);
+    }
   }
 
-  protected void showCropInfo(String cropInfo) {
-    cropValueTextView.setText(cropInfo);
+  /** Average age of frames when their processing starts, from their capture timestamp. */
+  protected long getFrameAgeNanos() {
+    return frameSlot.getMeanAgeNanos();
   }
 
-  protected void showCameraResolution(String cameraInfo) {
-    cameraResolutionTextView.setText(cameraInfo);
+  /** Frames replaced by a newer one while waiting to be processed. */
+  protected long getSupersededFrames() {
+    return frameSlot.getSupersededFrames();
   }
 
-  protected void showRotationInfo(String rotation) {
-    rotationTextView.setText(rotation);
+  protected int getScreenOrientation() {
+    switch (getWindowManager().getDefaultDisplay().getRotation()) {
+      case Surface.ROTATION_270:
+        return 270;
+      case Surface.ROTATION_180:
+        return 180;
+      case Surface.ROTATION_90:
+        return 90;
+      default:
+        return 0;
+    }
   }
 
-  protected void showInference(String inferenceTime) {
-    inferenceTimeTextView.setText(inferenceTime);
+  /** Shows the changes made to {@link #hud} so far, on a coming display frame. Any thread. */
+  protected void publishHud() {
+    hudPresenter.publish();
   }
 
   protected Model getModel() {
@@ -609,6 +680,26 @@ public abstract class CameraActivity extends AppCompatActivity
     }
   }
 
+  /**
+   * Applies a device and thread count chosen by the app (e.g. from the autotune profile) and shows
+   * it in the bottom sheet, without calling {@link #onInferenceConfigurationChanged()}.
+   */
+  protected void setInferenceConfiguration(Device device, int numThreads) {
+    this.device = device;
+    this.numThreads = numThreads;
+    // the spinner callback sees an unchanged device and does nothing
+    for (int i = 0; i < deviceSpinner.getCount(); i++) {
+      if (deviceSpinner.getItemAtPosition(i).toString().equals(device.name())) {
+        deviceSpinner.setSelection(i);
+        break;
+      }
+    }
+    final boolean threadsEnabled = device == Device.CPU;
+    plusImageView.setEnabled(threadsEnabled);
+    minusImageView.setEnabled(threadsEnabled);
+    threadsTextView.setText(threadsEnabled ? String.valueOf(numThreads) : "N/A");
+  }
+
   protected abstract void processImage();
 
   protected abstract void onPreviewSizeChosen(final Size size, final int rotation);
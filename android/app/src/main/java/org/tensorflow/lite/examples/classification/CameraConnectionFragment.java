@@ -52,11 +52,7 @@ import android.view.TextureView;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.Toast;
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.List;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import org.tensorflow.lite.examples.classification.customview.AutoFitTextureView;
@@ -71,12 +67,6 @@ import org.tensorflow.lite.examples.classification.env.Logger;
 public class CameraConnectionFragment extends Fragment {
   private static final Logger LOGGER = new Logger();
 
-  /**
-   * The camera preview size will be chosen to be the smallest frame by pixel size capable of
-   * containing a DESIRED_SIZE x DESIRED_SIZE square.
-   */
-  private static final int MINIMUM_PREVIEW_SIZE = 320;
-
   /** Conversion from screen rotation to JPEG orientation. */
   private static final SparseIntArray ORIENTATIONS = new SparseIntArray();
 
@@ -93,8 +83,8 @@ public class CameraConnectionFragment extends Fragment {
   private final Semaphore cameraOpenCloseLock = new Semaphore(1);
   /** A {@link OnImageAvailableListener} to receive frames as they are available. */
   private final OnImageAvailableListener imageListener;
-  /** The input size in pixels desired by TensorFlow (width and height of a square bitmap). */
-  private final Size inputSize;
+  /** Picks the preview size the model needs. */
+  private final PreviewSizeSelector sizeSelector;
   /** The layout identifier to inflate for this Fragment. */
   private final int layout;
 
@@ -196,69 +186,47 @@ public class CameraConnectionFragment extends Fragment {
       final ConnectionCallback connectionCallback,
       final OnImageAvailableListener imageListener,
       final int layout,
-      final Size inputSize) {
+      final PreviewSizeSelector sizeSelector) {
     this.cameraConnectionCallback = connectionCallback;
     this.imageListener = imageListener;
     this.layout = layout;
-    this.inputSize = inputSize;
+    this.sizeSelector = sizeSelector;
   }
 
   /**
-   * Given {@code choices} of {@code Size}s supported by a camera, chooses the smallest one whose
-   * width and height are at least as large as the minimum of both, or an exact match if possible.
+   * Given {@code choices} of {@code Size}s supported by a camera, chooses the smallest one the
+   * model can work with, see {@link PreviewSizeSelector}.
    *
    * @param choices The list of sizes that the camera supports for the intended output class
-   * @param width The minimum desired width
-   * @param height The minimum desired height
-   * @return The optimal {@code Size}, or an arbitrary one if none were big enough
+   * @param selector The requirements of the model
+   * @return The optimal {@code Size}, or the closest one if none were big enough
    */
-  protected static Size chooseOptimalSize(final Size[] choices, final int width, final int height) {
-    final int minSize = Math.max(Math.min(width, height), MINIMUM_PREVIEW_SIZE);
-    final Size desiredSize = new Size(width, height);
-
-    // Collect the supported resolutions that are at least as big as the preview Surface
-    boolean exactSizeFound = false;
-    final List<Size> bigEnough = new ArrayList<Size>();
-    final List<Size> tooSmall = new ArrayList<Size>();
-    for (final Size option : choices) {
-      if (option.equals(desiredSize)) {
-        // Set the size but don't return yet so that remaining sizes will still be logged.
-        exactSizeFound = true;
-      }
-
-      if (option.getHeight() >= minSize && option.getWidth() >= minSize) {
-        bigEnough.add(option);
-      } else {
-        tooSmall.add(option);
-      }
+  protected static Size chooseOptimalSize(
+      final Size[] choices, final PreviewSizeSelector selector) {
+    final int[] widths = new int[choices.length];
+    final int[] heights = new int[choices.length];
+    for (int i = 0; i < choices.length; ++i) {
+      widths[i] = choices[i].getWidth();
+      heights[i] = choices[i].getHeight();
     }
+    final int chosen = selector.select(widths, heights);
 
-    LOGGER.i("Desired size: " + desiredSize + ", min size: " + minSize + "x" + minSize);
-    LOGGER.i("Valid preview sizes: [" + TextUtils.join(", ", bigEnough) + "]");
-    LOGGER.i("Rejected preview sizes: [" + TextUtils.join(", ", tooSmall) + "]");
-
-    if (exactSizeFound) {
-      LOGGER.i("Exact size match found.");
-      return desiredSize;
-    }
-
-    // Pick the smallest of those, assuming we found any
-    if (bigEnough.size() > 0) {
-      final Size chosenSize = Collections.min(bigEnough, new CompareSizesByArea());
-      LOGGER.i("Chosen size: " + chosenSize.getWidth() + "x" + chosenSize.getHeight());
-      return chosenSize;
-    } else {
+    LOGGER.i("Min short side: " + selector.getMinShortSide());
+    LOGGER.i("Preview sizes: [" + TextUtils.join(", ", choices) + "]");
+    final Size chosenSize = choices[chosen];
+    if (Math.min(chosenSize.getWidth(), chosenSize.getHeight()) < selector.getMinShortSide()) {
       LOGGER.e("Couldn't find any suitable preview size");
-      return choices[0];
     }
+    LOGGER.i("Chosen size: " + chosenSize.getWidth() + "x" + chosenSize.getHeight());
+    return chosenSize;
   }
 
   public static CameraConnectionFragment newInstance(
       final ConnectionCallback callback,
       final OnImageAvailableListener imageListener,
       final int layout,
-      final Size inputSize) {
-    return new CameraConnectionFragment(callback, imageListener, layout, inputSize);
+      final PreviewSizeSelector sizeSelector) {
+    return new CameraConnectionFragment(callback, imageListener, layout, sizeSelector);
   }
 
   /**
@@ -338,10 +306,7 @@ public class CameraConnectionFragment extends Fragment {
       // bus' bandwidth limitation, resulting in gorgeous previews but the storage of
       // garbage capture data.
       previewSize =
-          chooseOptimalSize(
-              map.getOutputSizes(SurfaceTexture.class),
-              inputSize.getWidth(),
-              inputSize.getHeight());
+          chooseOptimalSize(map.getOutputSizes(SurfaceTexture.class), sizeSelector);
 
       // We fit the aspect ratio of TextureView to the size of preview we picked.
       final int orientation = getResources().getConfiguration().orientation;
@@ -534,16 +499,6 @@ public class CameraConnectionFragment extends Fragment {
     void onPreviewSizeChosen(Size size, int cameraRotation);
   }
 
-  /** Compares two {@code Size}s based on their areas. */
-  static class CompareSizesByArea implements Comparator<Size> {
-    @Override
-    public int compare(final Size lhs, final Size rhs) {
-      // We cast here to ensure the multiplications won't overflow
-      return Long.signum(
-          (long) lhs.getWidth() * lhs.getHeight() - (long) rhs.getWidth() * rhs.getHeight());
-    }
-  }
-
   /** Shows an error message dialog. */
   public static class ErrorDialog extends DialogFragment {
     private static final String ARG_MESSAGE = "message";
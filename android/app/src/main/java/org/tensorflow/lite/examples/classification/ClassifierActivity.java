@@ -16,10 +16,14 @@
 
 package org.tensorflow.lite.examples.classification;
 
+import android.content.ComponentCallbacks2;
 import android.content.Intent;
 import android.content.ServiceConnection;
 import android.graphics.Bitmap;
 import android.graphics.Bitmap.Config;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Rect;
 import android.graphics.Typeface;
 import android.media.ImageReader.OnImageAvailableListener;
 import android.os.Bundle;
@@ -28,23 +32,62 @@ import android.util.Size;
 import android.util.TypedValue;
 import android.widget.Toast;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.tensorflow.lite.examples.classification.customview.FaceOverlayView;
 import org.tensorflow.lite.examples.classification.env.BorderedText;
 import org.tensorflow.lite.examples.classification.env.Logger;
 import org.tensorflow.lite.examples.classification.tflite.Classifier;
 import org.tensorflow.lite.examples.classification.tflite.Classifier.Device;
 import org.tensorflow.lite.examples.classification.tflite.Classifier.Model;
+import org.tensorflow.lite.examples.classification.tflite.EmotionResult;
+import org.tensorflow.lite.examples.classification.tflite.EmotionResultPool;
+import org.tensorflow.lite.examples.classification.tflite.ModelDescriptor;
+import org.tensorflow.lite.examples.classification.tflite.ModelRegistry;
 import android.content.*;
 import android.os.IBinder;
 
 public class ClassifierActivity extends CameraActivity implements OnImageAvailableListener {
   private static final Logger LOGGER = new Logger();
+  /** Boolean intent extra turning on multi-face classification, see {@link #setMultiFace}. */
+  public static final String EXTRA_MULTI_FACE = "multi_face";
+  /** Aspect ratio the preview prefers, and the frame size of benchmarks and image replays. */
   private static final Size DESIRED_PREVIEW_SIZE = new Size(640, 480);
+  /**
+   * Smallest face to classify, as a fraction of the frame's short side; the face detector's own
+   * default minimum.
+   */
+  private static final float MIN_FACE_FRACTION = 0.1F;
   private static final float TEXT_SIZE_DIP = 10;
+  /** Results kept per frame, matches the rows of the bottom sheet. */
+  private static final int MAX_RESULTS = 3;
+  /** Smile probabilities in this band are ambiguous and sent to the emotion model. */
+  private static final float CASCADE_LOW = 0.1F;
+  private static final float CASCADE_HIGH = 0.8F;
+  /** Most faces a multi-face batch returns, see {@link #setMultiFace}. */
+  private static final int MAX_FACES = 8;
+  /** Classify every n-th camera frame, the emotion smoother bridges the gaps. */
+  private static final int DEFAULT_CLASSIFIER_FRAME_STRIDE = 2;
+  /** Classify a static scene at least every n-th candidate frame anyway. */
+  private static final int MAX_STATIC_FRAMES = 10;
+  /** Emotion score vectors kept per track and how fast they fade. */
+  private static final int EMOTION_HISTORY = 16;
+  private static final long EMOTION_HALF_LIFE_NANOS = 300_000_000L;
+  private static final long EMOTION_WINDOW_NANOS = 1_000_000_000L;
+  /** Latency the QoS governor keeps inference under. */
+  private static final long INFERENCE_BUDGET_NANOS = 66_000_000L;
+  /** Cap on the estimated memory of idle classifiers kept for quick switching. */
+  private static final long CLASSIFIER_CACHE_BYTES = 64L * 1024 * 1024;
   private Bitmap rgbFrameBitmap = null;
   private long lastProcessingTimeMs;
   private Integer sensorOrientation;
   private Classifier classifier;
+  /** Configuration of the installed classifier, and idle ones to switch back to; inference thread. */
+  private ClassifierCache.Key classifierKey = null;
+  private final ClassifierCache<Classifier> classifierCache =
+      new ClassifierCache<>(CLASSIFIER_CACHE_BYTES);
   private BorderedText borderedText;
   /** Input image size of the model along x axis. */
   private int imageSizeX;
@@ -54,30 +97,117 @@ public class ClassifierActivity extends CameraActivity implements OnImageAvailab
   private PodUsbSerialService mPodUsbSerialService = null;
   private Boolean mBounded = false;
 
-  // Track throttle and height values for exponential averaging
-  private float last_throttle = 0.0F;
-  private float last_height = -1.0F;
-
-  // Constants for drone movement
-  private final float K_P = 0.1F;
-  private final float THROTTLE_SCALE_FORWARD = 1.0F/25.0F;
-  private final float THROTTLE_SCALE_BACKWARD = 1.0F;
-  private final float THROTTLE_STEP_LIMIT = 0.02F;
-  private final float THROTTLE_MIN = 0.1F;
-  private final float THROTTLE_MAX = 0.3F;
-  private final float THROTTLE_AVERAGE_ALPHA = 0.5F;
-  private final float DEFAULT_THROTTLE_FORWARD = 0.1F;
-  private final float DEFAULT_THROTTLE_BACKWARD = 0.2F;
-
-  // Constants for distance measurement
-  private final int MAX_HEIGHT_LIMIT = 105;
-  private final int MIN_HEIGHT_LIMIT = 40;
-  private final float HEIGHT_AVERAGE_ALPHA = 0.2F;
-
+  // Turns emotion + face height into throttle commands for the drone
+  private final FollowController followController = new FollowController();
+  private final FollowController.Observation observation = new FollowController.Observation();
+  // Predicts the face box at command time from detections keyed on capture time
+  private final FaceTrackPredictor facePredictor = new FaceTrackPredictor();
+  // Results of in-flight and displayed frames; two frames can be alive at once
+  private final EmotionResultPool resultPool =
+      new EmotionResultPool(2 * Math.max(MAX_RESULTS, MAX_FACES));
+  // Lists holding those results, swapped per frame; inference thread
+  private final List<EmotionResult> resultsFront =
+      new ArrayList<>(Math.max(MAX_RESULTS, MAX_FACES));
+  private final List<EmotionResult> resultsBack =
+      new ArrayList<>(Math.max(MAX_RESULTS, MAX_FACES));
+  private boolean useBackResults = false;
+  // Tracked face box drawn over the preview
+  private FaceOverlayView faceOverlay;
+  // Aggregates emotion scores over time so decisions don't follow single-frame flicker
+  private final EmotionSmoother emotionSmoother =
+      new EmotionSmoother(
+              EmotionResult.NUM_CLASSES, EMOTION_HISTORY, EMOTION_HALF_LIFE_NANOS,
+              EMOTION_WINDOW_NANOS)
+          // averaged scores are less extreme than per-frame ones, hence lower than the 0.8 cut
+          .addDecision(EmotionResult.HAPPY, 0.7F)
+          .addDecision(EmotionResult.SURPRISED, 0.5F)
+          .setFallback(EmotionResult.NEUTRAL);
+  private final float[] oneHotScores = new float[EmotionResult.NUM_CLASSES];
+  private int classifierFrameStride = DEFAULT_CLASSIFIER_FRAME_STRIDE;
+  /** Whether every face is classified in one batch; the controller still follows the biggest. */
+  private volatile boolean multiFace = false;
+  // Skips inference while the scene is static, e.g. during a steady hover
+  private final MotionGate motionGate = new MotionGate(MAX_STATIC_FRAMES);
+  private long frameCount = 0;
+  // Replayed frames with a known emotion, and those whose top result matches it; inference thread
+  private int labeledFrames = 0;
+  private int correctFrames = 0;
+  // Steps between operating points when inference gets slower or faster than the budget; the
+  // points are built around the selected configuration once it is known, see resetGovernor()
+  private final QosGovernor governor =
+      new QosGovernor(new QosGovernor.OperatingPoint[0], INFERENCE_BUDGET_NANOS);
+  // Bumped on every requested classifier swap so only the latest one is installed
+  private final AtomicInteger classifierGeneration = new AtomicInteger();
+  /** Scale applied to camera frames before classification; set on the inference thread. */
+  private float inputScale = 1.0F;
+  private Bitmap scaledFrameBitmap = null;
+  private Canvas scaledFrameCanvas = null;
+  private final Matrix scaleMatrix = new Matrix();
+  /** Region of the Y plane fed to gray models; inference thread only. */
+  private final Rect lumaRoi = new Rect();
+  // Profiled device and thread count per model, null until loaded or measured; UI thread only
+  private Autotuner autotuner = null;
+  private Model tunedModel = null;
+  // Set while the profile is loaded or measured; frames are not classified meanwhile, so the
+  // benchmark has the board to itself
+  private volatile Autotuner tuning = null;
 
   @Override
   protected void onCreate(final Bundle savedInstanceState) {
     super.onCreate(savedInstanceState);
+    // The predictor already filters the height, smoothing it again would only add lag
+    followController.setHeightAlpha(1.0F);
+    faceOverlay = findViewById(R.id.face_overlay);
+    setMultiFace(getIntent().getBooleanExtra(EXTRA_MULTI_FACE, false));
+
+    // Pick the fastest device and thread count for this board, measuring them on first launch
+    final Autotuner tuner = new Autotuner(this);
+    tuning = tuner;
+    new Thread(
+            () -> {
+              if (!tuner.load()) {
+                LOGGER.i("No autotune profile for this device, measuring.");
+                tuner.run();
+              }
+              tuning = null;
+              runOnUiThread(
+                  () -> {
+                    if (isDestroyed()) {
+                      return;
+                    }
+                    autotuner = tuner;
+                    applyTunedConfiguration(getModel());
+                  });
+            },
+            "Autotuner")
+        .start();
+  }
+
+  @Override
+  public synchronized void onDestroy() {
+    // a measurement in progress ends after its current configuration and drops this activity
+    final Autotuner tuner = tuning;
+    if (tuner != null) {
+      tuner.cancel();
+    }
+    // kept across pause and resume, the inference thread has stopped since onPause
+    classifierCache.clear();
+    super.onDestroy();
+  }
+
+  /** Switches to the profiled device and thread count of the model, if there are any. */
+  private void applyTunedConfiguration(Model model) {
+    final Device device = autotuner.getDevice(model);
+    final int numThreads = autotuner.getNumThreads(model);
+    if (device == null || (device == getDevice() && numThreads == getNumThreads())) {
+      return;
+    }
+    LOGGER.i("Autotuned %s: device=%s, numThreads=%d", model, device, numThreads);
+    setInferenceConfiguration(device, numThreads);
+    resetGovernor(false);
+    if (rgbFrameBitmap != null) {
+      swapClassifier(model, device, numThreads, true, 1.0F);
+    }
   }
 
   @Override
@@ -119,6 +249,71 @@ public class ClassifierActivity extends CameraActivity implements OnImageAvailab
     return DESIRED_PREVIEW_SIZE;
   }
 
+  /** The smallest preview that still gives the current model its input size. */
+  @Override
+  protected PreviewSizeSelector getPreviewSizeSelector() {
+    int minShortSide = 0;
+    final ModelDescriptor descriptor = getDescriptor(getModel());
+    if (descriptor != null) {
+      minShortSide =
+          PreviewSizeSelector.requiredShortSide(
+              descriptor.inputWidth,
+              descriptor.inputHeight,
+              descriptor.faceDetector,
+              MIN_FACE_FRACTION);
+    }
+    return new PreviewSizeSelector(
+        minShortSide, DESIRED_PREVIEW_SIZE.getWidth(), DESIRED_PREVIEW_SIZE.getHeight());
+  }
+
+  /** The manifest entry of a model, or null if the registry can't be read. */
+  private ModelDescriptor getDescriptor(Model model) {
+    try {
+      return ModelRegistry.get(this).getDescriptor(model.name());
+    } catch (IOException e) {
+      LOGGER.e(e, "Failed to read the model registry.");
+      return null;
+    }
+  }
+
+  /**
+   * Operating points of the QoS governor around a configuration, most expensive first: the
+   * configuration itself, then smaller frames, half the threads and, for face models, no landmarks.
+   */
+  private QosGovernor.OperatingPoint[] buildOperatingPoints(
+      Model model, Device device, int numThreads) {
+    final ModelDescriptor descriptor = getDescriptor(model);
+    final boolean faceDetector = descriptor != null && descriptor.faceDetector;
+    final int fewerThreads = Math.max(1, numThreads / 2);
+    final QosGovernor.OperatingPoint[] points =
+        new QosGovernor.OperatingPoint[faceDetector ? 4 : 3];
+    points[0] = new QosGovernor.OperatingPoint(model, device, 1.0F, numThreads, true);
+    points[1] = new QosGovernor.OperatingPoint(model, device, 0.75F, numThreads, true);
+    points[2] = new QosGovernor.OperatingPoint(model, device, 0.5F, fewerThreads, true);
+    if (faceDetector) {
+      points[3] = new QosGovernor.OperatingPoint(model, device, 0.5F, fewerThreads, false);
+    }
+    return points;
+  }
+
+  /**
+   * Rebuilds the governor's operating points around the selected model, device and thread count,
+   * so it never switches to a model the user did not pick.
+   *
+   * @param disable Whether to also turn the governor off, for a configuration picked by hand.
+   */
+  private void resetGovernor(boolean disable) {
+    final QosGovernor.OperatingPoint[] points =
+        buildOperatingPoints(getModel(), getDevice(), getNumThreads());
+    runInBackground(
+        () -> {
+          governor.setOperatingPoints(points);
+          if (disable) {
+            governor.setEnabled(false);
+          }
+        });
+  }
+
   @Override
   public void onPreviewSizeChosen(final Size size, final int rotation) {
     final float textSizePx =
@@ -127,167 +322,437 @@ public class ClassifierActivity extends CameraActivity implements OnImageAvailab
     borderedText = new BorderedText(textSizePx);
     borderedText.setTypeface(Typeface.MONOSPACE);
 
-    recreateClassifier(getModel(), getDevice(), getNumThreads());
-    if (classifier == null) {
-      LOGGER.e("No classifier on preview!");
-      return;
-    }
+    // Installed on the inference thread like any other swap; frames that arrive before it is
+    // ready are not classified
+    swapClassifier(getModel(), getDevice(), getNumThreads(), true, 1.0F);
+    resetGovernor(false);
 
     previewWidth = size.getWidth();
     previewHeight = size.getHeight();
 
     sensorOrientation = rotation - getScreenOrientation();
     LOGGER.i("Camera orientation relative to screen canvas: %d", sensorOrientation);
+    faceOverlay.setFrameConfiguration(previewWidth, previewHeight, sensorOrientation);
 
     LOGGER.i("Initializing at size %dx%d", previewWidth, previewHeight);
     rgbFrameBitmap = Bitmap.createBitmap(previewWidth, previewHeight, Config.ARGB_8888);
   }
 
-  // Make sure throttle is between min and max allowed values
-  private float getCalibratedThrottle(float throttle) {
-    if (throttle < THROTTLE_MIN) {
-      return THROTTLE_MIN;
-    } else if (throttle > THROTTLE_MAX) {
-      return THROTTLE_MAX;
-    } else {
-      return throttle;
+  /**
+   * Sets {@link #lumaRoi} to the square around the face predicted for the frame, kept inside the
+   * frame, or to the centered square, as the bitmap path crops it, while no face is tracked.
+   * Inference thread only.
+   */
+  private void setLumaRoi(long captureNanos) {
+    final int maxSide = Math.min(previewWidth, previewHeight);
+    final float height = facePredictor.predictHeight(captureNanos);
+    if (Float.isNaN(height) || height < 1) {
+      lumaRoi.set(
+          (previewWidth - maxSide) / 2,
+          (previewHeight - maxSide) / 2,
+          (previewWidth + maxSide) / 2,
+          (previewHeight + maxSide) / 2);
+      return;
     }
+    final int side = Math.min(Math.round(height), maxSide);
+    final int left = Math.round(facePredictor.predictCenterX(captureNanos) - side / 2F);
+    final int top = Math.round(facePredictor.predictCenterY(captureNanos) - side / 2F);
+    final int clampedLeft = Math.max(0, Math.min(left, previewWidth - side));
+    final int clampedTop = Math.max(0, Math.min(top, previewHeight - side));
+    lumaRoi.set(clampedLeft, clampedTop, clampedLeft + side, clampedTop + side);
   }
 
-  private void droneForward(float throttle) {
-    float scaled_throttle = getCalibratedThrottle(throttle * THROTTLE_SCALE_FORWARD);
-    moveDrone(scaled_throttle);
-  }
-
-  private void droneBackward(float throttle) {
-    float scaled_throttle = getCalibratedThrottle(throttle * THROTTLE_SCALE_BACKWARD);
-    moveDrone(-1 * scaled_throttle);
-  }
-
-  private void droneStop() {
-    moveDrone(0.0F);
+  private static int toEmotionCode(String label) {
+    if ("Happy".equalsIgnoreCase(label)) {
+      return FollowController.EMOTION_HAPPY;
+    } else if ("Surprised".equalsIgnoreCase(label)) {
+      return FollowController.EMOTION_SURPRISED;
+    } else {
+      return FollowController.EMOTION_NEUTRAL;
+    }
   }
 
-  private void moveDrone(float target_throttle) {
-    // Smooth throttle values using exponential averaging
-    float averaged_throttle = THROTTLE_AVERAGE_ALPHA * target_throttle + (1 - THROTTLE_AVERAGE_ALPHA) * last_throttle;
-
-    // Don't send duplicate packet if the throttle isn't sufficiently different from the last one sent
-    if (Math.abs(averaged_throttle-last_throttle) < THROTTLE_STEP_LIMIT) return;
-
-    // Send averaged throttle value to drone
-    CommanderHoverPacket cp = new CommanderHoverPacket(averaged_throttle, 0F, 0F, 0.6F);
+  private void moveDrone(float throttle) {
+    CommanderHoverPacket cp = new CommanderHoverPacket(throttle, 0F, 0F, 0.6F);
     mPodUsbSerialService.usbSendData(((CrtpPacket) cp).toByteArray());
-
-    // Update last sent throttle value
-    last_throttle = averaged_throttle;
   }
 
   @Override
   protected void processImage() {
-    rgbFrameBitmap.setPixels(getRgbBytes(), 0, previewWidth, 0, 0, previewWidth, previewHeight);
+    // Only every classifierFrameStride-th frame is classified, and only if something moved since
+    // the last classified one. The others just run the controller on the predicted face and the
+    // smoothed emotion. Replayed frames are all classified. Nothing is while autotuning.
+    final boolean replaying = isReplaying();
+    final boolean classify =
+        tuning == null
+            && (replaying
+                || ((frameCount++ % classifierFrameStride) == 0
+                    && motionGate.accept(
+                        getLuminance(), previewWidth, previewHeight, getLuminanceStride())));
+    // Gray models read the Y plane directly, so the RGB conversion is skipped for them. The
+    // classifier is only a hint here, it may still be swapped before the frame is classified.
+    final Classifier hint = classifier;
+    final boolean rgbReady = classify && (hint == null || !hint.supportsLuma());
+    if (rgbReady) {
+      rgbFrameBitmap.setPixels(getRgbBytes(), 0, previewWidth, 0, 0, previewWidth, previewHeight);
+    }
+    final byte[] luma = getLuminance();
+    final int lumaStride = getLuminanceStride();
 
     final int cropSize = Math.min(previewWidth, previewHeight);
+    final long captureNanos = getFrameTimestampNanos();
+    final int label = getFrameLabel();
 
-    runInBackground(
+    final Runnable classification =
         new Runnable() {
           @Override
           public void run() {
-            if (classifier != null) {
-              final long startTime = SystemClock.uptimeMillis();
+            final Classifier current = classifier;
+            if (classify && current != null && (rgbReady || current.supportsLuma())) {
+              final long startNanos = SystemClock.elapsedRealtimeNanos();
 
               // Get emotion recognition results from captured image
-              final List<Classifier.Recognition> results =
-                  classifier.recognizeImage(rgbFrameBitmap, sensorOrientation);
-              lastProcessingTimeMs = SystemClock.uptimeMillis() - startTime;
-
-              // If done is connected, move based on emotion results
-              if (mPodUsbSerialService != null && results.size() != 0) {
-                float captured_height = results.get(0).getLocation().height();
-                if (Float.isNaN(captured_height)) return;
-
-                // Remove noise from height measurement using exponential averaging
-                float smoothed_height = (last_height == -1.0) ?
-                        captured_height :
-                        (HEIGHT_AVERAGE_ALPHA * captured_height + (1 - HEIGHT_AVERAGE_ALPHA) * last_height);
-                last_height = smoothed_height;
-
-                // Send drone motion command based on recognized emotion and current distance
-                if (results.size() > 0 && results.get(0).getId() == "Happy" && smoothed_height < MAX_HEIGHT_LIMIT) {
-                  float throttle = K_P * (MAX_HEIGHT_LIMIT - smoothed_height);
-                  droneForward(throttle);
-                } else if (results.size() > 0 && results.get(0).getId() == "Surprised" && smoothed_height > MIN_HEIGHT_LIMIT){
-                  float throttle = K_P * (smoothed_height - MIN_HEIGHT_LIMIT);
-                  droneBackward(throttle);
-                } else if (smoothed_height != 0 && smoothed_height > MAX_HEIGHT_LIMIT) {
-                  droneBackward(DEFAULT_THROTTLE_BACKWARD);
-                } else if (smoothed_height != 0 && smoothed_height < MIN_HEIGHT_LIMIT) {
-                  droneForward(DEFAULT_THROTTLE_FORWARD);
-                } else {
-                  droneStop();
+              final List<EmotionResult> results = nextResultList();
+              if (current.supportsLuma()) {
+                setLumaRoi(captureNanos);
+                current.recognizeLuma(
+                    luma,
+                    previewWidth,
+                    previewHeight,
+                    lumaStride,
+                    lumaRoi,
+                    sensorOrientation,
+                    resultPool,
+                    results);
+              } else {
+                final float scale = inputScale;
+                current.setLumaFrame(luma, previewWidth, previewHeight, lumaStride);
+                current.recognize(getScaledFrame(scale), sensorOrientation, resultPool, results);
+                if (scale != 1.0F) {
+                  unscaleLocations(results, scale);
                 }
               }
+              final long latencyNanos = SystemClock.elapsedRealtimeNanos() - startNanos;
+              lastProcessingTimeMs = latencyNanos / 1_000_000L;
+              final int batchSize = current.getLastBatchSize();
+              final long perFaceMicros =
+                  batchSize > 0 ? current.getLastInferenceNanos() / batchSize / 1000L : 0;
+              // a replay measures the configuration it was started with
+              if (!replaying && governor.onInference(latencyNanos)) {
+                QosGovernor.OperatingPoint point = governor.getOperatingPoint();
+                LOGGER.i("Inference at %d ms, switching to %s", lastProcessingTimeMs, point);
+                swapClassifier(
+                    point.model, point.device, point.numThreads, point.landmarks, point.inputScale);
+              }
 
-              runOnUiThread(
-                  new Runnable() {
-                    @Override
-                    public void run() {
-                      showResultsInBottomSheet(results);
-                      showFrameInfo(previewWidth + "x" + previewHeight);
-                      showCropInfo(imageSizeX + "x" + imageSizeY);
-                      showCameraResolution(cropSize + "x" + cropSize);
-                      showRotationInfo(String.valueOf(sensorOrientation));
-                      showInference(lastProcessingTimeMs + "ms");
-                    }
-                  });
+              if (results.size() != 0) {
+                EmotionResult top = results.get(0);
+                if (top.hasLocation) {
+                  facePredictor.update(captureNanos, top.centerX(), top.centerY(), top.height());
+                  // the overlay names FER classes; other models get the box only
+                  final int emotion = current.getDescriptor().faceDetector ? top.classId : -1;
+                  faceOverlay.setFace(
+                      top.left, top.top, top.right, top.bottom, emotion, top.score);
+                }
+                emotionSmoother.add(captureNanos, getScores(current, top));
+              }
+              if (results.size() == 0 || !results.get(0).hasLocation) {
+                faceOverlay.clearFace();
+              }
+              if (label != FrameSource.NO_LABEL) {
+                labeledFrames++;
+                if (results.size() != 0 && argmax(getScores(current, results.get(0))) == label) {
+                  correctFrames++;
+                }
+              }
+
+              // Plain values only; the UI thread builds the text once per shown display frame
+              if (results.size() >= HudModel.NUM_RESULTS) {
+                for (int rank = 0; rank < HudModel.NUM_RESULTS; rank++) {
+                  final EmotionResult result = results.get(rank);
+                  hud.setResult(rank, current.getLabel(result.classId), result.score);
+                }
+              }
+              resultPool.releaseAll(results);
+              // replay timestamps are synthetic, their age means nothing
+              final long ageMs = replaying ? 0 : getFrameAgeNanos() / 1_000_000L;
+              hud.setFrame(
+                  previewWidth,
+                  previewHeight,
+                  ageMs,
+                  getDriverDroppedFrames(),
+                  getSupersededFrames());
+              hud.setCrop(imageSizeX, imageSizeY);
+              hud.setCameraSize(cropSize);
+              hud.setRotation(sensorOrientation);
+              hud.setInference(
+                  lastProcessingTimeMs,
+                  Math.round(100 * motionGate.getSkipRate()),
+                  Math.round(100 * current.getCascadeModelRate()),
+                  batchSize,
+                  perFaceMicros);
+              publishHud();
             }
+            updateDrone();
             readyForNextImage();
           }
+        };
+    if (!runInBackground(classification)) {
+      // paused: nobody would ever finish this frame
+      readyForNextImage();
+    }
+  }
+
+  /** The current frame at the given scale, reusing the scaled bitmap while the size is stable. */
+  private Bitmap getScaledFrame(float scale) {
+    if (scale == 1.0F) {
+      return rgbFrameBitmap;
+    }
+    int width = Math.round(previewWidth * scale);
+    int height = Math.round(previewHeight * scale);
+    if (scaledFrameBitmap == null
+        || scaledFrameBitmap.getWidth() != width
+        || scaledFrameBitmap.getHeight() != height) {
+      scaledFrameBitmap = Bitmap.createBitmap(width, height, Config.ARGB_8888);
+      scaledFrameCanvas = new Canvas(scaledFrameBitmap);
+    }
+    scaleMatrix.setScale(scale, scale);
+    scaledFrameCanvas.drawBitmap(rgbFrameBitmap, scaleMatrix, null);
+    return scaledFrameBitmap;
+  }
+
+  /** Maps result locations from the scaled frame back to preview coordinates. */
+  /** An empty preallocated list for the results of the next frame; inference thread. */
+  private List<EmotionResult> nextResultList() {
+    useBackResults = !useBackResults;
+    final List<EmotionResult> results = useBackResults ? resultsBack : resultsFront;
+    results.clear();
+    return results;
+  }
+
+  private static void unscaleLocations(List<EmotionResult> results, float scale) {
+    for (int i = 0; i < results.size(); i++) {
+      EmotionResult result = results.get(i);
+      if (result.hasLocation) {
+        result.setLocation(
+            Math.round(result.left / scale),
+            Math.round(result.top / scale),
+            Math.round(result.right / scale),
+            Math.round(result.bottom / scale));
+      }
+    }
+  }
+
+  /** Scores to aggregate for a result, one-hot on its label for models without emotion scores. */
+  private float[] getScores(Classifier current, EmotionResult result) {
+    if (result.hasProbabilities) {
+      return result.probabilities;
+    }
+    Arrays.fill(oneHotScores, 0f);
+    oneHotScores[toEmotionCode(current.getLabel(result.classId))] = 1f;
+    return oneHotScores;
+  }
+
+  private static int argmax(float[] scores) {
+    int best = 0;
+    for (int i = 1; i < scores.length; i++) {
+      if (scores[i] > scores[best]) {
+        best = i;
+      }
+    }
+    return best;
+  }
+
+  @Override
+  public void onEnd() {
+    super.onEnd();
+    // the counters belong to the inference thread, which counted the last frame before releasing it
+    runInBackground(
+        () ->
+            LOGGER.i(
+                "Replay accuracy: %d of %d labeled frames (%.1f%%)",
+                correctFrames,
+                labeledFrames,
+                100.0 * correctFrames / Math.max(1, labeledFrames)));
+  }
+
+  // If drone is connected, move based on the smoothed emotion and the predicted face size
+  private void updateDrone() {
+    if (mPodUsbSerialService == null) {
+      return;
+    }
+    long nowNanos = SystemClock.elapsedRealtimeNanos();
+    if (!emotionSmoother.update(nowNanos)) {
+      return;
+    }
+    observation.set(emotionSmoother.decide(), facePredictor.predictHeight(nowNanos));
+    if (followController.step(nowNanos, observation)) {
+      moveDrone(followController.getThrottle());
+    }
+  }
+
+  /**
+   * Classifies every detected face, batched into a single inference, instead of only the biggest
+   * one. Per-face latency is shown with the inference time.
+   */
+  public void setMultiFace(boolean enabled) {
+    multiFace = enabled;
+    runInBackground(
+        () -> {
+          if (classifier != null) {
+            classifier.setMultiFace(enabled);
+          }
         });
   }
 
+  /** Classifies only every {@code stride}-th camera frame. */
+  public void setClassifierFrameStride(int stride) {
+    classifierFrameStride = Math.max(1, stride);
+  }
+
   @Override
   protected void onInferenceConfigurationChanged() {
+    // a model with another input size may want another camera resolution
+    renegotiatePreviewSize();
     if (rgbFrameBitmap == null) {
       // Defer creation until we're getting camera frames.
       return;
     }
-    final Device device = getDevice();
     final Model model = getModel();
+    if (autotuner != null && model != tunedModel) {
+      // Start a newly picked model on its profiled device and thread count
+      tunedModel = model;
+      Device device = autotuner.getDevice(model);
+      if (device != null) {
+        setInferenceConfiguration(device, autotuner.getNumThreads(model));
+      }
+    }
+    final Device device = getDevice();
     final int numThreads = getNumThreads();
-    runInBackground(() -> recreateClassifier(model, device, numThreads));
+    // A configuration picked by hand wins over the governor
+    resetGovernor(true);
+    swapClassifier(model, device, numThreads, true, 1.0F);
   }
 
-  private void recreateClassifier(Model model, Device device, int numThreads) {
-    if (classifier != null) {
-      LOGGER.d("Closing classifier.");
-      classifier.close();
-      classifier = null;
+  /**
+   * Installs a classifier for the configuration on the inference thread. A recently used one is
+   * taken from the cache right away; otherwise it is created on a loader thread, so frames keep
+   * being processed with the old one in the meantime.
+   */
+  private void swapClassifier(
+      Model model, Device device, int numThreads, boolean landmarks, float scale) {
+    final int generation = classifierGeneration.incrementAndGet();
+    final ClassifierCache.Key key = new ClassifierCache.Key(model, device, numThreads, landmarks);
+    runInBackground(
+        () -> {
+          if (generation != classifierGeneration.get()) {
+            return;
+          }
+          if (key.equals(classifierKey)) {
+            inputScale = scale;
+            return;
+          }
+          Classifier cached = classifierCache.take(key);
+          if (cached != null) {
+            LOGGER.d("Reusing classifier %s", key);
+            installClassifier(key, cached, scale);
+            return;
+          }
+          new Thread(
+                  () -> {
+                    final Classifier next = createClassifier(model, device, numThreads, landmarks);
+                    if (next == null) {
+                      return;
+                    }
+                    final boolean posted =
+                        runInBackground(
+                            () -> {
+                              if (generation != classifierGeneration.get()) {
+                                // a newer request is on its way, keep this one for later
+                                classifierCache.put(key, next, estimateBytes(next));
+                                return;
+                              }
+                              installClassifier(key, next, scale);
+                            });
+                    if (!posted) {
+                      // paused meanwhile, nobody would install or close it
+                      LOGGER.d("Closing classifier %s created while paused.", key);
+                      next.close();
+                    }
+                  },
+                  "ClassifierLoader")
+              .start();
+        });
+  }
+
+  /** Makes {@code next} the classifier in use and parks the previous one in the cache. */
+  private void installClassifier(ClassifierCache.Key key, Classifier next, float scale) {
+    Classifier previous = classifier;
+    ClassifierCache.Key previousKey = classifierKey;
+    classifier = next;
+    classifierKey = key;
+    next.setMultiFace(multiFace);
+    next.setCascadeBand(CASCADE_LOW, CASCADE_HIGH);
+    inputScale = scale;
+    imageSizeX = next.getImageSizeX();
+    imageSizeY = next.getImageSizeY();
+    // the new classifier sees the scene first, even if it is static
+    motionGate.reset();
+    if (previous != null) {
+      if (previousKey != null) {
+        classifierCache.put(previousKey, previous, estimateBytes(previous));
+      } else {
+        LOGGER.d("Closing classifier.");
+        previous.close();
+      }
+    }
+  }
+
+  /**
+   * Memory held by a classifier on top of the shared model mapping. Interpreters repack or copy
+   * the weights for their delegate, so this is about the size of the model file.
+   */
+  private long estimateBytes(Classifier classifier) {
+    try {
+      return ModelRegistry.get(this).getModel(classifier.getDescriptor()).capacity();
+    } catch (IOException e) {
+      return 0;
+    }
+  }
+
+  @Override
+  public void onTrimMemory(int level) {
+    super.onTrimMemory(level);
+    if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW
+        && !runInBackground(classifierCache::clear)) {
+      // paused, the inference thread has stopped, so the idle classifiers can be closed from here
+      classifierCache.clear();
     }
-    if (device == Device.GPU
-        && (model == Model.QUANTIZED_MOBILENET || model == Model.QUANTIZED_EFFICIENTNET)) {
+  }
+
+  /** Creates a classifier, or returns null and tells the user why it couldn't be created. */
+  private Classifier createClassifier(
+      Model model, Device device, int numThreads, boolean landmarks) {
+    final ModelDescriptor descriptor = getDescriptor(model);
+    if (device == Device.GPU && descriptor != null && descriptor.quantized) {
       LOGGER.d("Not creating classifier: GPU doesn't support quantized models.");
       runOnUiThread(
           () -> {
             Toast.makeText(this, R.string.tfe_ic_gpu_quant_error, Toast.LENGTH_LONG).show();
           });
-      return;
+      return null;
     }
     try {
       LOGGER.d(
           "Creating classifier (model=%s, device=%s, numThreads=%d)", model, device, numThreads);
-      classifier = Classifier.create(this, model, device, numThreads);
+      return Classifier.create(this, model, device, numThreads, landmarks);
     } catch (IOException | IllegalArgumentException e) {
       LOGGER.e(e, "Failed to create classifier.");
       runOnUiThread(
           () -> {
             Toast.makeText(this, e.getMessage(), Toast.LENGTH_LONG).show();
           });
-      return;
+      return null;
     }
-
-    // Updates the input image size.
-    imageSizeX = classifier.getImageSizeX();
-    imageSizeY = classifier.getImageSizeY();
   }
 }
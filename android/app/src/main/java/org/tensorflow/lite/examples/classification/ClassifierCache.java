@@ -0,0 +1,161 @@
+/*
+ * Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.classification;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.tensorflow.lite.examples.classification.env.Logger;
+import org.tensorflow.lite.examples.classification.tflite.Classifier.Device;
+import org.tensorflow.lite.examples.classification.tflite.Classifier.Model;
+
+/**
+ * Keeps recently used classifiers alive so that switching back to a configuration does not
+ * rebuild the interpreter, its delegates and the face detector.
+ *
+ * <p>Only idle classifiers are held: the one in use is {@link #take taken} out and the one it
+ * replaces is {@link #put put} back. When the estimated size of the idle classifiers exceeds the
+ * cap, the least recently used ones are evicted and closed.
+ *
+ * <p>Not thread safe, call it from the inference thread, which is also where classifiers are
+ * closed.
+ *
+ * @param <C> Type of the classifiers, a {@link
+ *     org.tensorflow.lite.examples.classification.tflite.Classifier} outside of tests.
+ */
+public final class ClassifierCache<C extends Closeable> {
+  private static final Logger LOGGER = new Logger();
+
+  /** Configuration a classifier was created with. */
+  public static final class Key {
+    public final Model model;
+    public final Device device;
+    public final int numThreads;
+    public final boolean landmarks;
+
+    public Key(Model model, Device device, int numThreads, boolean landmarks) {
+      this.model = model;
+      this.device = device;
+      this.numThreads = numThreads;
+      this.landmarks = landmarks;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) o;
+      return model == other.model
+          && device == other.device
+          && numThreads == other.numThreads
+          && landmarks == other.landmarks;
+    }
+
+    @Override
+    public int hashCode() {
+      int hash = model.hashCode();
+      hash = 31 * hash + device.hashCode();
+      hash = 31 * hash + numThreads;
+      return 31 * hash + (landmarks ? 1 : 0);
+    }
+
+    @Override
+    public String toString() {
+      return model + "/" + device + "/" + numThreads + (landmarks ? "/landmarks" : "");
+    }
+  }
+
+  private static final class Entry<C> {
+    final C classifier;
+    final long bytes;
+
+    Entry(C classifier, long bytes) {
+      this.classifier = classifier;
+      this.bytes = bytes;
+    }
+  }
+
+  private final long maxBytes;
+  // access order, so iteration starts at the least recently used entry
+  private final LinkedHashMap<Key, Entry<C>> entries = new LinkedHashMap<>(8, 0.75f, true);
+  private long totalBytes = 0;
+
+  /** @param maxBytes Cap on the estimated size of the idle classifiers. */
+  public ClassifierCache(long maxBytes) {
+    this.maxBytes = maxBytes;
+  }
+
+  /** Removes and returns the idle classifier for the configuration, or null if there is none. */
+  public C take(Key key) {
+    Entry<C> entry = entries.remove(key);
+    if (entry == null) {
+      return null;
+    }
+    totalBytes -= entry.bytes;
+    return entry.classifier;
+  }
+
+  /**
+   * Keeps a classifier that is no longer in use, evicting the least recently used ones beyond the
+   * cap. A classifier bigger than the cap on its own is closed right away.
+   *
+   * @param bytes Estimated memory held by the classifier.
+   */
+  public void put(Key key, C classifier, long bytes) {
+    Entry<C> previous = entries.put(key, new Entry<>(classifier, bytes));
+    totalBytes += bytes;
+    if (previous != null) {
+      totalBytes -= previous.bytes;
+      if (previous.classifier != classifier) {
+        close(previous.classifier);
+      }
+    }
+    trimTo(maxBytes);
+  }
+
+  /** Closes every idle classifier, e.g. when the activity goes away or memory runs low. */
+  public void clear() {
+    trimTo(-1);
+  }
+
+  /** Number of idle classifiers. */
+  public int size() {
+    return entries.size();
+  }
+
+  private void trimTo(long bytes) {
+    Iterator<Map.Entry<Key, Entry<C>>> it = entries.entrySet().iterator();
+    while (totalBytes > bytes && it.hasNext()) {
+      Map.Entry<Key, Entry<C>> eldest = it.next();
+      it.remove();
+      totalBytes -= eldest.getValue().bytes;
+      LOGGER.d("Evicting classifier %s", eldest.getKey());
+      close(eldest.getValue().classifier);
+    }
+  }
+
+  private static void close(Closeable classifier) {
+    try {
+      classifier.close();
+    } catch (IOException e) {
+      LOGGER.w("Failed to close classifier: %s", e.getMessage());
+    }
+  }
+}
@@ -1,6 +1,5 @@
 package org.tensorflow.lite.examples.classification
 
-import android.util.Log
 import java.nio.ByteBuffer
 
 class CommanderPacket(@JvmField val roll: Float, @JvmField val pitch: Float, @JvmField val yaw: Float, @JvmField val thrust: Float): CrtpPacket(0, CrtpPort.COMMANDER) {
@@ -49,4 +48,20 @@ class CommanderHoverPacket(vx: Float, vy: Float, vyaw: Float, dis: Float): CrtpP
     override fun toString(): String {
         return "CommanderHoverPacket - Vx: $mVx, Vy: $mVy, Vyaw: $mVyaw, Dis: $mDis"
     }
-}
\ No newline at end of file
+}
+
+class CommanderStopPacket: CrtpPacket(0, CrtpPort.COMMANDER_GENERIC) {
+    private val mTYPE: Byte = 0 // type of stop command, cuts the motors
+
+    override fun getDataByteCount(): Int? {
+        return 1
+    }
+
+    override fun serializeData(b: ByteBuffer) {
+        b.put(mTYPE)
+    }
+
+    override fun toString(): String {
+        return "CommanderStopPacket"
+    }
+}
@@ -0,0 +1,19 @@
+package org.tensorflow.lite.examples.classification
+
+/*! transport that carries serialized CRTP packets to and from the drone */
+interface CrtpLink {
+    /*! receives raw packets coming back from the drone */
+    fun interface Listener {
+        fun onPacketReceived(data: ByteArray)
+    }
+
+    /*! open the link and start delivering incoming packets to the listener */
+    fun open(listener: Listener): Boolean
+
+    /*! write one serialized packet (header byte + payload) */
+    fun send(data: ByteArray)
+
+    fun close()
+
+    fun isOpen(): Boolean
+}
@@ -0,0 +1,145 @@
+package org.tensorflow.lite.examples.classification
+
+/*!
+ * Traffic accounting for the serial link to the drone.
+ *
+ * Bytes are counted per CRTP port over a sliding one second window (WINDOW_BUCKETS buckets) in
+ * each direction, and the duration of every write call is tracked. Producers can ask how much of
+ * the outbound budget is left, and the outbound queue holds back BULK traffic once the link is
+ * busy enough that setpoints would start to lag.
+ *
+ * The USB serial driver queues writes, so a write call only tells how long the driver took to
+ * accept the bytes; a slow one hints at a backlog. That hint fades while nothing is written, the
+ * average halving every WRITE_LATENCY_HALF_LIFE_NANOS, so BULK traffic held back by it is let
+ * through again even when no other lane writes to refresh it.
+ */
+class CrtpLinkHealth @JvmOverloads constructor(
+    baudRate: Int,
+    private val mClock: () -> Long = System::nanoTime
+) {
+    companion object {
+        private const val PORT_COUNT: Int = 16
+        private const val WINDOW_BUCKETS: Int = 10
+        private const val BUCKET_NANOS: Long = 100_000_000L
+        private const val BITS_PER_BYTE_ON_WIRE: Int = 10 // 8N1: start + 8 data + stop
+
+        // fraction of the raw capacity we plan against, leaving room for framing and jitter
+        private const val MAX_UTILIZATION: Float = 0.8f
+        // above this, BULK traffic waits so the higher lanes keep a margin
+        private const val BULK_THROTTLE_UTILIZATION: Float = 0.6f
+        // or when a single write already takes this long the driver is backing up
+        private const val BULK_THROTTLE_WRITE_NANOS: Long = 5_000_000L
+        private const val WRITE_LATENCY_ALPHA: Float = 0.1f
+        private const val WRITE_LATENCY_HALF_LIFE_NANOS: Double = 100_000_000.0
+    }
+
+    /*! raw capacity of the link in bytes per second */
+    val capacityBytesPerSecond: Int = baudRate / BITS_PER_BYTE_ON_WIRE
+
+    private val mTxBuckets = LongArray(PORT_COUNT * WINDOW_BUCKETS)
+    private val mRxBuckets = LongArray(PORT_COUNT * WINDOW_BUCKETS)
+    private var mCurrentBucket: Long = -1L
+
+    private var mLastWriteNanos: Long = 0L
+    private var mMaxWriteNanos: Long = 0L
+    private var mAverageWriteNanos: Float = 0f
+    private var mLastWriteAtNanos: Long = 0L
+    private var mTotalTxBytes: Long = 0L
+    private var mTotalRxBytes: Long = 0L
+
+    @Synchronized
+    fun recordWrite(data: ByteArray, writeNanos: Long) {
+        val now = mClock()
+        add(mTxBuckets, data, now)
+        mTotalTxBytes += data.size
+        mLastWriteNanos = writeNanos
+        if (writeNanos > mMaxWriteNanos) mMaxWriteNanos = writeNanos
+        val average = decayedWriteNanos(now)
+        mAverageWriteNanos = average + (writeNanos - average) * WRITE_LATENCY_ALPHA
+        mLastWriteAtNanos = now
+    }
+
+    @Synchronized
+    fun recordReceive(data: ByteArray) {
+        add(mRxBuckets, data, mClock())
+        mTotalRxBytes += data.size
+    }
+
+    private fun add(buckets: LongArray, data: ByteArray, nowNanos: Long) {
+        if (data.isEmpty()) return
+        advance(nowNanos)
+        val port = (data[0].toInt() shr 4) and 0x0f
+        buckets[port * WINDOW_BUCKETS + (mCurrentBucket % WINDOW_BUCKETS).toInt()] += data.size.toLong()
+    }
+
+    /*! average write latency, faded by the time since the last write */
+    private fun decayedWriteNanos(nowNanos: Long): Float {
+        val idle = nowNanos - mLastWriteAtNanos
+        if (idle <= 0L) return mAverageWriteNanos
+        return mAverageWriteNanos * Math.pow(0.5, idle / WRITE_LATENCY_HALF_LIFE_NANOS).toFloat()
+    }
+
+    /*! move the window forward to nowNanos, clearing buckets that fell out of it */
+    private fun advance(nowNanos: Long) {
+        val bucket = nowNanos / BUCKET_NANOS
+        if (bucket == mCurrentBucket) return
+        val stale = if (mCurrentBucket < 0) WINDOW_BUCKETS.toLong()
+                    else minOf(bucket - mCurrentBucket, WINDOW_BUCKETS.toLong())
+        for (b in 1..stale) {
+            val slot = ((bucket - stale + b) % WINDOW_BUCKETS).toInt()
+            for (port in 0 until PORT_COUNT) {
+                mTxBuckets[port * WINDOW_BUCKETS + slot] = 0L
+                mRxBuckets[port * WINDOW_BUCKETS + slot] = 0L
+            }
+        }
+        mCurrentBucket = bucket
+    }
+
+    private fun sum(buckets: LongArray, port: Int): Long {
+        var total = 0L
+        for (i in 0 until WINDOW_BUCKETS) total += buckets[port * WINDOW_BUCKETS + i]
+        return total
+    }
+
+    /*! outbound bytes per second on the given port over the last second */
+    @Synchronized
+    fun getTxBytesPerSecond(port: CrtpPort): Long {
+        advance(mClock())
+        return sum(mTxBuckets, port.getNumber() and 0x0f)
+    }
+
+    /*! inbound bytes per second on the given port over the last second */
+    @Synchronized
+    fun getRxBytesPerSecond(port: CrtpPort): Long {
+        advance(mClock())
+        return sum(mRxBuckets, port.getNumber() and 0x0f)
+    }
+
+    @Synchronized
+    fun getTxBytesPerSecond(): Long {
+        advance(mClock())
+        var total = 0L
+        for (port in 0 until PORT_COUNT) total += sum(mTxBuckets, port)
+        return total
+    }
+
+    /*! fraction of the raw outbound capacity used over the last second */
+    fun getTxUtilization(): Float = getTxBytesPerSecond().toFloat() / capacityBytesPerSecond
+
+    /*! outbound bytes per second still available before the link is considered full */
+    fun getAvailableBytesPerSecond(): Long =
+        maxOf(0L, (capacityBytesPerSecond * MAX_UTILIZATION).toLong() - getTxBytesPerSecond())
+
+    /*! true when low priority traffic should wait so setpoints are not delayed */
+    fun shouldThrottle(lane: CrtpLane): Boolean {
+        if (lane != CrtpLane.BULK) return false
+        val writeNanos = getAverageWriteNanos()
+        return getTxUtilization() > BULK_THROTTLE_UTILIZATION || writeNanos > BULK_THROTTLE_WRITE_NANOS
+    }
+
+    @Synchronized fun getLastWriteNanos() = mLastWriteNanos
+    @Synchronized fun getMaxWriteNanos() = mMaxWriteNanos
+    @Synchronized fun getAverageWriteNanos() = decayedWriteNanos(mClock()).toLong()
+    @Synchronized fun getTotalTxBytes() = mTotalTxBytes
+    @Synchronized fun getTotalRxBytes() = mTotalRxBytes
+}
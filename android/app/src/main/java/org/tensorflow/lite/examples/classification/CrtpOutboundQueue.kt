@@ -0,0 +1,199 @@
+package org.tensorflow.lite.examples.classification
+
+import android.util.Log
+import java.util.ArrayDeque
+import java.util.concurrent.locks.ReentrantLock
+import kotlin.concurrent.withLock
+
+/*! outbound priority lanes, highest priority first */
+enum class CrtpLane {
+    SAFETY,     // stop setpoints, high-level stop and land, arm/disarm
+    COMMAND,    // other high-level commands (takeoff, go to, trajectories), never coalesced
+    PARAMETER,  // parameter reads and writes
+    SETPOINT,   // commander setpoints, only the newest one is kept
+    BULK;       // everything else (console, logging configuration, ...)
+
+    companion object {
+        private const val GENERIC_TYPE_STOP: Int = 0
+
+        // high-level commander command ids, first payload byte
+        private const val HL_LAND: Int = 2
+        private const val HL_STOP: Int = 3
+        private const val HL_LAND_2: Int = 8
+        private const val HL_LAND_WITH_VELOCITY: Int = 10
+
+        /*! pick a lane from the CRTP header (and commander type) of a serialized packet */
+        fun forPacket(data: ByteArray): CrtpLane {
+            if (data.isEmpty()) return BULK
+            if (isStop(data)) return SAFETY
+            return when (CrtpPort.getPortByNumber((data[0].toInt() shr 4) and 0x0f)) {
+                CrtpPort.PLATFORM -> SAFETY
+                CrtpPort.PARAMETERS -> PARAMETER
+                CrtpPort.COMMANDER_HL -> COMMAND
+                CrtpPort.COMMANDER, CrtpPort.COMMANDER_GENERIC -> SETPOINT
+                else -> BULK
+            }
+        }
+
+        /*! true for packets that stop or land the drone, which a pending setpoint must not follow */
+        fun isStop(data: ByteArray): Boolean {
+            if (data.size < 2) return false
+            val type = data[1].toInt()
+            return when (CrtpPort.getPortByNumber((data[0].toInt() shr 4) and 0x0f)) {
+                CrtpPort.COMMANDER_GENERIC -> type == GENERIC_TYPE_STOP
+                CrtpPort.COMMANDER_HL ->
+                    type == HL_STOP || type == HL_LAND || type == HL_LAND_2 || type == HL_LAND_WITH_VELOCITY
+                else -> false
+            }
+        }
+    }
+}
+
+/*!
+ * Single writer thread in front of a CrtpLink. Packets are queued per lane and the writer always
+ * drains the highest priority non-empty lane first, so a stop command never waits behind a
+ * backlog of stale setpoints. The SETPOINT lane holds a single packet: a newer setpoint replaces
+ * the one still waiting, and a stop drops it so the drone is not told to move again right after.
+ */
+class CrtpOutboundQueue(health: CrtpLinkHealth, sink: (ByteArray) -> Unit) {
+    private val TAG: String = "CrtpOutbound"
+
+    companion object {
+        // how long throttled BULK packets wait before the budget is checked again
+        private const val THROTTLE_RETRY_NANOS: Long = 20_000_000L
+    }
+
+    private class Pending(val data: ByteArray, val enqueuedNanos: Long)
+
+    private val mHealth: CrtpLinkHealth = health
+    private val mSink: (ByteArray) -> Unit = sink
+    private val mLock = ReentrantLock()
+    private val mNotEmpty = mLock.newCondition()
+    /*! FIFO per lane, indexed by CrtpLane.ordinal; SETPOINT has the single mSetpoint slot instead */
+    private val mFifos = Array(CrtpLane.values().size) { i ->
+        if (i == CrtpLane.SETPOINT.ordinal) null else ArrayDeque<Pending>()
+    }
+    private var mSetpoint: Pending? = null
+    private var mWriter: Thread? = null
+    private var mRunning: Boolean = false
+
+    /*! per lane metrics, indexed by CrtpLane.ordinal; guarded by mLock */
+    private val mSentCount = LongArray(CrtpLane.values().size)
+    private val mTotalLatencyNanos = LongArray(CrtpLane.values().size)
+    private val mMaxLatencyNanos = LongArray(CrtpLane.values().size)
+    private val mLastLatencyNanos = LongArray(CrtpLane.values().size)
+    private var mCoalescedCount: Long = 0L
+    private var mDroppedByStopCount: Long = 0L
+
+    fun start() {
+        mLock.withLock {
+            if (mRunning) return
+            mRunning = true
+        }
+        mWriter = Thread({ writerLoop() }, "CrtpWriter").also { it.start() }
+    }
+
+    fun stop() {
+        mLock.withLock {
+            mRunning = false
+            mNotEmpty.signalAll()
+        }
+        mWriter?.join()
+        mWriter = null
+    }
+
+    fun offer(data: ByteArray, lane: CrtpLane) {
+        val pending = Pending(data, System.nanoTime())
+        mLock.withLock {
+            if (lane == CrtpLane.SETPOINT) {
+                if (mSetpoint != null) mCoalescedCount++
+                mSetpoint = pending
+            } else {
+                if (lane == CrtpLane.SAFETY && CrtpLane.isStop(data) && mSetpoint != null) {
+                    mSetpoint = null
+                    mDroppedByStopCount++
+                }
+                mFifos[lane.ordinal]!!.addLast(pending)
+            }
+            mNotEmpty.signal()
+        }
+    }
+
+    /*! drop everything still queued, e.g. when the link goes away */
+    fun clear() {
+        mLock.withLock {
+            for (fifo in mFifos) fifo?.clear()
+            mSetpoint = null
+        }
+    }
+
+    private fun writerLoop() {
+        while (true) {
+            var pending: Pending? = null
+            var lane: CrtpLane = CrtpLane.BULK
+            mLock.withLock {
+                while (mRunning) {
+                    for (l in CrtpLane.values()) {
+                        if (mHealth.shouldThrottle(l)) continue
+                        pending = if (l == CrtpLane.SETPOINT) mSetpoint else mFifos[l.ordinal]!!.pollFirst()
+                        if (pending != null) {
+                            if (l == CrtpLane.SETPOINT) mSetpoint = null
+                            lane = l
+                            break
+                        }
+                    }
+                    if (pending != null) break
+                    // throttled packets are retried once the window has moved on
+                    if (hasPending()) mNotEmpty.awaitNanos(THROTTLE_RETRY_NANOS) else mNotEmpty.await()
+                }
+                if (!mRunning) return
+            }
+            val p = pending ?: continue
+            val writeStart = System.nanoTime()
+            try {
+                mSink(p.data)
+            } catch (e: Exception) {
+                Log.e(TAG, "write failed on lane $lane", e)
+            }
+            val writeEnd = System.nanoTime()
+            mHealth.recordWrite(p.data, writeEnd - writeStart)
+            record(lane, writeEnd - p.enqueuedNanos)
+        }
+    }
+
+    private fun hasPending(): Boolean {
+        if (mSetpoint != null) return true
+        for (fifo in mFifos) if (fifo != null && !fifo.isEmpty()) return true
+        return false
+    }
+
+    fun getHealth() = mHealth
+
+    private fun record(lane: CrtpLane, latencyNanos: Long) {
+        mLock.withLock {
+            val i = lane.ordinal
+            mSentCount[i]++
+            mTotalLatencyNanos[i] += latencyNanos
+            mLastLatencyNanos[i] = latencyNanos
+            if (latencyNanos > mMaxLatencyNanos[i]) mMaxLatencyNanos[i] = latencyNanos
+        }
+    }
+
+    fun getSentCount(lane: CrtpLane): Long = mLock.withLock { mSentCount[lane.ordinal] }
+
+    /*! enqueue-to-written latency of the last packet sent on the lane */
+    fun getLastLatencyNanos(lane: CrtpLane): Long = mLock.withLock { mLastLatencyNanos[lane.ordinal] }
+
+    fun getMaxLatencyNanos(lane: CrtpLane): Long = mLock.withLock { mMaxLatencyNanos[lane.ordinal] }
+
+    fun getMeanLatencyNanos(lane: CrtpLane): Long = mLock.withLock {
+        val n = mSentCount[lane.ordinal]
+        if (n == 0L) 0L else mTotalLatencyNanos[lane.ordinal] / n
+    }
+
+    /*! setpoints replaced by a newer one before they were written */
+    fun getCoalescedCount(): Long = mLock.withLock { mCoalescedCount }
+
+    /*! setpoints dropped because a stop was queued before they were written */
+    fun getDroppedByStopCount(): Long = mLock.withLock { mDroppedByStopCount }
+}
@@ -8,6 +8,7 @@ enum class CrtpPort(port: Int) {
     LOGGING(5),
     COMMANDER_GENERIC(7),
     COMMANDER_HL(8),
+    PLATFORM(13),
     DEBUGDRIVER(14),
     LINKCTRL(15),
     ALL(255),
@@ -0,0 +1,243 @@
+package org.tensorflow.lite.examples.classification
+
+import android.util.Log
+import java.io.File
+import java.io.RandomAccessFile
+import java.nio.MappedByteBuffer
+import java.nio.channels.FileChannel
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicLongArray
+import java.util.concurrent.locks.LockSupport
+
+/*!
+ * Append-only binary log of every CRTP packet that crosses the link.
+ *
+ * record() is safe to call from any number of threads and never blocks: it claims a slot in a
+ * preallocated lock-free ring (a bounded MPSC queue, one sequence number per slot) and copies the
+ * packet into it. A single drain thread moves slots into a memory-mapped file, mapping a new
+ * MAP_CHUNK_SIZE window whenever the current one is full. If the ring is full the packet is
+ * dropped and counted rather than making the link writer wait. Once close() has started, record()
+ * rejects new packets, and close() drains every slot a writer already claimed before the file
+ * is truncated.
+ *
+ * File layout, little endian:
+ *   header:  magic "CRTR" (i32), version (i32), data end offset (i64), wall clock start ms (i64)
+ *   records: timestamp nanos (i64), direction (u8), length (u8), packet bytes
+ */
+class CrtpRecorder(file: File) {
+    private val TAG: String = "CrtpRecorder"
+
+    companion object {
+        const val DIRECTION_OUT: Int = 0
+        const val DIRECTION_IN: Int = 1
+
+        const val MAGIC: Int = 0x52545243 // "CRTR"
+        const val VERSION: Int = 1
+        const val HEADER_SIZE: Int = 24
+        const val RECORD_HEADER_SIZE: Int = 10
+        const val MAX_PACKET_SIZE: Int = 64 // a CRTP packet is at most 32 bytes, keep some slack
+
+        private const val SLOT_COUNT: Int = 4096 // power of two
+        private const val SLOT_MASK: Long = (SLOT_COUNT - 1).toLong()
+        private const val MAP_CHUNK_SIZE: Long = 4L * 1024 * 1024
+        private const val IDLE_PARK_NANOS: Long = 1_000_000L
+    }
+
+    private val mFile: RandomAccessFile = RandomAccessFile(file, "rw")
+    private var mMap: MappedByteBuffer
+    private var mMapOffset: Long = 0L
+    private var mWriteOffset: Long = HEADER_SIZE.toLong()
+
+    // ring slots
+    private val mSequence = AtomicLongArray(SLOT_COUNT)
+    private val mTimestamps = LongArray(SLOT_COUNT)
+    private val mDirections = ByteArray(SLOT_COUNT)
+    private val mLengths = IntArray(SLOT_COUNT)
+    private val mData = ByteArray(SLOT_COUNT * MAX_PACKET_SIZE)
+    private val mTail = AtomicLong(0L)
+    private var mHead: Long = 0L // only touched by the drain thread
+
+    private val mRecorded = AtomicLong(0L)
+    private val mDropped = AtomicLong(0L)
+    @Volatile private var mRunning: Boolean = true
+    // record() calls in flight; after close() the drain thread waits for them to publish
+    private val mWriters = AtomicInteger(0)
+    private val mDrainThread: Thread
+
+    init {
+        for (i in 0 until SLOT_COUNT) mSequence.set(i, i.toLong())
+        mFile.setLength(0)
+        mMap = mFile.channel.map(FileChannel.MapMode.READ_WRITE, 0, MAP_CHUNK_SIZE)
+        mMap.order(CrtpPacket.BYTE_ORDER)
+        mMap.putInt(MAGIC)
+        mMap.putInt(VERSION)
+        mMap.putLong(mWriteOffset)
+        mMap.putLong(System.currentTimeMillis())
+        mDrainThread = Thread({ drainLoop() }, "CrtpRecorder").also { it.start() }
+    }
+
+    /*! queue one packet for the log; returns false if it had to be dropped */
+    fun record(direction: Int, data: ByteArray, timestampNanos: Long = System.nanoTime()): Boolean {
+        mWriters.incrementAndGet()
+        try {
+            // checked after announcing the write, so close() either sees this writer or we see it
+            if (!mRunning) return false
+            return claimAndCopy(direction, data, timestampNanos)
+        } finally {
+            mWriters.decrementAndGet()
+        }
+    }
+
+    private fun claimAndCopy(direction: Int, data: ByteArray, timestampNanos: Long): Boolean {
+        var pos = mTail.get()
+        while (true) {
+            val index = (pos and SLOT_MASK).toInt()
+            val diff = mSequence.get(index) - pos
+            if (diff == 0L) {
+                if (mTail.compareAndSet(pos, pos + 1)) break
+                pos = mTail.get()
+            } else if (diff < 0L) {
+                mDropped.incrementAndGet()
+                return false
+            } else {
+                pos = mTail.get()
+            }
+        }
+        val index = (pos and SLOT_MASK).toInt()
+        val length = minOf(data.size, MAX_PACKET_SIZE)
+        mTimestamps[index] = timestampNanos
+        mDirections[index] = direction.toByte()
+        mLengths[index] = length
+        System.arraycopy(data, 0, mData, index * MAX_PACKET_SIZE, length)
+        // publish the slot to the drain thread
+        mSequence.lazySet(index, pos + 1)
+        return true
+    }
+
+    private fun drainLoop() {
+        while (true) {
+            if (!drainOne()) {
+                if (!mRunning && mWriters.get() == 0) break
+                LockSupport.parkNanos(IDLE_PARK_NANOS)
+            }
+        }
+        // pick up anything the last writers published between the last poll and their exit
+        while (drainOne()) {}
+    }
+
+    private fun drainOne(): Boolean {
+        val index = (mHead and SLOT_MASK).toInt()
+        if (mSequence.get(index) != mHead + 1) return false
+        val length = mLengths[index]
+        ensureMapped(RECORD_HEADER_SIZE + length)
+        mMap.putLong(mTimestamps[index])
+        mMap.put(mDirections[index])
+        mMap.put(length.toByte())
+        mMap.put(mData, index * MAX_PACKET_SIZE, length)
+        mWriteOffset += RECORD_HEADER_SIZE + length
+        mSequence.lazySet(index, mHead + SLOT_COUNT)
+        mHead++
+        mRecorded.incrementAndGet()
+        return true
+    }
+
+    private fun ensureMapped(size: Int) {
+        if (mWriteOffset + size <= mMapOffset + MAP_CHUNK_SIZE) return
+        mMap.force()
+        mMapOffset = mWriteOffset
+        mMap = mFile.channel.map(FileChannel.MapMode.READ_WRITE, mMapOffset, MAP_CHUNK_SIZE)
+        mMap.order(CrtpPacket.BYTE_ORDER)
+    }
+
+    /*! stop recording, flush everything still in the ring and close the file */
+    fun close() {
+        mRunning = false
+        mDrainThread.join()
+        mMap.force()
+        val header = mFile.channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE.toLong())
+        header.order(CrtpPacket.BYTE_ORDER)
+        header.putLong(8, mWriteOffset)
+        header.force()
+        mFile.channel.truncate(mWriteOffset)
+        mFile.close()
+        Log.i(TAG, "recorded ${mRecorded.get()} packets, dropped ${mDropped.get()}")
+    }
+
+    fun getRecordedCount() = mRecorded.get()
+
+    fun getDroppedCount() = mDropped.get()
+}
+
+/*!
+ * Plays back a file written by CrtpRecorder, either at the original pace or as fast as possible.
+ */
+class CrtpReplayer(file: File) {
+    /*! receives the recorded packets in order */
+    fun interface Listener {
+        fun onPacket(timestampNanos: Long, direction: Int, data: ByteArray)
+    }
+
+    private val mMap: MappedByteBuffer
+    private val mEnd: Int
+
+    init {
+        mMap = RandomAccessFile(file, "r").use { raf ->
+            raf.channel.map(FileChannel.MapMode.READ_ONLY, 0, raf.length())
+        }
+        mMap.order(CrtpPacket.BYTE_ORDER)
+        require(mMap.getInt(0) == CrtpRecorder.MAGIC) { "not a CRTP recording" }
+        // a recording that was not closed cleanly still has the initial end offset
+        val end = mMap.getLong(8)
+        mEnd = if (end > CrtpRecorder.HEADER_SIZE) minOf(end, mMap.capacity().toLong()).toInt()
+               else mMap.capacity()
+    }
+
+    /*!
+     * Deliver every record to the listener. With realTime the gaps between records are
+     * reproduced, otherwise records are delivered back to back. Returns the number of records.
+     */
+    fun replay(listener: Listener, realTime: Boolean): Int {
+        var pos = CrtpRecorder.HEADER_SIZE
+        var count = 0
+        var firstTimestamp = 0L
+        val startNanos = System.nanoTime()
+        while (pos + CrtpRecorder.RECORD_HEADER_SIZE <= mEnd) {
+            val timestamp = mMap.getLong(pos)
+            val direction = mMap.get(pos + 8).toInt()
+            val length = mMap.get(pos + 9).toInt() and 0xff
+            if (timestamp == 0L && length == 0) break // unwritten tail of an unclosed file
+            if (pos + CrtpRecorder.RECORD_HEADER_SIZE + length > mEnd) break
+            val data = ByteArray(length)
+            for (i in 0 until length) data[i] = mMap.get(pos + CrtpRecorder.RECORD_HEADER_SIZE + i)
+            if (count == 0) firstTimestamp = timestamp
+            if (realTime) {
+                val due = startNanos + (timestamp - firstTimestamp)
+                var wait = due - System.nanoTime()
+                while (wait > 0) {
+                    LockSupport.parkNanos(wait)
+                    wait = due - System.nanoTime()
+                }
+            }
+            listener.onPacket(timestamp, direction, data)
+            pos += CrtpRecorder.RECORD_HEADER_SIZE + length
+            count++
+        }
+        return count
+    }
+
+    /*!
+     * Feed the recorded outbound packets into a simulated drone, advancing its clock by the
+     * recorded gaps, so a field session can be reproduced and benchmarked headless.
+     */
+    fun replayInto(link: SimulatedCrtpLink): Int {
+        var lastTimestamp = -1L
+        return replay({ timestampNanos, direction, data ->
+            if (direction == CrtpRecorder.DIRECTION_OUT) {
+                if (lastTimestamp >= 0) link.step(timestampNanos - lastTimestamp)
+                lastTimestamp = timestampNanos
+                link.send(data)
+            }
+        }, false)
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.classification;
+
+/**
+ * Temporal aggregation of the class scores of one face track.
+ *
+ * <p>Keeps the last {@code capacity} score vectors with their capture timestamps in a primitive
+ * ring and averages them with weights that halve every {@code halfLifeNanos}. Decisions are taken
+ * on the averaged scores, so a single flickering frame does not flip the emotion and the
+ * classifier does not have to run on every camera frame.
+ *
+ * <p>Allocation free after construction; not thread safe.
+ */
+public final class EmotionSmoother {
+  private final int numClasses;
+  private final int capacity;
+  private final long halfLifeNanos;
+  private final long windowNanos;
+
+  private final float[] samples;
+  private final long[] timestamps;
+  private int head = 0;
+  private int count = 0;
+
+  private final float[] smoothed;
+
+  // decision rule: first class in priority order whose averaged score reaches its threshold
+  private final int[] decisionClasses;
+  private final float[] decisionThresholds;
+  private int decisionCount = 0;
+  private int fallbackClass = -1;
+
+  /**
+   * @param numClasses Length of the score vectors.
+   * @param capacity Number of vectors kept.
+   * @param halfLifeNanos Age at which a vector counts half as much as a fresh one.
+   * @param windowNanos Vectors older than this are ignored.
+   */
+  public EmotionSmoother(int numClasses, int capacity, long halfLifeNanos, long windowNanos) {
+    this.numClasses = numClasses;
+    this.capacity = capacity;
+    this.halfLifeNanos = halfLifeNanos;
+    this.windowNanos = windowNanos;
+    samples = new float[capacity * numClasses];
+    timestamps = new long[capacity];
+    smoothed = new float[numClasses];
+    decisionClasses = new int[numClasses];
+    decisionThresholds = new float[numClasses];
+  }
+
+  /** Adds the scores of the frame captured at {@code captureNanos}. */
+  public void add(long captureNanos, float[] scores) {
+    System.arraycopy(scores, 0, samples, head * numClasses, numClasses);
+    timestamps[head] = captureNanos;
+    head = (head + 1) % capacity;
+    if (count < capacity) {
+      count++;
+    }
+  }
+
+  /**
+   * Recomputes the time-weighted scores as seen at {@code nowNanos}.
+   *
+   * @return false if there is no sample inside the window, the scores are then all zero.
+   */
+  public boolean update(long nowNanos) {
+    for (int c = 0; c < numClasses; c++) {
+      smoothed[c] = 0;
+    }
+    double totalWeight = 0;
+    for (int i = 0; i < count; i++) {
+      int slot = (head - 1 - i + capacity) % capacity;
+      long age = nowNanos - timestamps[slot];
+      if (age > windowNanos) {
+        continue;
+      }
+      double weight = Math.pow(0.5, Math.max(0L, age) / (double) halfLifeNanos);
+      totalWeight += weight;
+      int base = slot * numClasses;
+      for (int c = 0; c < numClasses; c++) {
+        smoothed[c] += (float) (weight * samples[base + c]);
+      }
+    }
+    if (totalWeight == 0) {
+      return false;
+    }
+    for (int c = 0; c < numClasses; c++) {
+      smoothed[c] /= (float) totalWeight;
+    }
+    return true;
+  }
+
+  /** Time-weighted score of a class as of the last {@link #update(long)}. */
+  public float getProbability(int classId) {
+    return smoothed[classId];
+  }
+
+  /**
+   * Adds a decision rule: {@code classId} is chosen if its averaged score reaches {@code
+   * threshold}. Rules are checked in the order they were added.
+   */
+  public EmotionSmoother addDecision(int classId, float threshold) {
+    decisionClasses[decisionCount] = classId;
+    decisionThresholds[decisionCount] = threshold;
+    decisionCount++;
+    return this;
+  }
+
+  /** Class chosen when no decision rule matches. */
+  public EmotionSmoother setFallback(int classId) {
+    fallbackClass = classId;
+    return this;
+  }
+
+  /** The decided class as of the last {@link #update(long)}. */
+  public int decide() {
+    for (int i = 0; i < decisionCount; i++) {
+      if (smoothed[decisionClasses[i]] >= decisionThresholds[i]) {
+        return decisionClasses[i];
+      }
+    }
+    return fallbackClass;
+  }
+
+  /** Forgets the track, e.g. when the face is lost. */
+  public void reset() {
+    head = 0;
+    count = 0;
+  }
+}
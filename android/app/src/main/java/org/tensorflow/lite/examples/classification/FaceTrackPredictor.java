@@ -0,0 +1,126 @@
+/*
+ * Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.classification;
+
+/**
+ * Constant-velocity (alpha-beta) tracker of the face box, keyed on frame capture timestamps.
+ *
+ * <p>Detections are fed in with the time the frame was captured, not the time inference finished,
+ * and the control loop asks for the predicted box at the time it sends a command. This removes the
+ * inference delay from the loop instead of adding smoothing lag on top of it, so the same gains
+ * stay stable at lower inference rates.
+ *
+ * <p>Tracks height, center x and center y independently. Allocation free; not thread safe.
+ */
+public final class FaceTrackPredictor {
+  private static final int HEIGHT = 0;
+  private static final int CENTER_X = 1;
+  private static final int CENTER_Y = 2;
+
+  /** Weight of the measurement residual in the position estimate. */
+  private static final float DEFAULT_ALPHA = 0.5F;
+  /** Weight of the measurement residual in the velocity estimate. */
+  private static final float DEFAULT_BETA = 0.1F;
+  /** Never extrapolate further than this past the last detection. */
+  private static final long MAX_PREDICTION_NANOS = 300_000_000L;
+  /** Without a detection for this long the track is dropped. */
+  private static final long TRACK_TIMEOUT_NANOS = 1_000_000_000L;
+
+  private final float alpha;
+  private final float beta;
+  private final float[] position = new float[3];
+  private final float[] velocity = new float[3]; // per second
+  private boolean hasTrack = false;
+  private long lastUpdateNanos = 0L;
+
+  public FaceTrackPredictor() {
+    this(DEFAULT_ALPHA, DEFAULT_BETA);
+  }
+
+  public FaceTrackPredictor(float alpha, float beta) {
+    this.alpha = alpha;
+    this.beta = beta;
+  }
+
+  /** Adds a detection from the frame captured at {@code captureNanos}. */
+  public void update(long captureNanos, float centerX, float centerY, float height) {
+    if (Float.isNaN(height) || Float.isNaN(centerX) || Float.isNaN(centerY)) {
+      return;
+    }
+    if (!hasTrack || captureNanos - lastUpdateNanos > TRACK_TIMEOUT_NANOS) {
+      position[HEIGHT] = height;
+      position[CENTER_X] = centerX;
+      position[CENTER_Y] = centerY;
+      velocity[HEIGHT] = 0;
+      velocity[CENTER_X] = 0;
+      velocity[CENTER_Y] = 0;
+      hasTrack = true;
+      lastUpdateNanos = captureNanos;
+      return;
+    }
+    if (captureNanos <= lastUpdateNanos) {
+      // out of order or duplicate frame, nothing to learn about velocity
+      return;
+    }
+    float dt = (captureNanos - lastUpdateNanos) / 1e9F;
+    correct(HEIGHT, height, dt);
+    correct(CENTER_X, centerX, dt);
+    correct(CENTER_Y, centerY, dt);
+    lastUpdateNanos = captureNanos;
+  }
+
+  private void correct(int i, float measured, float dt) {
+    float predicted = position[i] + velocity[i] * dt;
+    float residual = measured - predicted;
+    position[i] = predicted + alpha * residual;
+    velocity[i] += beta * residual / dt;
+  }
+
+  private float predict(int i, long atNanos) {
+    if (!hasTrack || atNanos - lastUpdateNanos > TRACK_TIMEOUT_NANOS) {
+      return Float.NaN;
+    }
+    long ahead = Math.max(0L, Math.min(atNanos - lastUpdateNanos, MAX_PREDICTION_NANOS));
+    return position[i] + velocity[i] * (ahead / 1e9F);
+  }
+
+  /** Predicted face height at {@code atNanos}, NaN if there is no current track. */
+  public float predictHeight(long atNanos) {
+    return predict(HEIGHT, atNanos);
+  }
+
+  public float predictCenterX(long atNanos) {
+    return predict(CENTER_X, atNanos);
+  }
+
+  public float predictCenterY(long atNanos) {
+    return predict(CENTER_Y, atNanos);
+  }
+
+  /** Rate of change of the face height in pixels per second. */
+  public float getHeightVelocity() {
+    return velocity[HEIGHT];
+  }
+
+  public boolean hasTrack() {
+    return hasTrack;
+  }
+
+  public void reset() {
+    hasTrack = false;
+  }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.classification;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import org.tensorflow.lite.examples.classification.env.Logger;
+
+/**
+ * Replays the faces of a FER CSV such as {@code model_creation/data/data_test.csv}: a header, then
+ * one {@code emotion,Usage,pixel1,...,pixel2304} row per 48x48 gray face. The emotion column is
+ * the label of the frame. Columns are separated by ',' or, as in {@code data_val.csv}, by ';',
+ * whichever the first line uses.
+ */
+public class FerCsvFrameSource extends ReplayFrameSource {
+  private static final Logger LOGGER = new Logger();
+  public static final int IMAGE_SIZE = 48;
+
+  private final File file;
+  private final byte[] pixels = new byte[IMAGE_SIZE * IMAGE_SIZE];
+  private BufferedReader reader;
+  private int lineNumber;
+  private char delimiter;
+
+  public FerCsvFrameSource(File file) {
+    this.file = file;
+  }
+
+  @Override
+  protected void open() throws IOException {
+    reader = new BufferedReader(new FileReader(file));
+    lineNumber = 0;
+    delimiter = 0;
+  }
+
+  @Override
+  protected boolean read(Frame frame) throws IOException {
+    String line;
+    do {
+      line = reader.readLine();
+      lineNumber++;
+      if (line == null) {
+        return false;
+      }
+      if (delimiter == 0 && !line.isEmpty()) {
+        delimiter = detectDelimiter(line);
+      }
+      // skips the header and blank lines
+    } while (line.isEmpty() || !Character.isDigit(line.charAt(0)));
+
+    try {
+      frame.label = parseRow(line, delimiter, pixels);
+    } catch (final IllegalArgumentException e) {
+      throw new IOException(file + ":" + lineNumber + ": " + e.getMessage(), e);
+    }
+    frame.width = IMAGE_SIZE;
+    frame.height = IMAGE_SIZE;
+    frame.yRowStride = IMAGE_SIZE;
+    frame.y = pixels;
+    return true;
+  }
+
+  @Override
+  protected void close() {
+    if (reader == null) {
+      return;
+    }
+    try {
+      reader.close();
+    } catch (final IOException e) {
+      LOGGER.e(e, "Exception!");
+    }
+    reader = null;
+  }
+
+  /** The column separator of a header or data line, ',' unless ';' comes first. */
+  public static char detectDelimiter(String line) {
+    int comma = line.indexOf(',');
+    int semicolon = line.indexOf(';');
+    return semicolon >= 0 && (comma < 0 || semicolon < comma) ? ';' : ',';
+  }
+
+  /** {@link #parseRow(String, char, byte[])} of a ','-separated row. */
+  public static int parseRow(String line, byte[] pixels) {
+    return parseRow(line, ',', pixels);
+  }
+
+  /**
+   * Parses a data row into {@code pixels}, without allocating per pixel.
+   *
+   * @return The emotion of the row.
+   * @throws IllegalArgumentException If the row does not hold an emotion, a usage and exactly
+   *     {@code pixels.length} values in [0, 255], separated by {@code delimiter}.
+   */
+  public static int parseRow(String line, char delimiter, byte[] pixels) {
+    int length = line.length();
+    int pos = 0;
+    int emotion = 0;
+    for (; pos < length && line.charAt(pos) != delimiter; pos++) {
+      emotion = 10 * emotion + digit(line, pos);
+    }
+    // skips the usage column
+    pos = line.indexOf(delimiter, pos + 1);
+    if (pos < 0) {
+      throw new IllegalArgumentException("missing pixels");
+    }
+    int count = 0;
+    while (pos < length) {
+      pos++;
+      int value = 0;
+      int start = pos;
+      for (; pos < length && line.charAt(pos) != delimiter; pos++) {
+        value = 10 * value + digit(line, pos);
+      }
+      if (pos == start || value > 255) {
+        throw new IllegalArgumentException("bad pixel " + count);
+      }
+      if (count == pixels.length) {
+        throw new IllegalArgumentException("more than " + pixels.length + " pixels");
+      }
+      pixels[count++] = (byte) value;
+    }
+    if (count != pixels.length) {
+      throw new IllegalArgumentException(count + " pixels instead of " + pixels.length);
+    }
+    return emotion;
+  }
+
+  private static int digit(String line, int pos) {
+    char c = line.charAt(pos);
+    if (c < '0' || c > '9') {
+      throw new IllegalArgumentException("unexpected '" + c + "' at column " + pos);
+    }
+    return c - '0';
+  }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.classification;
+
+/**
+ * Turns face observations (emotion + face height in pixels) into a forward/backward throttle.
+ *
+ * <p>Happy moves the drone towards the face, Surprised moves it away, and outside of the allowed
+ * height band it returns to the band on its own. The controller is rate limited: observations
+ * arriving sooner than {@code periodNanos} after the last accepted one are ignored. Gains and
+ * smoothing are applied per accepted step, not scaled by the time between steps, so the response
+ * is the same for any inference rate at or above {@code 1 / periodNanos}, and slower below it.
+ *
+ * <p>All state is primitive and {@link #step} does not allocate, so it can run per frame and be
+ * replayed deterministically from recorded observations. Not thread safe.
+ */
+public final class FollowController {
+  /** Emotion codes, matching the class indices of the FER emotion models. */
+  public static final int EMOTION_NONE = -1;
+  public static final int EMOTION_HAPPY = 3;
+  public static final int EMOTION_NEUTRAL = 4;
+  public static final int EMOTION_SURPRISED = 6;
+
+  /** Default control period, 20 Hz. */
+  public static final long DEFAULT_PERIOD_NANOS = 50_000_000L;
+
+  // Constants for drone movement
+  private static final float K_P = 0.1F;
+  private static final float THROTTLE_SCALE_FORWARD = 1.0F / 25.0F;
+  private static final float THROTTLE_SCALE_BACKWARD = 1.0F;
+  private static final float THROTTLE_STEP_LIMIT = 0.02F;
+  private static final float THROTTLE_MIN = 0.1F;
+  private static final float THROTTLE_MAX = 0.3F;
+  private static final float THROTTLE_AVERAGE_ALPHA = 0.5F;
+  private static final float DEFAULT_THROTTLE_FORWARD = 0.1F;
+  private static final float DEFAULT_THROTTLE_BACKWARD = 0.2F;
+
+  // Constants for distance measurement
+  private static final float MAX_HEIGHT_LIMIT = 105;
+  private static final float MIN_HEIGHT_LIMIT = 40;
+  private static final float HEIGHT_AVERAGE_ALPHA = 0.2F;
+
+  /** One face measurement. Mutable so a single instance can be reused for every frame. */
+  public static final class Observation {
+    public int emotion = EMOTION_NONE;
+    /** Height of the face box in preview pixels, NaN if unknown. */
+    public float height = Float.NaN;
+
+    public Observation set(int emotion, float height) {
+      this.emotion = emotion;
+      this.height = height;
+      return this;
+    }
+  }
+
+  private final long periodNanos;
+  private boolean started = false;
+  private long lastStepNanos = 0L;
+  private float heightAlpha = HEIGHT_AVERAGE_ALPHA;
+  private float lastHeight = -1.0F;
+  private float lastThrottle = 0.0F;
+
+  public FollowController() {
+    this(DEFAULT_PERIOD_NANOS);
+  }
+
+  public FollowController(long periodNanos) {
+    this.periodNanos = periodNanos;
+  }
+
+  /**
+   * Feeds one observation taken at {@code timestampNanos}.
+   *
+   * @return true if a new throttle should be sent to the drone, see {@link #getThrottle()}
+   */
+  public boolean step(long timestampNanos, Observation observation) {
+    if (started && timestampNanos - lastStepNanos < periodNanos) {
+      return false;
+    }
+    if (Float.isNaN(observation.height)) {
+      return false;
+    }
+    started = true;
+    lastStepNanos = timestampNanos;
+
+    // Remove noise from height measurement using exponential averaging
+    float height =
+        (lastHeight == -1.0F)
+            ? observation.height
+            : heightAlpha * observation.height + (1 - heightAlpha) * lastHeight;
+    lastHeight = height;
+
+    // Pick a target based on recognized emotion and current distance
+    float target;
+    if (observation.emotion == EMOTION_HAPPY && height < MAX_HEIGHT_LIMIT) {
+      target = forward(K_P * (MAX_HEIGHT_LIMIT - height));
+    } else if (observation.emotion == EMOTION_SURPRISED && height > MIN_HEIGHT_LIMIT) {
+      target = backward(K_P * (height - MIN_HEIGHT_LIMIT));
+    } else if (height != 0 && height > MAX_HEIGHT_LIMIT) {
+      target = backward(DEFAULT_THROTTLE_BACKWARD);
+    } else if (height != 0 && height < MIN_HEIGHT_LIMIT) {
+      target = forward(DEFAULT_THROTTLE_FORWARD);
+    } else {
+      target = 0.0F;
+    }
+
+    // Smooth throttle values using exponential averaging
+    float averaged = THROTTLE_AVERAGE_ALPHA * target + (1 - THROTTLE_AVERAGE_ALPHA) * lastThrottle;
+
+    // Don't send a new command if the throttle isn't sufficiently different from the last one
+    if (Math.abs(averaged - lastThrottle) < THROTTLE_STEP_LIMIT) {
+      return false;
+    }
+    lastThrottle = averaged;
+    return true;
+  }
+
+  private static float forward(float throttle) {
+    return clamp(throttle * THROTTLE_SCALE_FORWARD);
+  }
+
+  private static float backward(float throttle) {
+    return -clamp(throttle * THROTTLE_SCALE_BACKWARD);
+  }
+
+  // Make sure throttle is between min and max allowed values
+  private static float clamp(float throttle) {
+    return Math.max(THROTTLE_MIN, Math.min(THROTTLE_MAX, throttle));
+  }
+
+  /** Last throttle the controller asked for, positive towards the face. */
+  public float getThrottle() {
+    return lastThrottle;
+  }
+
+  /** Smoothed face height, or -1 before the first observation. */
+  public float getSmoothedHeight() {
+    return lastHeight;
+  }
+
+  /** Weight of a new height sample in the smoothed height, 1 disables smoothing. */
+  public void setHeightAlpha(float alpha) {
+    heightAlpha = alpha;
+  }
+
+  /** Forgets all history, e.g. when the link to the drone is re-established. */
+  public void reset() {
+    started = false;
+    lastStepNanos = 0L;
+    lastHeight = -1.0F;
+    lastThrottle = 0.0F;
+  }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.classification;
+
+/**
+ * Producer of frames for the processing pipeline: a camera, or recorded images replayed as fast as
+ * they are consumed.
+ *
+ * <p>The listener owns a frame until it calls {@link Frame#release}, and the source does not touch
+ * it meanwhile. Cameras keep delivering into other frames, replays wait for the release.
+ */
+public interface FrameSource {
+  /** Layout of the pixel data of a frame. */
+  enum Format {
+    /** Camera2 planes: {@code y}, {@code u} and {@code v} with their strides. */
+    YUV_420_888,
+    /** Legacy camera preview: {@code y} holds the whole NV21 buffer, chroma after luma. */
+    NV21,
+    /** Luma only, {@code u} and {@code v} are null. */
+    LUMA
+  }
+
+  /** Label of frames whose ground truth is not known. */
+  int NO_LABEL = -1;
+
+  /** A frame in flight; sources reuse the instance and its buffers from frame to frame. */
+  final class Frame {
+    public Format format;
+    public int width;
+    public int height;
+    public byte[] y;
+    public byte[] u;
+    public byte[] v;
+    public int yRowStride;
+    public int uvRowStride;
+    public int uvPixelStride;
+    /** {@link android.os.SystemClock#elapsedRealtimeNanos()} time base. */
+    public long timestampNanos;
+    /** Clockwise rotation of the sensor, in degrees. */
+    public int rotation;
+    /** Emotion class the frame is known to show, or {@link #NO_LABEL}. */
+    public int label = NO_LABEL;
+
+    private Runnable releaser;
+
+    public void setReleaser(Runnable releaser) {
+      this.releaser = releaser;
+    }
+
+    /** Hands the frame back to its source, which may then deliver the next one. */
+    public void release() {
+      releaser.run();
+    }
+  }
+
+  /** Receives the frames of a source, on a thread of the source. */
+  interface Listener {
+    void onFrame(Frame frame);
+
+    /** Called after the last frame of a finite source has been released. */
+    void onEnd();
+  }
+
+  void start(Listener listener);
+
+  /** Stops delivering frames; a frame already handed out must still be released. */
+  void stop();
+}
@@ -0,0 +1,245 @@
+/*
+ * Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.classification;
+
+/**
+ * Values of the debug HUD, written by the inference thread and shown by the UI thread.
+ *
+ * <p>Setters only mark a group of values dirty when one of them actually changed, so a display
+ * frame with nothing new touches no view and builds no text. The UI thread copies the changes into
+ * a second instance with {@link #takeChanges} and formats them from there, into builders it reuses.
+ */
+public final class HudModel {
+  public static final int FRAME = 1;
+  public static final int CROP = 1 << 1;
+  public static final int CAMERA = 1 << 2;
+  public static final int ROTATION = 1 << 3;
+  public static final int INFERENCE = 1 << 4;
+  public static final int RESULTS = 1 << 5;
+
+  /** Results listed in the bottom sheet. */
+  public static final int NUM_RESULTS = 3;
+
+  private int previewWidth;
+  private int previewHeight;
+  private long frameAgeMs;
+  private long lostFrames;
+  private long supersededFrames;
+  private int cropWidth;
+  private int cropHeight;
+  private int cameraSize;
+  private int rotation;
+  private long inferenceMs;
+  private int staticPercent;
+  private int modelPercent;
+  private int batchSize;
+  private long perFaceMicros;
+  private final String[] titles = new String[NUM_RESULTS];
+  private final float[] confidences = new float[NUM_RESULTS];
+
+  private int dirty;
+  private boolean scheduled;
+
+  /**
+   * @param frameAgeMs Age of the frame when it was processed, 0 to leave it out.
+   * @param lostFrames Frames the camera driver dropped.
+   * @param supersededFrames Frames replaced by a newer one before the pipeline got to them.
+   */
+  public synchronized void setFrame(
+      int width, int height, long frameAgeMs, long lostFrames, long supersededFrames) {
+    if (width != previewWidth
+        || height != previewHeight
+        || frameAgeMs != this.frameAgeMs
+        || lostFrames != this.lostFrames
+        || supersededFrames != this.supersededFrames) {
+      previewWidth = width;
+      previewHeight = height;
+      this.frameAgeMs = frameAgeMs;
+      this.lostFrames = lostFrames;
+      this.supersededFrames = supersededFrames;
+      dirty |= FRAME;
+    }
+  }
+
+  /** Size of the model input. */
+  public synchronized void setCrop(int width, int height) {
+    if (width != cropWidth || height != cropHeight) {
+      cropWidth = width;
+      cropHeight = height;
+      dirty |= CROP;
+    }
+  }
+
+  /** Side of the square cropped from the preview. */
+  public synchronized void setCameraSize(int size) {
+    if (size != cameraSize) {
+      cameraSize = size;
+      dirty |= CAMERA;
+    }
+  }
+
+  public synchronized void setRotation(int rotation) {
+    if (rotation != this.rotation) {
+      this.rotation = rotation;
+      dirty |= ROTATION;
+    }
+  }
+
+  /**
+   * @param batchSize Faces classified in one batch; the per face time is only shown above one.
+   */
+  public synchronized void setInference(
+      long inferenceMs, int staticPercent, int modelPercent, int batchSize, long perFaceMicros) {
+    if (inferenceMs != this.inferenceMs
+        || staticPercent != this.staticPercent
+        || modelPercent != this.modelPercent
+        || batchSize != this.batchSize
+        || perFaceMicros != this.perFaceMicros) {
+      this.inferenceMs = inferenceMs;
+      this.staticPercent = staticPercent;
+      this.modelPercent = modelPercent;
+      this.batchSize = batchSize;
+      this.perFaceMicros = perFaceMicros;
+      dirty |= INFERENCE;
+    }
+  }
+
+  /**
+   * @param rank 0 for the best result.
+   * @param title Label of the result, compared by reference since labels come from one list.
+   */
+  public synchronized void setResult(int rank, String title, float confidence) {
+    if (title != titles[rank] || confidence != confidences[rank]) {
+      titles[rank] = title;
+      confidences[rank] = confidence;
+      dirty |= RESULTS;
+    }
+  }
+
+  /**
+   * Called by the writer after a round of updates.
+   *
+   * @return Whether the caller has to schedule a {@link #takeChanges}: something changed and no
+   *     earlier call asked for one that is still pending.
+   */
+  public synchronized boolean publish() {
+    if (dirty == 0 || scheduled) {
+      return false;
+    }
+    scheduled = true;
+    return true;
+  }
+
+  /**
+   * Copies the groups changed since the last call into {@code shown} and clears them, which lets
+   * the next {@link #publish} schedule again.
+   *
+   * @return The changed groups, a combination of {@link #FRAME}, {@link #CROP} and the others.
+   */
+  public synchronized int takeChanges(HudModel shown) {
+    final int changed = dirty;
+    if ((changed & FRAME) != 0) {
+      shown.previewWidth = previewWidth;
+      shown.previewHeight = previewHeight;
+      shown.frameAgeMs = frameAgeMs;
+      shown.lostFrames = lostFrames;
+      shown.supersededFrames = supersededFrames;
+    }
+    if ((changed & CROP) != 0) {
+      shown.cropWidth = cropWidth;
+      shown.cropHeight = cropHeight;
+    }
+    if ((changed & CAMERA) != 0) {
+      shown.cameraSize = cameraSize;
+    }
+    if ((changed & ROTATION) != 0) {
+      shown.rotation = rotation;
+    }
+    if ((changed & INFERENCE) != 0) {
+      shown.inferenceMs = inferenceMs;
+      shown.staticPercent = staticPercent;
+      shown.modelPercent = modelPercent;
+      shown.batchSize = batchSize;
+      shown.perFaceMicros = perFaceMicros;
+    }
+    if ((changed & RESULTS) != 0) {
+      System.arraycopy(titles, 0, shown.titles, 0, NUM_RESULTS);
+      System.arraycopy(confidences, 0, shown.confidences, 0, NUM_RESULTS);
+    }
+    dirty = 0;
+    scheduled = false;
+    return changed;
+  }
+
+  // The appenders below format the values of a copy filled by takeChanges(), on the UI thread.
+
+  public void appendFrameInfo(StringBuilder out) {
+    out.append(previewWidth).append('x').append(previewHeight);
+    if (frameAgeMs > 0) {
+      out.append(", ").append(frameAgeMs).append("ms old");
+    }
+    if (lostFrames > 0) {
+      out.append(", ").append(lostFrames).append(" lost");
+    }
+    if (supersededFrames > 0) {
+      out.append(", ").append(supersededFrames).append(" superseded");
+    }
+  }
+
+  public void appendCropInfo(StringBuilder out) {
+    out.append(cropWidth).append('x').append(cropHeight);
+  }
+
+  public void appendCameraSize(StringBuilder out) {
+    out.append(cameraSize).append('x').append(cameraSize);
+  }
+
+  public void appendRotation(StringBuilder out) {
+    out.append(rotation);
+  }
+
+  public void appendInference(StringBuilder out) {
+    out.append(inferenceMs)
+        .append("ms, ")
+        .append(staticPercent)
+        .append("% static, model on ")
+        .append(modelPercent)
+        .append('%');
+    if (batchSize > 1) {
+      out.append(", ").append(batchSize).append(" faces at ").append(perFaceMicros).append("us");
+    }
+  }
+
+  public String getTitle(int rank) {
+    return titles[rank];
+  }
+
+  /** Confidence as a percentage with two decimals. */
+  public void appendConfidence(int rank, StringBuilder out) {
+    long hundredths = Math.round(10000.0 * confidences[rank]);
+    if (hundredths < 0) {
+      out.append('-');
+      hundredths = -hundredths;
+    }
+    out.append(hundredths / 100).append('.');
+    final long fraction = hundredths % 100;
+    if (fraction < 10) {
+      out.append('0');
+    }
+    out.append(fraction).append('%');
+  }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.classification;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.view.Choreographer;
+import android.widget.TextView;
+
+/**
+ * Shows a {@link HudModel} in the debug views, at most once per display frame and at most at a
+ * given rate, however often inference updates it.
+ *
+ * <p>An update from any thread posts a single callback until the changes are shown, so inference
+ * never queues more than one message on the main looper. Changed values are formatted into builders
+ * and char arrays owned by each view, which {@link TextView#setText(char[], int, int)} shows
+ * without copying them into a new string.
+ */
+final class HudPresenter implements Runnable, Choreographer.FrameCallback {
+  private final HudModel model;
+  private final HudModel shown = new HudModel();
+  private final Handler mainHandler = new Handler(Looper.getMainLooper());
+  private final StringBuilder builder = new StringBuilder(64);
+
+  private final TextView frameView;
+  private final TextView cropView;
+  private final TextView cameraView;
+  private final TextView rotationView;
+  private final TextView inferenceView;
+  private final TextView[] titleViews;
+  private final TextView[] confidenceViews;
+  // One per view: a view keeps showing the array it was given until the next setText()
+  private final char[][] chars = new char[5 + HudModel.NUM_RESULTS][];
+
+  private long minIntervalNanos = 0;
+  private long lastShownNanos = 0;
+
+  /**
+   * @param titleViews Labels of the top {@link HudModel#NUM_RESULTS} results, best first.
+   * @param confidenceViews Confidences of the same results.
+   */
+  HudPresenter(
+      HudModel model,
+      TextView frameView,
+      TextView cropView,
+      TextView cameraView,
+      TextView rotationView,
+      TextView inferenceView,
+      TextView[] titleViews,
+      TextView[] confidenceViews) {
+    this.model = model;
+    this.frameView = frameView;
+    this.cropView = cropView;
+    this.cameraView = cameraView;
+    this.rotationView = rotationView;
+    this.inferenceView = inferenceView;
+    this.titleViews = titleViews;
+    this.confidenceViews = confidenceViews;
+    for (int i = 0; i < chars.length; i++) {
+      chars[i] = new char[32];
+    }
+  }
+
+  /** Caps the refresh rate; zero or less refreshes on every display frame with changes. */
+  void setMaxRate(float updatesPerSecond) {
+    minIntervalNanos = updatesPerSecond > 0 ? (long) (1e9 / updatesPerSecond) : 0;
+  }
+
+  /** Schedules the changes made to the model so far to be shown. Any thread. */
+  void publish() {
+    if (model.publish()) {
+      mainHandler.post(this);
+    }
+  }
+
+  @Override
+  public void run() {
+    Choreographer.getInstance().postFrameCallback(this);
+  }
+
+  @Override
+  public void doFrame(long frameTimeNanos) {
+    final long waitNanos = lastShownNanos + minIntervalNanos - frameTimeNanos;
+    if (waitNanos > 0) {
+      // still scheduled, so later changes wait for this callback instead of posting their own
+      Choreographer.getInstance().postFrameCallbackDelayed(this, (waitNanos + 999_999) / 1_000_000);
+      return;
+    }
+    lastShownNanos = frameTimeNanos;
+
+    final int changed = model.takeChanges(shown);
+    if ((changed & HudModel.FRAME) != 0) {
+      shown.appendFrameInfo(builder);
+      show(0, frameView);
+    }
+    if ((changed & HudModel.CROP) != 0) {
+      shown.appendCropInfo(builder);
+      show(1, cropView);
+    }
+    if ((changed & HudModel.CAMERA) != 0) {
+      shown.appendCameraSize(builder);
+      show(2, cameraView);
+    }
+    if ((changed & HudModel.ROTATION) != 0) {
+      shown.appendRotation(builder);
+      show(3, rotationView);
+    }
+    if ((changed & HudModel.INFERENCE) != 0) {
+      shown.appendInference(builder);
+      show(4, inferenceView);
+    }
+    if ((changed & HudModel.RESULTS) != 0) {
+      for (int rank = 0; rank < HudModel.NUM_RESULTS; rank++) {
+        final String title = shown.getTitle(rank);
+        if (title != null && title != titleViews[rank].getText()) {
+          titleViews[rank].setText(title);
+        }
+        shown.appendConfidence(rank, builder);
+        show(5 + rank, confidenceViews[rank]);
+      }
+    }
+  }
+
+  /** Moves the builder's text into the view's own array and clears the builder. */
+  private void show(int slot, TextView view) {
+    final int length = builder.length();
+    if (chars[slot].length < length) {
+      chars[slot] = new char[length * 2];
+    }
+    builder.getChars(0, length, chars[slot], 0);
+    builder.setLength(0);
+    view.setText(chars[slot], 0, length);
+  }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.classification;
+
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.Config;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.tensorflow.lite.examples.classification.env.Logger;
+
+/**
+ * Replays the JPEGs under a directory laid out like {@code model_creation/data/Data_Images}, in
+ * file name order. Each image is scaled to the frame size and converted to luma; the name of its
+ * parent directory gives the label.
+ */
+public class JpegDirectoryFrameSource extends ReplayFrameSource {
+  private static final Logger LOGGER = new Logger();
+  /** Directory names of the emotion classes, in the class order of the emotion models. */
+  private static final String[] LABEL_DIRECTORIES = {
+    "Anger", "Disgust", "Fear", "Happiness", "Neutral", "Sadness", "Surprise"
+  };
+
+  private final File root;
+  private final int width;
+  private final int height;
+  private final List<File> files = new ArrayList<>();
+  private final Rect frameRect;
+  private final Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+  private final BitmapFactory.Options options = new BitmapFactory.Options();
+  private Bitmap frameBitmap;
+  private Canvas frameCanvas;
+  private int[] argb;
+  private byte[] luma;
+  private int next;
+
+  /** @param width Width and {@code height} of the frames the images are scaled to. */
+  public JpegDirectoryFrameSource(File root, int width, int height) {
+    this.root = root;
+    this.width = width;
+    this.height = height;
+    frameRect = new Rect(0, 0, width, height);
+    options.inPreferredConfig = Config.ARGB_8888;
+  }
+
+  @Override
+  protected void open() throws IOException {
+    files.clear();
+    collect(root, files);
+    if (files.isEmpty()) {
+      throw new IOException("No JPEG under " + root);
+    }
+    Collections.sort(files);
+    LOGGER.i("Replaying %d images from %s", files.size(), root);
+    if (frameBitmap == null) {
+      frameBitmap = Bitmap.createBitmap(width, height, Config.ARGB_8888);
+      frameCanvas = new Canvas(frameBitmap);
+      argb = new int[width * height];
+      luma = new byte[width * height];
+    }
+    next = 0;
+  }
+
+  @Override
+  protected boolean read(Frame frame) throws IOException {
+    if (next == files.size()) {
+      return false;
+    }
+    final File file = files.get(next++);
+    final Bitmap image = BitmapFactory.decodeFile(file.getPath(), options);
+    if (image == null) {
+      throw new IOException("Cannot decode " + file);
+    }
+    frameCanvas.drawBitmap(image, null, frameRect, paint);
+    image.recycle();
+    frameBitmap.getPixels(argb, 0, width, 0, 0, width, height);
+    for (int i = 0; i < argb.length; i++) {
+      int pixel = argb[i];
+      // BT.601 luma in 8.8 fixed point
+      luma[i] =
+          (byte)
+              ((77 * ((pixel >> 16) & 0xff) + 150 * ((pixel >> 8) & 0xff) + 29 * (pixel & 0xff)
+                      + 128)
+                  >> 8);
+    }
+    frame.width = width;
+    frame.height = height;
+    frame.yRowStride = width;
+    frame.y = luma;
+    frame.label = labelOf(file.getParentFile());
+    return true;
+  }
+
+  @Override
+  protected void close() {
+    files.clear();
+  }
+
+  private static void collect(File directory, List<File> out) {
+    final File[] children = directory.listFiles();
+    if (children == null) {
+      return;
+    }
+    for (File child : children) {
+      final String name = child.getName().toLowerCase();
+      if (child.isDirectory()) {
+        collect(child, out);
+      } else if (name.endsWith(".jpg") || name.endsWith(".jpeg")) {
+        out.add(child);
+      }
+    }
+  }
+
+  private static int labelOf(File directory) {
+    if (directory != null) {
+      for (int i = 0; i < LABEL_DIRECTORIES.length; i++) {
+        if (LABEL_DIRECTORIES[i].equalsIgnoreCase(directory.getName())) {
+          return i;
+        }
+      }
+    }
+    return NO_LABEL;
+  }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.classification;
+
+import org.tensorflow.lite.examples.classification.FrameSource.Frame;
+
+/**
+ * Hands frames from a source to the pipeline, which processes one at a time, so that the next frame
+ * processed is always the newest one.
+ *
+ * <p>A frame offered while another is processed waits in a single slot. A newer frame replaces it,
+ * and the replaced frame is released to its source right away. Dropping the newest frame instead
+ * would leave the pipeline with a frame up to one inference old when it becomes free.
+ *
+ * <p>The age of each frame when processing starts, from its capture timestamp, is averaged to show
+ * how fresh the processed frames are.
+ *
+ * <p>Thread safe.
+ */
+public final class LatestFrameSlot {
+  /** Weight of the newest age in the running average. */
+  private static final float AGE_SMOOTHING = 0.1f;
+
+  private Frame pending = null;
+  private boolean busy = false;
+  private long supersededFrames = 0;
+  private float meanAgeNanos = 0;
+  private boolean hasAge = false;
+
+  /**
+   * Offers a new frame.
+   *
+   * @return The frame if it should be processed now, or null if the pipeline is busy and the frame
+   *     waits for {@link #next}.
+   */
+  public Frame offer(Frame frame, long nowNanos) {
+    final Frame superseded;
+    synchronized (this) {
+      if (!busy) {
+        busy = true;
+        recordAge(frame, nowNanos);
+        return frame;
+      }
+      superseded = pending;
+      pending = frame;
+      if (superseded != null) {
+        supersededFrames++;
+      }
+    }
+    if (superseded != null) {
+      superseded.release();
+    }
+    return null;
+  }
+
+  /**
+   * Called once the pipeline is done with its frame.
+   *
+   * @return The waiting frame, to be processed now, or null if there is none, in which case the
+   *     next offered frame is processed right away.
+   */
+  public synchronized Frame next(long nowNanos) {
+    final Frame next = pending;
+    pending = null;
+    busy = next != null;
+    if (next != null) {
+      recordAge(next, nowNanos);
+    }
+    return next;
+  }
+
+  /**
+   * Releases the waiting frame, if any, and forgets the frame in flight, e.g. when the pipeline
+   * stops. The caller releases the frame it was processing; the next offered frame is processed
+   * right away.
+   */
+  public void clear() {
+    final Frame stale;
+    synchronized (this) {
+      stale = pending;
+      pending = null;
+      busy = false;
+    }
+    if (stale != null) {
+      stale.release();
+    }
+  }
+
+  /** Frames released without being processed because a newer one arrived. */
+  public synchronized long getSupersededFrames() {
+    return supersededFrames;
+  }
+
+  /** Running average of the age of frames when their processing starts, 0 before the first. */
+  public synchronized long getMeanAgeNanos() {
+    return (long) meanAgeNanos;
+  }
+
+  private void recordAge(Frame frame, long nowNanos) {
+    final float age = nowNanos - frame.timestampNanos;
+    meanAgeNanos = hasAge ? meanAgeNanos + AGE_SMOOTHING * (age - meanAgeNanos) : age;
+    hasAge = true;
+  }
+}
@@ -51,7 +51,10 @@ public class LegacyCameraConnectionFragment extends Fragment {
 
   private Camera camera;
   private Camera.PreviewCallback imageListener;
-  private Size desiredSize;
+  /** Buffers the preview frames are written into, handed back by {@link #imageListener}. */
+  private PreviewBufferPool bufferPool;
+  /** Picks the preview size the model needs. */
+  private PreviewSizeSelector sizeSelector;
   /** The layout identifier to inflate for this Fragment. */
   private int layout;
   /** An {@link AutoFitTextureView} for camera preview. */
@@ -82,9 +85,7 @@ public class LegacyCameraConnectionFragment extends Fragment {
             for (Camera.Size size : cameraSizes) {
               sizes[i++] = new Size(size.width, size.height);
             }
-            Size previewSize =
-                CameraConnectionFragment.chooseOptimalSize(
-                    sizes, desiredSize.getWidth(), desiredSize.getHeight());
+            Size previewSize = CameraConnectionFragment.chooseOptimalSize(sizes, sizeSelector);
             parameters.setPreviewSize(previewSize.getWidth(), previewSize.getHeight());
             camera.setDisplayOrientation(90);
             camera.setParameters(parameters);
@@ -94,8 +95,16 @@ public class LegacyCameraConnectionFragment extends Fragment {
           }
 
           camera.setPreviewCallbackWithBuffer(imageListener);
-          Camera.Size s = camera.getParameters().getPreviewSize();
-          camera.addCallbackBuffer(new byte[ImageUtils.getYUVByteSize(s.height, s.width)]);
+          Camera.Parameters parameters = camera.getParameters();
+          Camera.Size s = parameters.getPreviewSize();
+          int[] fpsRange = new int[2];
+          parameters.getPreviewFpsRange(fpsRange);
+          long framePeriodNanos =
+              1_000_000_000_000L / Math.max(1, fpsRange[Camera.Parameters.PREVIEW_FPS_MAX_INDEX]);
+          for (byte[] buffer :
+              bufferPool.allocate(ImageUtils.getYUVByteSize(s.height, s.width), framePeriodNanos)) {
+            camera.addCallbackBuffer(buffer);
+          }
 
           textureView.setAspectRatio(s.height, s.width);
 
@@ -119,10 +128,14 @@ public class LegacyCameraConnectionFragment extends Fragment {
 
   @SuppressLint("ValidFragment")
   public LegacyCameraConnectionFragment(
-      final Camera.PreviewCallback imageListener, final int layout, final Size desiredSize) {
+      final Camera.PreviewCallback imageListener,
+      final PreviewBufferPool bufferPool,
+      final int layout,
+      final PreviewSizeSelector sizeSelector) {
     this.imageListener = imageListener;
+    this.bufferPool = bufferPool;
     this.layout = layout;
-    this.desiredSize = desiredSize;
+    this.sizeSelector = sizeSelector;
   }
 
   @Override
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.classification;
+
+import android.hardware.Camera;
+import android.os.SystemClock;
+import org.tensorflow.lite.examples.classification.env.Logger;
+
+/**
+ * NV21 frames of the legacy camera API, fed by the preview callback of {@link
+ * LegacyCameraConnectionFragment}. Every buffer the camera fills is delivered; releasing its frame
+ * hands the buffer back to the camera, see {@link PreviewBufferPool}.
+ */
+public class LegacyCameraFrameSource implements FrameSource, Camera.PreviewCallback {
+  private static final Logger LOGGER = new Logger();
+  /** The legacy preview is always delivered in landscape. */
+  private static final int SENSOR_ROTATION = 90;
+
+  private final PreviewBufferPool bufferPool;
+  /** One frame per preview buffer, at the index of the buffer. */
+  private final Frame[] frames;
+  private volatile Listener listener;
+  private volatile Camera camera;
+  private int width = 0;
+  private int height = 0;
+
+  /** @param bufferCount Preview buffers the camera rotates through. */
+  public LegacyCameraFrameSource(int bufferCount) {
+    bufferPool = new PreviewBufferPool(bufferCount);
+    frames = new Frame[bufferCount];
+    for (int i = 0; i < bufferCount; i++) {
+      final Frame frame = new Frame();
+      frame.format = Format.NV21;
+      frame.rotation = SENSOR_ROTATION;
+      frame.setReleaser(() -> returnBuffer(frame.y));
+      frames[i] = frame;
+    }
+  }
+
+  /** The buffers to queue with the camera, and the count of frames lost for want of one. */
+  public PreviewBufferPool getBufferPool() {
+    return bufferPool;
+  }
+
+  @Override
+  public void start(Listener listener) {
+    this.listener = listener;
+  }
+
+  @Override
+  public void stop() {
+    listener = null;
+  }
+
+  @Override
+  public void onPreviewFrame(final byte[] bytes, final Camera camera) {
+    final long nowNanos = SystemClock.elapsedRealtimeNanos();
+    final int index = bufferPool.onDelivered(bytes, nowNanos);
+    if (index < 0) {
+      // a buffer of a camera that was closed since
+      return;
+    }
+    this.camera = camera;
+    final Listener target = listener;
+    if (target == null) {
+      returnBuffer(bytes);
+      return;
+    }
+
+    try {
+      // Read the resolution once, it does not change while previewing.
+      if (width == 0) {
+        Camera.Size previewSize = camera.getParameters().getPreviewSize();
+        width = previewSize.width;
+        height = previewSize.height;
+      }
+    } catch (final Exception e) {
+      LOGGER.e(e, "Exception!");
+      returnBuffer(bytes);
+      return;
+    }
+
+    final Frame frame = frames[index];
+    frame.width = width;
+    frame.height = height;
+    frame.yRowStride = width;
+    frame.timestampNanos = nowNanos;
+    frame.y = bytes;
+    target.onFrame(frame);
+  }
+
+  private void returnBuffer(final byte[] buffer) {
+    if (!bufferPool.onReturned(buffer)) {
+      return;
+    }
+    try {
+      camera.addCallbackBuffer(buffer);
+    } catch (final RuntimeException e) {
+      // the camera was released while the frame was processed, the next one gets new buffers
+      LOGGER.d("Camera gone, keeping preview buffer");
+    }
+  }
+}
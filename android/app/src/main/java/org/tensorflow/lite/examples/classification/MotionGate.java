@@ -0,0 +1,133 @@
+/*
+ * Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.classification;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Decides whether a frame changed enough to be worth running detection and classification on.
+ *
+ * <p>The luma plane is reduced to a coarse grid of cell means (sampling every {@link
+ * #SAMPLE_STEP}-th pixel of every {@link #SAMPLE_STEP}-th row) and compared with the grid of the
+ * last frame that was let through. A frame passes if the mean absolute difference over the grid,
+ * or the difference of any single cell (a mouth opening is local), is above its threshold. A
+ * static scene is still refreshed every {@code maxSkippedFrames} frames so slow changes are not
+ * missed for long.
+ *
+ * <p>Allocation free after the first frame; not thread safe, except for {@link #reset()}.
+ */
+public final class MotionGate {
+  private static final int GRID_COLUMNS = 16;
+  private static final int GRID_ROWS = 12;
+  private static final int SAMPLE_STEP = 4;
+
+  /** Mean absolute cell difference, in luma levels, that counts as motion. */
+  private static final int MEAN_THRESHOLD = 3;
+  /** Difference of a single cell, in luma levels, that counts as motion. */
+  private static final int CELL_THRESHOLD = 12;
+
+  private final int maxSkippedFrames;
+  private final int[] cells = new int[GRID_COLUMNS * GRID_ROWS];
+  private final int[] reference = new int[GRID_COLUMNS * GRID_ROWS];
+  private final int[] counts = new int[GRID_COLUMNS * GRID_ROWS];
+  private boolean hasReference = false;
+  private final AtomicBoolean resetRequested = new AtomicBoolean(false);
+  private int skippedInARow = 0;
+
+  private long frames = 0;
+  private long skippedFrames = 0;
+
+  public MotionGate(int maxSkippedFrames) {
+    this.maxSkippedFrames = maxSkippedFrames;
+  }
+
+  /**
+   * Returns true if the frame should be processed.
+   *
+   * @param luma Y plane of the frame.
+   * @param width Frame width in pixels.
+   * @param height Frame height in pixels.
+   * @param rowStride Bytes per row of the Y plane.
+   */
+  public boolean accept(byte[] luma, int width, int height, int rowStride) {
+    frames++;
+    if (resetRequested.compareAndSet(true, false)) {
+      hasReference = false;
+    }
+    computeCells(luma, width, height, rowStride);
+
+    boolean moved = !hasReference || skippedInARow >= maxSkippedFrames;
+    if (!moved) {
+      int sum = 0;
+      int max = 0;
+      for (int i = 0; i < cells.length; i++) {
+        int diff = Math.abs(cells[i] - reference[i]);
+        sum += diff;
+        if (diff > max) {
+          max = diff;
+        }
+      }
+      moved = sum > MEAN_THRESHOLD * cells.length || max > CELL_THRESHOLD;
+    }
+
+    if (moved) {
+      // compare later frames with the last processed one, so slow drift still adds up
+      System.arraycopy(cells, 0, reference, 0, cells.length);
+      hasReference = true;
+      skippedInARow = 0;
+      return true;
+    }
+    skippedInARow++;
+    skippedFrames++;
+    return false;
+  }
+
+  private void computeCells(byte[] luma, int width, int height, int rowStride) {
+    for (int i = 0; i < cells.length; i++) {
+      cells[i] = 0;
+      counts[i] = 0;
+    }
+    for (int y = 0; y < height; y += SAMPLE_STEP) {
+      int rowOffset = (y * GRID_ROWS / height) * GRID_COLUMNS;
+      int base = y * rowStride;
+      for (int x = 0; x < width; x += SAMPLE_STEP) {
+        int cell = rowOffset + x * GRID_COLUMNS / width;
+        cells[cell] += luma[base + x] & 0xff;
+        counts[cell]++;
+      }
+    }
+    for (int i = 0; i < cells.length; i++) {
+      if (counts[i] > 0) {
+        cells[i] /= counts[i];
+      }
+    }
+  }
+
+  /** Forces the next frame through, e.g. after the classifier changed. Any thread. */
+  public void reset() {
+    resetRequested.set(true);
+  }
+
+  /** Fraction of frames skipped since creation. */
+  public float getSkipRate() {
+    return frames == 0 ? 0f : (float) skippedFrames / frames;
+  }
+
+  public long getSkippedFrames() {
+    return skippedFrames;
+  }
+}
@@ -0,0 +1,437 @@
+package org.tensorflow.lite.examples.classification
+
+import android.util.Log
+import java.nio.ByteBuffer
+import java.nio.MappedByteBuffer
+
+/*!
+ * Parameter subsystem on CrtpPort.PARAMETERS.
+ *
+ * On link up only the TOC info (count + CRC) is requested. If a TOC with that CRC is in the
+ * ParamTocCache it is used as is: the parameters are READY right away with the cached values and
+ * the values that were changed locally while the link was down are written. Only values the
+ * cache does not hold yet are read. An unknown CRC (new firmware) triggers the full item-by-item
+ * TOC download, and parameters are READY once all values have been read.
+ *
+ * Each TOC request, value read or write is sent again if its reply has not come after
+ * REQUEST_TIMEOUT_NANOS, up to MAX_RETRIES times. A fetch is then abandoned; a write stays dirty
+ * and is written again on the next link up. checkTimeout() has to be called periodically for that.
+ *
+ * Packets arrive on the link reader thread, set() is called from app threads; all state is
+ * guarded by this object's monitor.
+ */
+class ParamManager @JvmOverloads constructor(
+    cache: ParamTocCache,
+    sender: (ByteArray) -> Unit,
+    private val mClock: () -> Long = System::nanoTime
+) {
+    private val TAG: String = "ParamManager"
+
+    companion object {
+        private const val TOC_CHANNEL: Int = 0
+        private const val READ_CHANNEL: Int = 1
+        private const val WRITE_CHANNEL: Int = 2
+
+        private const val CMD_TOC_ITEM_V2: Int = 2
+        private const val CMD_TOC_INFO_V2: Int = 3
+
+        // value slot layout in the cache, see ParamTocCache.VALUE_SLOT_SIZE
+        private const val SLOT_FLAGS: Int = 0
+        private const val SLOT_VALUE: Int = 8
+        private const val FLAG_VALID: Int = 1
+        private const val FLAG_DIRTY: Int = 2
+
+        const val REQUEST_TIMEOUT_NANOS: Long = 200_000_000L
+        const val MAX_RETRIES: Int = 5
+
+        /*! IEEE 754 half precision bits of value, rounded to nearest */
+        fun floatToHalf(value: Float): Short {
+            val bits = java.lang.Float.floatToIntBits(value)
+            val sign = (bits ushr 16) and 0x8000
+            val exp = (bits ushr 23) and 0xff
+            val mant = bits and 0x7fffff
+            if (exp == 0xff) return (sign or 0x7c00 or (if (mant != 0) 0x200 else 0)).toShort()
+            val e = exp - 127 + 15
+            if (e >= 0x1f) return (sign or 0x7c00).toShort() // too big, infinity
+            if (e <= 0) {
+                if (e < -10) return sign.toShort() // too small, zero
+                // subnormal, the implicit leading bit becomes explicit
+                val m = mant or 0x800000
+                val shift = 14 - e
+                var half = m shr shift
+                if (((m shr (shift - 1)) and 1) != 0) half++
+                return (sign or half).toShort()
+            }
+            var half = (e shl 10) or (mant shr 13)
+            // a carry out of the mantissa correctly bumps the exponent
+            if ((mant and 0x1000) != 0) half++
+            return (sign or half).toShort()
+        }
+
+        /*! value of IEEE 754 half precision bits */
+        fun halfToFloat(half: Short): Float {
+            val h = half.toInt() and 0xffff
+            val sign = (h and 0x8000) shl 16
+            val exp = (h shr 10) and 0x1f
+            var mant = h and 0x3ff
+            val bits = when {
+                exp == 0x1f -> sign or 0x7f800000 or (mant shl 13)
+                exp != 0 -> sign or ((exp - 15 + 127) shl 23) or (mant shl 13)
+                mant == 0 -> sign
+                else -> {
+                    // subnormal, normalize it
+                    var e = 127 - 15 + 1
+                    while ((mant and 0x400) == 0) {
+                        mant = mant shl 1
+                        e--
+                    }
+                    sign or (e shl 23) or ((mant and 0x3ff) shl 13)
+                }
+            }
+            return java.lang.Float.intBitsToFloat(bits)
+        }
+    }
+
+    enum class State { IDLE, FETCHING_INFO, FETCHING_TOC, FETCHING_VALUES, READY }
+
+    private val mCache: ParamTocCache = cache
+    private val mSender: (ByteArray) -> Unit = sender
+
+    private var mState: State = State.IDLE
+    private var mToc: ParamToc? = null
+    private var mValues: MappedByteBuffer? = null
+    private var mLinkUpNanos: Long = 0L
+    private var mLastSyncNanos: Long = -1L
+
+    // TOC download in progress
+    private var mTocCrc: Long = 0L
+    private var mTocCount: Int = 0
+    private var mFetched: ArrayList<ParamTocEntry> = ArrayList()
+    private var mNextValueIndex: Int = 0
+    private var mFetchingValues: Boolean = false
+
+    // request waiting for its reply, sent again when its deadline passes
+    private var mPending: ByteArray? = null
+    private var mPendingDeadline: Long = 0L
+    private var mPendingRetries: Int = 0
+    private var mRetryCount: Long = 0L
+
+    // writes waiting for their ack, by parameter id; one per parameter, a newer value replaces it
+    private class PendingWrite(val mId: Int, val mPacket: ByteArray, var mDeadline: Long) {
+        var mRetries: Int = 0
+
+        /*! whether the ack in b, positioned after the id, echoes this write's value */
+        fun isAckedBy(b: ByteBuffer): Boolean {
+            if (b.remaining() < mPacket.size - 3) return false
+            for (i in 3 until mPacket.size) {
+                if (b.get(b.position() + i - 3) != mPacket[i]) return false
+            }
+            return true
+        }
+    }
+    private val mPendingWrites: HashMap<Int, PendingWrite> = HashMap()
+
+    private val mTocHeader: Byte = CrtpPacket(TOC_CHANNEL, CrtpPort.PARAMETERS).getHeaderByte()!!
+    private val mReadHeader: Byte = CrtpPacket(READ_CHANNEL, CrtpPort.PARAMETERS).getHeaderByte()!!
+    private val mWriteHeader: Byte = CrtpPacket(WRITE_CHANNEL, CrtpPort.PARAMETERS).getHeaderByte()!!
+
+    @Synchronized
+    fun onLinkUp() {
+        mLinkUpNanos = mClock()
+        mState = State.FETCHING_INFO
+        mFetchingValues = false
+        sendRequest(byteArrayOf(mTocHeader, CMD_TOC_INFO_V2.toByte()))
+    }
+
+    @Synchronized
+    fun onLinkDown() {
+        mState = State.IDLE
+        mFetchingValues = false
+        mPending = null
+        // still dirty, written again once the link is back
+        mPendingWrites.clear()
+    }
+
+    /*! send pending requests again if their reply is overdue; call it every few 10 ms */
+    @Synchronized
+    fun checkTimeout() {
+        checkWriteTimeouts()
+        val pending = mPending ?: return
+        if (mClock() - mPendingDeadline < 0) return
+        if (mPendingRetries >= MAX_RETRIES) {
+            Log.w(TAG, "no reply after %d retries, giving up in state %s".format(MAX_RETRIES, mState))
+            mPending = null
+            mFetchingValues = false
+            if (mState != State.READY) mState = State.IDLE
+            return
+        }
+        mPendingRetries++
+        mRetryCount++
+        mPendingDeadline = mClock() + REQUEST_TIMEOUT_NANOS
+        mSender(pending)
+    }
+
+    private fun checkWriteTimeouts() {
+        if (mPendingWrites.isEmpty()) return
+        val now = mClock()
+        val it = mPendingWrites.entries.iterator()
+        while (it.hasNext()) {
+            val write = it.next().value
+            if (now - write.mDeadline < 0) continue
+            if (write.mRetries >= MAX_RETRIES) {
+                Log.w(TAG, "write of param %d not acked after %d retries".format(write.mId, MAX_RETRIES))
+                it.remove()
+                continue
+            }
+            write.mRetries++
+            mRetryCount++
+            write.mDeadline = now + REQUEST_TIMEOUT_NANOS
+            mSender(write.mPacket)
+        }
+    }
+
+    private fun sendRequest(packet: ByteArray) {
+        mPending = packet
+        mPendingRetries = 0
+        mPendingDeadline = mClock() + REQUEST_TIMEOUT_NANOS
+        mSender(packet)
+    }
+
+    /*! handle a packet received on CrtpPort.PARAMETERS */
+    @Synchronized
+    fun onPacket(data: ByteArray) {
+        if (data.size < 2) return
+        val b = ByteBuffer.wrap(data, 1, data.size - 1).order(CrtpPacket.BYTE_ORDER)
+        when (data[0].toInt() and 0x03) {
+            TOC_CHANNEL -> onTocReply(b)
+            READ_CHANNEL, WRITE_CHANNEL -> onValueReply(b, (data[0].toInt() and 0x03) == READ_CHANNEL)
+        }
+    }
+
+    private fun onTocReply(b: ByteBuffer) {
+        when (b.get().toInt()) {
+            CMD_TOC_INFO_V2 -> {
+                if (mState != State.FETCHING_INFO || b.remaining() < 6) return
+                mPending = null
+                mTocCount = b.short.toInt() and 0xffff
+                mTocCrc = b.int.toLong() and 0xffffffffL
+                val cached = if (mToc?.mCrc == mTocCrc) mToc else mCache.loadToc(mTocCrc)
+                if (cached != null) {
+                    useToc(cached)
+                    onSynced()
+                    // only values never read before, e.g. after an interrupted first fetch
+                    startValueFetch()
+                } else if (mTocCount == 0) {
+                    useToc(ParamToc(mTocCrc, ArrayList()))
+                    onSynced()
+                } else {
+                    Log.i(TAG, "unknown TOC crc %08x, fetching %d entries".format(mTocCrc, mTocCount))
+                    mFetched = ArrayList(mTocCount)
+                    mState = State.FETCHING_TOC
+                    requestNextTocItem()
+                }
+            }
+            CMD_TOC_ITEM_V2 -> {
+                if (mState != State.FETCHING_TOC || b.remaining() < 3) return
+                val id = b.short.toInt() and 0xffff
+                if (id != mFetched.size) return // reply to a request we already moved past
+                mPending = null
+                val type = b.get().toInt() and 0xff
+                val group = readCString(b)
+                val name = readCString(b)
+                mFetched.add(ParamTocEntry(id, type, group, name))
+                if (mFetched.size < mTocCount) {
+                    requestNextTocItem()
+                } else {
+                    val toc = ParamToc(mTocCrc, mFetched)
+                    mCache.storeToc(toc)
+                    useToc(toc)
+                    mState = State.FETCHING_VALUES
+                    startValueFetch()
+                }
+            }
+        }
+    }
+
+    private fun onValueReply(b: ByteBuffer, isRead: Boolean) {
+        val toc = mToc ?: return
+        val values = mValues ?: return
+        if (b.remaining() < 2) return
+        val id = b.short.toInt() and 0xffff
+        // read replies carry a status byte before the value
+        if (isRead && b.hasRemaining()) b.get()
+        val slot = id * ParamTocCache.VALUE_SLOT_SIZE
+        if (slot + ParamTocCache.VALUE_SLOT_SIZE > values.capacity()) return
+        var dirty = (values.get(slot + SLOT_FLAGS).toInt() and FLAG_DIRTY) != 0
+        if (!isRead) {
+            val write = mPendingWrites[id]
+            // the ack of an older write than the pending one must not clear the dirty flag
+            if (write != null && write.isAckedBy(b)) {
+                mPendingWrites.remove(id)
+                dirty = false
+            }
+        }
+        // a value set locally and not acked yet wins over the one read back
+        if (!dirty) {
+            var i = 0
+            while (b.hasRemaining() && i < 8) {
+                values.put(slot + SLOT_VALUE + i, b.get())
+                i++
+            }
+            values.put(slot + SLOT_FLAGS, FLAG_VALID.toByte())
+        }
+        if (isRead && mFetchingValues && id == toc.mEntries[mNextValueIndex].mId) {
+            mPending = null
+            mNextValueIndex++
+            fetchNextValue()
+        }
+    }
+
+    /*! read every value the cache does not hold, one request at a time */
+    private fun startValueFetch() {
+        mNextValueIndex = 0
+        mFetchingValues = true
+        fetchNextValue()
+    }
+
+    private fun fetchNextValue() {
+        val toc = mToc!!
+        val values = mValues!!
+        while (mNextValueIndex < toc.size()) {
+            val slot = toc.mEntries[mNextValueIndex].mId * ParamTocCache.VALUE_SLOT_SIZE
+            if ((values.get(slot + SLOT_FLAGS).toInt() and FLAG_VALID) == 0) break
+            mNextValueIndex++
+        }
+        if (mNextValueIndex < toc.size()) {
+            requestNextValue()
+        } else {
+            mFetchingValues = false
+            if (mState == State.FETCHING_VALUES) onSynced()
+        }
+    }
+
+    private fun useToc(toc: ParamToc) {
+        mToc = toc
+        mValues = mCache.mapValues(toc)
+    }
+
+    private fun onSynced() {
+        mState = State.READY
+        mLastSyncNanos = mClock() - mLinkUpNanos
+        Log.i(TAG, "parameters ready in %d us".format(mLastSyncNanos / 1000))
+        flushDirty()
+    }
+
+    private fun flushDirty() {
+        val toc = mToc ?: return
+        val values = mValues ?: return
+        for (e in toc.mEntries) {
+            val slot = e.mId * ParamTocCache.VALUE_SLOT_SIZE
+            if ((values.get(slot + SLOT_FLAGS).toInt() and FLAG_DIRTY) != 0) sendWrite(e)
+        }
+    }
+
+    private fun requestNextTocItem() {
+        val id = mFetched.size
+        sendRequest(byteArrayOf(mTocHeader, CMD_TOC_ITEM_V2.toByte(), (id and 0xff).toByte(), (id shr 8).toByte()))
+    }
+
+    private fun requestNextValue() {
+        val id = mToc!!.mEntries[mNextValueIndex].mId
+        sendRequest(byteArrayOf(mReadHeader, (id and 0xff).toByte(), (id shr 8).toByte()))
+    }
+
+    private fun sendWrite(e: ParamTocEntry) {
+        val values = mValues!!
+        val size = e.getValueSize()
+        val packet = ByteArray(3 + size)
+        packet[0] = mWriteHeader
+        packet[1] = (e.mId and 0xff).toByte()
+        packet[2] = (e.mId shr 8).toByte()
+        val slot = e.mId * ParamTocCache.VALUE_SLOT_SIZE
+        for (i in 0 until size) packet[3 + i] = values.get(slot + SLOT_VALUE + i)
+        mPendingWrites[e.mId] = PendingWrite(e.mId, packet, mClock() + REQUEST_TIMEOUT_NANOS)
+        mSender(packet)
+    }
+
+    /*!
+     * Set a parameter by its "group.name". The value is stored in the cache right away and
+     * written to the drone now if the link is up, otherwise as soon as it comes back.
+     */
+    @Synchronized
+    fun set(fullName: String, value: Float): Boolean {
+        val e = mToc?.getEntry(fullName) ?: return false
+        if (e.isReadOnly()) return false
+        val values = mValues!!
+        val slot = e.mId * ParamTocCache.VALUE_SLOT_SIZE
+        if (e.isFloat()) {
+            values.putFloat(slot + SLOT_VALUE, value)
+        } else if (e.isHalf()) {
+            values.putShort(slot + SLOT_VALUE, floatToHalf(value))
+        } else if ((e.mType and 0x0f) == 0x07) {
+            values.putDouble(slot + SLOT_VALUE, value.toDouble())
+        } else {
+            values.putLong(slot + SLOT_VALUE, value.toLong())
+        }
+        values.put(slot + SLOT_FLAGS, (FLAG_VALID or FLAG_DIRTY).toByte())
+        if (mState == State.READY) {
+            sendWrite(e)
+            // the write ack rewrites the slot as valid, clearing the dirty flag
+        } else {
+            // an older write still in flight would be resent with the stale value
+            mPendingWrites.remove(e.mId)
+        }
+        return true
+    }
+
+    /*! last known value of "group.name", or NaN if unknown */
+    @Synchronized
+    fun get(fullName: String): Float {
+        val e = mToc?.getEntry(fullName) ?: return Float.NaN
+        val values = mValues ?: return Float.NaN
+        val slot = e.mId * ParamTocCache.VALUE_SLOT_SIZE
+        if ((values.get(slot + SLOT_FLAGS).toInt() and FLAG_VALID) == 0) return Float.NaN
+        if (e.isFloat()) return values.getFloat(slot + SLOT_VALUE)
+        if (e.isHalf()) return halfToFloat(values.getShort(slot + SLOT_VALUE))
+        if ((e.mType and 0x0f) == 0x07) return values.getDouble(slot + SLOT_VALUE).toFloat()
+        if (e.isUnsigned()) {
+            return when (e.getValueSize()) {
+                1 -> (values.get(slot + SLOT_VALUE).toInt() and 0xff).toFloat()
+                2 -> (values.getShort(slot + SLOT_VALUE).toInt() and 0xffff).toFloat()
+                4 -> (values.getInt(slot + SLOT_VALUE).toLong() and 0xffffffffL).toFloat()
+                else -> {
+                    val v = values.getLong(slot + SLOT_VALUE)
+                    // above Long.MAX_VALUE, halve to stay positive; float loses the low bit anyway
+                    if (v >= 0) v.toFloat() else (v ushr 1).toFloat() * 2f
+                }
+            }
+        }
+        return when (e.getValueSize()) {
+            1 -> values.get(slot + SLOT_VALUE).toFloat()
+            2 -> values.getShort(slot + SLOT_VALUE).toFloat()
+            4 -> values.getInt(slot + SLOT_VALUE).toFloat()
+            else -> values.getLong(slot + SLOT_VALUE).toFloat()
+        }
+    }
+
+    @Synchronized fun getState() = mState
+
+    /*! link up to parameters usable for the last connect, in nanoseconds, or -1 */
+    @Synchronized fun getLastSyncNanos() = mLastSyncNanos
+
+    /*! requests sent again because their reply was overdue, since creation */
+    @Synchronized fun getRetryCount() = mRetryCount
+
+    /*! whether values are still being read back after the TOC was found */
+    @Synchronized fun isFetchingValues() = mFetchingValues
+
+    private fun readCString(b: ByteBuffer): String {
+        val sb = StringBuilder()
+        while (b.hasRemaining()) {
+            val c = b.get().toInt() and 0xff
+            if (c == 0) break
+            sb.append(c.toChar())
+        }
+        return sb.toString()
+    }
+}
@@ -0,0 +1,147 @@
+package org.tensorflow.lite.examples.classification
+
+import java.io.File
+import java.io.IOException
+import java.io.RandomAccessFile
+import java.nio.ByteBuffer
+import java.nio.MappedByteBuffer
+import java.nio.channels.FileChannel
+
+/*! one parameter as described by the firmware's TOC */
+class ParamTocEntry(id: Int, type: Int, group: String, name: String) {
+    val mId: Int = id
+    val mType: Int = type // CRTP param type byte, 0x40 = read only
+    val mGroup: String = group
+    val mName: String = name
+
+    fun getFullName() = "$mGroup.$mName"
+
+    fun isReadOnly() = (mType and 0x40) != 0
+
+    /*! size of the value in bytes */
+    fun getValueSize(): Int = when (mType and 0x0f) {
+        0x00, 0x08 -> 1 // int8, uint8
+        0x01, 0x09, 0x05 -> 2 // int16, uint16, fp16
+        0x02, 0x0a, 0x06 -> 4 // int32, uint32, float
+        else -> 8 // int64, uint64, double
+    }
+
+    fun isFloat() = (mType and 0x0f) == 0x06
+
+    fun isHalf() = (mType and 0x0f) == 0x05
+
+    /*! uint8/16/32/64; the float types never have this bit set */
+    fun isUnsigned() = (mType and 0x08) != 0
+
+    override fun toString(): String {
+        return "ParamTocEntry - Id: $mId, Type: $mType, ${getFullName()}"
+    }
+}
+
+/*! the parameter table of contents of one firmware build, identified by its CRC */
+class ParamToc(crc: Long, entries: List<ParamTocEntry>) {
+    val mCrc: Long = crc
+    val mEntries: List<ParamTocEntry> = entries
+    private val mByName: HashMap<String, ParamTocEntry> = HashMap()
+
+    init {
+        for (e in entries) mByName[e.getFullName()] = e
+    }
+
+    fun getEntry(fullName: String): ParamTocEntry? = mByName[fullName]
+
+    fun size() = mEntries.size
+}
+
+/*!
+ * On-disk cache of parameter TOCs and their last known values, keyed by TOC CRC.
+ *
+ * The TOC file is written once and mapped read-only when loaded. Values live in a separate file
+ * of fixed VALUE_SLOT_SIZE slots (one per parameter id) that stays mapped read-write, so a value
+ * update is a store into the mapping rather than a file write.
+ */
+class ParamTocCache(dir: File) {
+    companion object {
+        private const val MAGIC: Int = 0x50544f43 // "PTOC"
+        private const val VERSION: Int = 1
+        // flag byte + up to 8 value bytes, padded
+        const val VALUE_SLOT_SIZE: Int = 16
+    }
+
+    private val mDir: File = dir
+
+    private fun tocFile(crc: Long) = File(mDir, "param_toc_%08x.bin".format(crc))
+    private fun valuesFile(crc: Long) = File(mDir, "param_values_%08x.bin".format(crc))
+
+    /*! the cached TOC for this CRC, or null if we have never seen it */
+    fun loadToc(crc: Long): ParamToc? {
+        val file = tocFile(crc)
+        if (!file.exists()) return null
+        try {
+            RandomAccessFile(file, "r").use { raf ->
+                val b: MappedByteBuffer =
+                    raf.channel.map(FileChannel.MapMode.READ_ONLY, 0, raf.length())
+                b.order(CrtpPacket.BYTE_ORDER)
+                if (b.int != MAGIC || b.int != VERSION || (b.int.toLong() and 0xffffffffL) != crc) {
+                    return null
+                }
+                val count = b.int
+                val entries = ArrayList<ParamTocEntry>(count)
+                for (i in 0 until count) {
+                    val id = b.short.toInt() and 0xffff
+                    val type = b.get().toInt() and 0xff
+                    entries.add(ParamTocEntry(id, type, readString(b), readString(b)))
+                }
+                return ParamToc(crc, entries)
+            }
+        } catch (e: IOException) {
+            return null
+        } catch (e: RuntimeException) {
+            // truncated or corrupt file, fetch the TOC again
+            return null
+        }
+    }
+
+    fun storeToc(toc: ParamToc) {
+        var size = 4 * 4
+        for (e in toc.mEntries) size += 2 + 1 + 2 + e.mGroup.length + e.mName.length
+        val b = ByteBuffer.allocate(size).order(CrtpPacket.BYTE_ORDER)
+        b.putInt(MAGIC)
+        b.putInt(VERSION)
+        b.putInt(toc.mCrc.toInt())
+        b.putInt(toc.size())
+        for (e in toc.mEntries) {
+            b.putShort(e.mId.toShort())
+            b.put(e.mType.toByte())
+            writeString(b, e.mGroup)
+            writeString(b, e.mName)
+        }
+        val tmp = File(mDir, tocFile(toc.mCrc).name + ".tmp")
+        tmp.writeBytes(b.array())
+        tmp.renameTo(tocFile(toc.mCrc))
+    }
+
+    /*! map the value slots for this TOC, creating them (all invalid) on first use */
+    fun mapValues(toc: ParamToc): MappedByteBuffer {
+        var maxId = 0
+        for (e in toc.mEntries) if (e.mId > maxId) maxId = e.mId
+        RandomAccessFile(valuesFile(toc.mCrc), "rw").use { raf ->
+            return raf.channel
+                .map(FileChannel.MapMode.READ_WRITE, 0, (maxId + 1).toLong() * VALUE_SLOT_SIZE)
+                .also { it.order(CrtpPacket.BYTE_ORDER) }
+        }
+    }
+
+    // TOC strings are ASCII, so one byte per char
+    private fun writeString(b: ByteBuffer, s: String) {
+        b.putShort(s.length.toShort())
+        for (c in s) b.put(c.code.toByte())
+    }
+
+    private fun readString(b: ByteBuffer): String {
+        val len = b.short.toInt()
+        val chars = CharArray(len)
+        for (i in 0 until len) chars[i] = (b.get().toInt() and 0xff).toChar()
+        return String(chars)
+    }
+}
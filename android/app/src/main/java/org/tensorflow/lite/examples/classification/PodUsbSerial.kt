@@ -10,11 +10,15 @@ import android.hardware.usb.UsbDevice
 import android.hardware.usb.UsbDeviceConnection
 import android.hardware.usb.UsbManager
 import android.os.Binder
+import android.os.Handler
 import android.os.IBinder
+import android.os.Looper
 import android.util.Log
 import android.widget.Toast
 import com.felhr.usbserial.UsbSerialDevice
-import com.felhr.usbserial.UsbSerialInterface
+import java.io.File
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
 
 class PodUsbSerialService: Service() {
     var isConnected: Boolean = false
@@ -29,6 +33,9 @@ class PodUsbSerialService: Service() {
         val ACTION_USB_MSGRECEIVED: String = "actionUsbMsgReceived"
         val ACTION_USB_CONNECTED: String = "actionUsbConnected"
         val ACTION_USB_PERMISSION = "permission"
+        const val BAUD_RATE: Int = 115200
+        // how often overdue parameter requests are looked for
+        private const val PARAM_TICK_MS: Long = 50L
     }
 
     /*! usb */
@@ -36,11 +43,35 @@ class PodUsbSerialService: Service() {
     private var mDevice: UsbDevice? = null
     private var mSerial: UsbSerialDevice? = null // from felhr library
     private var mConnection: UsbDeviceConnection? = null
+    @Volatile private var mLink: CrtpLink? = null // usb serial or simulator
+    private val mLinkHealth = CrtpLinkHealth(BAUD_RATE)
+    private val mOutbound = CrtpOutboundQueue(mLinkHealth) { data ->
+        mLink?.send(data)
+        mRecorder?.record(CrtpRecorder.DIRECTION_OUT, data)
+    }
+    @Volatile private var mRecorder: CrtpRecorder? = null
+    private lateinit var mParams: ParamManager
+    private val mParamTimer = Executors.newSingleThreadScheduledExecutor()
+    // packets are sent from the param timer and the link reader too, a Toast needs a Looper
+    private val mMainHandler = Handler(Looper.getMainLooper())
 
     override fun onCreate() {
         isConnected = false
         setFilter()
         mUsbManager = getSystemService(USB_SERVICE) as UsbManager
+        mParams = ParamManager(ParamTocCache(cacheDir)) { data -> usbSendData(data, CrtpLane.PARAMETER) }
+        mParamTimer.scheduleWithFixedDelay(
+            { if (isConnected) mParams.checkTimeout() },
+            PARAM_TICK_MS, PARAM_TICK_MS, TimeUnit.MILLISECONDS)
+        mOutbound.start()
+    }
+
+    override fun onDestroy() {
+        mParamTimer.shutdownNow()
+        mOutbound.stop()
+        usbEndConnection()
+        stopRecording()
+        super.onDestroy()
     }
 
     override fun onBind(p0: Intent?): IBinder? {
@@ -63,25 +94,71 @@ class PodUsbSerialService: Service() {
     }
 
     fun usbSendData(data: String) {
-        if (!isConnected) {
-            Toast.makeText(applicationContext, "No device is connected", Toast.LENGTH_SHORT).show()
-            Log.e(TAG, "no device is connected")
-        } else {
-            mSerial?.write(data.toByteArray())
-            Log.e(TAG, "Send data: " + data.toByteArray())
-        }
+        usbSendData(data.toByteArray())
     }
 
     fun usbSendData(data: ByteArray) {
+        usbSendData(data, CrtpLane.forPacket(data))
+    }
+
+    /*! queue a packet on an explicit lane; SAFETY packets overtake anything already queued */
+    fun usbSendData(data: ByteArray, lane: CrtpLane) {
         if (!isConnected) {
-            Toast.makeText(applicationContext, "No device is connected", Toast.LENGTH_SHORT).show()
+            mMainHandler.post {
+                Toast.makeText(applicationContext, "No device is connected", Toast.LENGTH_SHORT).show()
+            }
             Log.e(TAG, "no device is connected")
         } else {
-            mSerial?.write(data)
-            Log.e(TAG, "Send data: $data")
+            mOutbound.offer(data, lane)
+            if (Log.isLoggable(TAG, Log.VERBOSE)) {
+                Log.v(TAG, "Send data: " + data.joinToString(" ") { "%02x".format(it) })
+            }
         }
     }
 
+    /*! stop the motors, ahead of any setpoints still waiting to be written */
+    fun usbSendStop() {
+        usbSendData(CommanderStopPacket().toByteArray(), CrtpLane.SAFETY)
+    }
+
+    fun getOutboundQueue() = mOutbound
+
+    /*! byte rates per port, write latency and remaining budget of the current link */
+    fun getLinkHealth() = mLinkHealth
+
+    /*! drone parameters, backed by the on-disk TOC cache */
+    fun getParams() = mParams
+
+    /*! route all traffic through the given link, replacing (and closing) the current one */
+    fun attachLink(link: CrtpLink): Boolean {
+        mLink?.close()
+        mLink = link
+        isConnected = link.open(usbReceiveCallback)
+        if (isConnected) mParams.onLinkUp()
+        return isConnected
+    }
+
+    /*! fly against an in-process simulated drone instead of the USB pod */
+    fun usbStartSimulation(initialDistance: Float): SimulatedCrtpLink {
+        val link = SimulatedCrtpLink(initialDistance)
+        attachLink(link)
+        return link
+    }
+
+    /*! log every packet in both directions to a binary file, see CrtpReplayer to play it back */
+    fun startRecording(file: File) {
+        stopRecording()
+        mRecorder = CrtpRecorder(file)
+    }
+
+    fun stopRecording() {
+        val recorder = mRecorder ?: return
+        mRecorder = null
+        recorder.close()
+    }
+
+    fun getRecorder() = mRecorder
+
     // set binder for mainActivity to get instance
     inner class UsbBinder : Binder() {
         fun getService() = this@PodUsbSerialService
@@ -95,12 +172,19 @@ class PodUsbSerialService: Service() {
         registerReceiver(mUsbBroadcastReceiver, filter)
     }
 
-    private val usbReceiveCallback: UsbSerialInterface.UsbReadCallback =
-        UsbSerialInterface.UsbReadCallback { data ->
+    // called on the link's reader thread, so no UI work here
+    private val usbReceiveCallback: CrtpLink.Listener =
+        CrtpLink.Listener { data ->
+            mLinkHealth.recordReceive(data)
+            mRecorder?.record(CrtpRecorder.DIRECTION_IN, data)
+            if (data.isNotEmpty() &&
+                ((data[0].toInt() shr 4) and 0x0f) == CrtpPort.PARAMETERS.getNumber()) {
+                mParams.onPacket(data)
+                return@Listener
+            }
             try {
-                mRxMsg = String(data!!)
+                mRxMsg = String(data)
                 this.sendBroadcast(Intent(ACTION_USB_MSGRECEIVED))
-                Toast.makeText(applicationContext, "msg", Toast.LENGTH_SHORT).show()
             } catch (e: Exception) {
                 Log.i(TAG, "error in receiving message")
             }
@@ -108,7 +192,10 @@ class PodUsbSerialService: Service() {
 
     fun usbEndConnection() {
         isConnected = false
-        mSerial?.close()
+        mParams.onLinkDown()
+        mOutbound.clear()
+        mLink?.close()
+        mLink = null
     }
 
     private val mUsbBroadcastReceiver = object: BroadcastReceiver() {
@@ -120,7 +207,6 @@ class PodUsbSerialService: Service() {
                     // p1.extras!!.getBoolean(UsbManager.EXTRA_PERMISSION_GRANTED)
 
                     if (granted) {
-                        isConnected = true
                         mDevice = p1.getParcelableExtra(UsbManager.EXTRA_DEVICE)
                         mConnection = mUsbManager.openDevice(mDevice)
                         mSerial = UsbSerialDevice.createUsbSerialDevice(mDevice, mConnection)
@@ -129,14 +215,8 @@ class PodUsbSerialService: Service() {
                         mDevVendorId = mDevice?.vendorId!!
                         mDevProductId = mDevice?.productId!!
                         p0?.sendBroadcast(Intent(ACTION_USB_CONNECTED))
-                        if (mSerial!!.open()) {
+                        if (attachLink(UsbSerialLink(mSerial!!, BAUD_RATE))) {
                             Log.i(TAG, "port open [SUCCESS]")
-                            mSerial!!.setBaudRate(115200)
-                            mSerial!!.setDataBits(UsbSerialDevice.DATA_BITS_8)
-                            mSerial!!.setStopBits(UsbSerialDevice.STOP_BITS_1)
-                            mSerial!!.setParity(UsbSerialDevice.PARITY_NONE)
-                            mSerial!!.setFlowControl(UsbSerialDevice.FLOW_CONTROL_OFF)
-                            mSerial!!.read(usbReceiveCallback)
                         } else {
                             Log.i(TAG, "port open [FAILED]")
                         }
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.classification;
+
+import java.util.Arrays;
+
+/**
+ * Preview buffers of the legacy camera API and who owns each of them.
+ *
+ * <p>A buffer belongs to the camera from the moment it is queued with {@code addCallbackBuffer}
+ * until its frame is delivered, and to the app from then on, through conversion and inference,
+ * until it is queued again. The driver can only write into buffers it owns, so with a single
+ * buffer every frame captured during inference is lost. With several, the camera keeps one to
+ * write into while the others are processed.
+ *
+ * <p>Frames the driver lost for want of a buffer are estimated from the gap between two deliveries
+ * when the camera owned no buffer in between, in nominal frame periods.
+ *
+ * <p>Thread safe: frames are delivered on the camera thread and returned on the inference thread.
+ */
+public final class PreviewBufferPool {
+  private final int count;
+  private byte[][] buffers = new byte[0][];
+  private boolean[] withCamera = new boolean[0];
+  private long framePeriodNanos;
+  private int cameraOwned = 0;
+  private boolean starved = false;
+  private long lastDeliveryNanos = -1;
+
+  private long deliveredFrames = 0;
+  private long droppedFrames = 0;
+
+  /** @param count Number of buffers to rotate, 1 to let the camera wait for each inference. */
+  public PreviewBufferPool(int count) {
+    if (count < 1) {
+      throw new IllegalArgumentException("Need at least one buffer, got " + count);
+    }
+    this.count = count;
+  }
+
+  /**
+   * Allocates buffers for a newly opened camera, all counted as owned by the camera. Buffers of the
+   * previous camera are forgotten.
+   *
+   * @param bufferSize Bytes of one preview frame.
+   * @param framePeriodNanos Nominal time between frames, used to count lost ones.
+   * @return The buffers, to queue with the camera.
+   */
+  public synchronized byte[][] allocate(int bufferSize, long framePeriodNanos) {
+    // never reused: the app may still be reading a buffer of the previous camera
+    buffers = new byte[count][bufferSize];
+    withCamera = new boolean[count];
+    Arrays.fill(withCamera, true);
+    this.framePeriodNanos = framePeriodNanos;
+    cameraOwned = count;
+    starved = false;
+    lastDeliveryNanos = -1;
+    return buffers.clone();
+  }
+
+  /**
+   * Records that the camera delivered a frame in the buffer, which now belongs to the app.
+   *
+   * @return Index of the buffer in those of {@link #allocate}, or -1 if it is not one of the
+   *     current buffers, e.g. from a camera that was closed since.
+   */
+  public synchronized int onDelivered(byte[] buffer, long nowNanos) {
+    int index = indexOf(buffer);
+    if (index < 0 || !withCamera[index]) {
+      return -1;
+    }
+    withCamera[index] = false;
+    cameraOwned--;
+    deliveredFrames++;
+    if (starved && lastDeliveryNanos >= 0 && framePeriodNanos > 0) {
+      long periods = (nowNanos - lastDeliveryNanos + framePeriodNanos / 2) / framePeriodNanos;
+      if (periods > 1) {
+        droppedFrames += periods - 1;
+      }
+    }
+    // with no buffer left the driver has nowhere to write until one is returned
+    starved = cameraOwned == 0;
+    lastDeliveryNanos = nowNanos;
+    return index;
+  }
+
+  /**
+   * Records that the app is done with the buffer.
+   *
+   * @return true if it should be queued with the camera again, false if it is not one of the
+   *     current buffers or already with the camera.
+   */
+  public synchronized boolean onReturned(byte[] buffer) {
+    int index = indexOf(buffer);
+    if (index < 0 || withCamera[index]) {
+      return false;
+    }
+    withCamera[index] = true;
+    cameraOwned++;
+    return true;
+  }
+
+  /** Number of buffers the camera can currently write into. */
+  public synchronized int getCameraOwned() {
+    return cameraOwned;
+  }
+
+  public synchronized long getDeliveredFrames() {
+    return deliveredFrames;
+  }
+
+  /** Estimated frames the driver lost because no buffer was queued. */
+  public synchronized long getDroppedFrames() {
+    return droppedFrames;
+  }
+
+  private int indexOf(byte[] buffer) {
+    for (int i = 0; i < buffers.length; i++) {
+      if (buffers[i] == buffer) {
+        return i;
+      }
+    }
+    return -1;
+  }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.classification;
+
+/**
+ * Picks the camera output size that the model needs and no more, since every pixel of the preview
+ * is copied and converted on each frame.
+ *
+ * <p>The frame is cropped to a centered square of its short side before it is scaled to the model
+ * input, so the short side is what matters. Models fed by the face detector need more: the
+ * smallest face worth following, a fraction of the frame, must still cover the model input.
+ *
+ * <p>Among the sizes whose short side is big enough the one with the fewest pixels wins, ties going
+ * to the aspect ratio closest to the preferred one. Plain Java, so the choice can be tested against
+ * the size lists cameras report.
+ */
+public final class PreviewSizeSelector {
+  private final int minShortSide;
+  private final int preferredWidth;
+  private final int preferredHeight;
+
+  /**
+   * @param minShortSide Smallest acceptable short side, in pixels.
+   * @param preferredWidth Aspect ratio, with {@code preferredHeight}, to break ties with.
+   */
+  public PreviewSizeSelector(int minShortSide, int preferredWidth, int preferredHeight) {
+    this.minShortSide = minShortSide;
+    this.preferredWidth = preferredWidth;
+    this.preferredHeight = preferredHeight;
+  }
+
+  /**
+   * Short side a frame needs for a model.
+   *
+   * @param inputWidth Width of the model input, in pixels.
+   * @param inputHeight Height of the model input, in pixels.
+   * @param faceDetector Whether the model classifies faces found by the detector.
+   * @param minFaceFraction Side of the smallest face to classify, as a fraction of the frame's
+   *     short side.
+   */
+  public static int requiredShortSide(
+      int inputWidth, int inputHeight, boolean faceDetector, float minFaceFraction) {
+    int side = Math.max(inputWidth, inputHeight);
+    return faceDetector ? (int) Math.ceil(side / minFaceFraction) : side;
+  }
+
+  public int getMinShortSide() {
+    return minShortSide;
+  }
+
+  /**
+   * Chooses among the sizes {@code (widths[i], heights[i])}.
+   *
+   * @return The index of the chosen size. If none is big enough, the one with the biggest short
+   *     side; -1 if there are no sizes at all.
+   */
+  public int select(int[] widths, int[] heights) {
+    int best = -1;
+    for (int i = 0; i < widths.length; i++) {
+      if (Math.min(widths[i], heights[i]) >= minShortSide && isBetter(widths, heights, i, best)) {
+        best = i;
+      }
+    }
+    if (best >= 0) {
+      return best;
+    }
+    for (int i = 0; i < widths.length; i++) {
+      if (best < 0) {
+        best = i;
+        continue;
+      }
+      int side = Math.min(widths[i], heights[i]);
+      int bestSide = Math.min(widths[best], heights[best]);
+      if (side > bestSide || (side == bestSide && isBetter(widths, heights, i, best))) {
+        best = i;
+      }
+    }
+    return best;
+  }
+
+  /** Whether size i has fewer pixels than size j, or as many and a closer aspect ratio. */
+  private boolean isBetter(int[] widths, int[] heights, int i, int j) {
+    if (j < 0) {
+      return true;
+    }
+    long areaI = (long) widths[i] * heights[i];
+    long areaJ = (long) widths[j] * heights[j];
+    if (areaI != areaJ) {
+      return areaI < areaJ;
+    }
+    return aspectDistance(widths[i], heights[i]) < aspectDistance(widths[j], heights[j]);
+  }
+
+  private double aspectDistance(int width, int height) {
+    double ratio = (double) width * preferredHeight / ((double) height * preferredWidth);
+    return Math.abs(Math.log(ratio));
+  }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.classification;
+
+import org.tensorflow.lite.examples.classification.tflite.Classifier.Device;
+import org.tensorflow.lite.examples.classification.tflite.Classifier.Model;
+
+/**
+ * Keeps inference inside a latency budget by stepping between operating points.
+ *
+ * <p>Operating points are ordered from the most expensive (best quality) to the cheapest. The
+ * governor averages the last {@link #WINDOW} inference latencies; once the window is full it
+ * steps to a cheaper point when the average is over budget, and back to a more expensive one when
+ * the average is under {@link #STEP_UP_FRACTION} of the budget. After a change the window starts
+ * over, so each point is judged only on its own latencies and the governor does not oscillate.
+ *
+ * <p>Not thread safe, call it from the inference thread.
+ */
+public final class QosGovernor {
+  /** One configuration of the inference pipeline. */
+  public static final class OperatingPoint {
+    public final Model model;
+    public final Device device;
+    /** Factor applied to the camera frame before it is handed to the classifier. */
+    public final float inputScale;
+    public final int numThreads;
+    /** Whether the face detector looks for landmarks. */
+    public final boolean landmarks;
+
+    public OperatingPoint(
+        Model model, Device device, float inputScale, int numThreads, boolean landmarks) {
+      this.model = model;
+      this.device = device;
+      this.inputScale = inputScale;
+      this.numThreads = numThreads;
+      this.landmarks = landmarks;
+    }
+
+    @Override
+    public String toString() {
+      return model
+          + " on "
+          + device
+          + " x"
+          + inputScale
+          + " "
+          + numThreads
+          + "t"
+          + (landmarks ? " landmarks" : "");
+    }
+  }
+
+  /** Latencies averaged before each decision. */
+  static final int WINDOW = 16;
+  private static final float STEP_UP_FRACTION = 0.6f;
+
+  private OperatingPoint[] points;
+  private final long budgetNanos;
+  private final long[] latencies = new long[WINDOW];
+  private int latencyCount = 0;
+  private int latencyHead = 0;
+  private int current = 0;
+  private boolean enabled = true;
+
+  /**
+   * @param points Operating points, most expensive first.
+   * @param budgetNanos Target latency of one inference.
+   */
+  public QosGovernor(OperatingPoint[] points, long budgetNanos) {
+    this.points = points;
+    this.budgetNanos = budgetNanos;
+  }
+
+  /**
+   * Records the latency of one inference.
+   *
+   * @return true if the operating point changed, see {@link #getOperatingPoint()}.
+   */
+  public boolean onInference(long latencyNanos) {
+    if (!enabled) {
+      return false;
+    }
+    latencies[latencyHead] = latencyNanos;
+    latencyHead = (latencyHead + 1) % WINDOW;
+    if (latencyCount < WINDOW) {
+      latencyCount++;
+    }
+    if (latencyCount < WINDOW) {
+      return false;
+    }
+    long average = getAverageLatencyNanos();
+    int next = current;
+    if (average > budgetNanos && current < points.length - 1) {
+      next = current + 1;
+    } else if (average < budgetNanos * STEP_UP_FRACTION && current > 0) {
+      next = current - 1;
+    }
+    if (next == current) {
+      return false;
+    }
+    current = next;
+    latencyCount = 0;
+    return true;
+  }
+
+  public long getAverageLatencyNanos() {
+    if (latencyCount == 0) {
+      return 0;
+    }
+    long total = 0;
+    for (int i = 0; i < latencyCount; i++) {
+      total += latencies[(latencyHead - 1 - i + WINDOW) % WINDOW];
+    }
+    return total / latencyCount;
+  }
+
+  public OperatingPoint getOperatingPoint() {
+    return points[current];
+  }
+
+  /**
+   * Replaces the operating points, e.g. with ones built around a newly selected model, and starts
+   * over at the first.
+   */
+  public void setOperatingPoints(OperatingPoint[] points) {
+    this.points = points;
+    current = 0;
+    latencyCount = 0;
+  }
+
+  /** Turns the governor on or off, e.g. off while the user picks a configuration by hand. */
+  public void setEnabled(boolean enabled) {
+    this.enabled = enabled;
+    latencyCount = 0;
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+}
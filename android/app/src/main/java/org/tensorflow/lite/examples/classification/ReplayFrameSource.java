@@ -0,0 +1,110 @@
+/*
+ * Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.classification;
+
+import android.os.SystemClock;
+import java.io.IOException;
+import java.util.concurrent.Semaphore;
+import org.tensorflow.lite.examples.classification.env.Logger;
+
+/**
+ * Replays recorded luma frames on a thread of its own. The next frame is read as soon as the
+ * previous one is released, so the pipeline runs as fast as it can and no frame is dropped.
+ *
+ * <p>Timestamps are spaced at a nominal 30 fps whatever the replay speed, so that time based
+ * filters see the same sequence on every run.
+ */
+public abstract class ReplayFrameSource implements FrameSource {
+  private static final Logger LOGGER = new Logger();
+  private static final long FRAME_INTERVAL_NANOS = 33_333_333L;
+
+  private final Frame frame = new Frame();
+  private final Semaphore released = new Semaphore(0);
+  private volatile boolean running = false;
+  private Thread thread;
+
+  protected ReplayFrameSource() {
+    frame.format = Format.LUMA;
+    frame.setReleaser(released::release);
+  }
+
+  /** Prepares the recording for reading, called on the replay thread. */
+  protected abstract void open() throws IOException;
+
+  /**
+   * Reads the next frame into {@code frame}: its size, luma and label.
+   *
+   * @return false at the end of the recording.
+   */
+  protected abstract boolean read(Frame frame) throws IOException;
+
+  /** Frees what {@link #open} acquired, also after a failure. */
+  protected abstract void close();
+
+  @Override
+  public synchronized void start(final Listener listener) {
+    stop();
+    running = true;
+    released.drainPermits();
+    thread = new Thread(() -> replay(listener), "FrameReplay");
+    thread.start();
+  }
+
+  @Override
+  public synchronized void stop() {
+    running = false;
+    if (thread == null) {
+      return;
+    }
+    thread.interrupt();
+    try {
+      thread.join();
+    } catch (final InterruptedException e) {
+      LOGGER.e(e, "Exception!");
+    }
+    thread = null;
+  }
+
+  private void replay(final Listener listener) {
+    final long startNanos = SystemClock.elapsedRealtimeNanos();
+    int count = 0;
+    try {
+      open();
+      while (running && read(frame)) {
+        frame.timestampNanos = startNanos + count * FRAME_INTERVAL_NANOS;
+        count++;
+        listener.onFrame(frame);
+        released.acquire();
+      }
+    } catch (final IOException e) {
+      LOGGER.e(e, "Replay failed after %d frames", count);
+      return;
+    } catch (final InterruptedException e) {
+      return;
+    } finally {
+      close();
+    }
+    if (!running) {
+      return;
+    }
+    final long elapsedNanos = SystemClock.elapsedRealtimeNanos() - startNanos;
+    LOGGER.i(
+        "Replayed %d frames in %d ms, %.1f fps",
+        count, elapsedNanos / 1_000_000L, count * 1e9 / Math.max(1L, elapsedNanos));
+    listener.onEnd();
+  }
+}
@@ -0,0 +1,147 @@
+package org.tensorflow.lite.examples.classification
+
+import java.nio.ByteBuffer
+
+/*!
+ * In-process stand-in for a Crazyflie on the end of the serial link.
+ *
+ * Commander packets written to the link set the forward velocity of a simulated drone which
+ * moves along a single axis towards (+vx) or away from (-vx) the person it follows. The
+ * simulation only advances when step() is called, so a test harness controls time and can run
+ * far faster than real time. Every LOG_PERIOD_NANOS of simulated time a LOGGING data packet
+ * carrying the current distance and velocity is delivered to the link listener, on the thread
+ * that called step().
+ */
+class SimulatedCrtpLink(initialDistance: Float): CrtpLink {
+    companion object {
+        const val LOG_BLOCK_ID: Int = 0
+        const val LOG_PERIOD_NANOS: Long = 10_000_000L // 100 Hz, like a default log block
+
+        private const val LOG_CHANNEL_DATA: Int = 2
+        private const val GENERIC_TYPE_STOP: Int = 0
+        private const val GENERIC_TYPE_HOVER: Int = 5
+
+        // first-order lag of the onboard velocity controller
+        private const val VELOCITY_TIME_CONSTANT_S: Float = 0.15f
+        // velocity below this is treated as hovering when counting oscillations
+        private const val OSCILLATION_DEADBAND: Float = 0.01f
+    }
+
+    private var mListener: CrtpLink.Listener? = null
+    private var mOpen: Boolean = false
+
+    private var mDistance: Float = initialDistance
+    private var mVelocity: Float = 0f
+    private var mCommandedVelocity: Float = 0f
+    private var mTimeNanos: Long = 0L
+    private var mNextLogNanos: Long = 0L
+    private var mLastDirection: Int = 0
+
+    private var mCommandCount: Long = 0L
+    private var mOscillationCount: Long = 0L
+    private var mLastCommandNanos: Long = -1L
+
+    private val mLogPacket: ByteBuffer =
+        ByteBuffer.allocate(1 + 1 + 3 + 2 * 4).order(CrtpPacket.BYTE_ORDER)
+    private val mLogHeader: Byte = CrtpPacket(LOG_CHANNEL_DATA, CrtpPort.LOGGING).getHeaderByte()!!
+
+    override fun open(listener: CrtpLink.Listener): Boolean {
+        mListener = listener
+        mOpen = true
+        return true
+    }
+
+    @Synchronized
+    override fun send(data: ByteArray) {
+        if (data.isEmpty()) return
+        val header = data[0].toInt()
+        val port = CrtpPort.getPortByNumber((header shr 4) and 0x0f)
+        val payload = ByteBuffer.wrap(data, 1, data.size - 1).order(CrtpPacket.BYTE_ORDER)
+        when (port) {
+            CrtpPort.COMMANDER_GENERIC -> {
+                if (!payload.hasRemaining()) return
+                when (payload.get().toInt()) {
+                    GENERIC_TYPE_HOVER -> if (payload.remaining() >= 4) setCommand(payload.float)
+                    GENERIC_TYPE_STOP -> setCommand(0f)
+                }
+            }
+            // a zero-thrust RPYT setpoint is how the legacy commander stops the motors
+            CrtpPort.COMMANDER -> if (payload.remaining() >= 14) {
+                payload.position(payload.position() + 12)
+                if (payload.short.toInt() == 0) setCommand(0f)
+            }
+            else -> {}
+        }
+    }
+
+    private fun setCommand(vx: Float) {
+        mCommandedVelocity = vx
+        mCommandCount++
+        mLastCommandNanos = mTimeNanos
+    }
+
+    /*! advance the simulation by dtNanos and emit any LOGGING packets that fall due */
+    fun step(dtNanos: Long) {
+        var listener: CrtpLink.Listener? = null
+        var reply: ByteArray? = null
+        synchronized(this) {
+            val dt = dtNanos / 1e9f
+            val blend = if (dt >= VELOCITY_TIME_CONSTANT_S) 1f else dt / VELOCITY_TIME_CONSTANT_S
+            mVelocity += (mCommandedVelocity - mVelocity) * blend
+            mDistance -= mVelocity * dt
+            if (mDistance < 0f) mDistance = 0f
+            mTimeNanos += dtNanos
+
+            val direction =
+                if (mVelocity > OSCILLATION_DEADBAND) 1
+                else if (mVelocity < -OSCILLATION_DEADBAND) -1
+                else 0
+            if (direction != 0) {
+                if (mLastDirection != 0 && direction != mLastDirection) mOscillationCount++
+                mLastDirection = direction
+            }
+
+            listener = mListener
+            if (mOpen && mTimeNanos >= mNextLogNanos) {
+                mNextLogNanos = mTimeNanos + LOG_PERIOD_NANOS
+                reply = buildLogPacket()
+            }
+        }
+        if (reply != null) listener?.onPacketReceived(reply!!)
+    }
+
+    private fun buildLogPacket(): ByteArray {
+        val timestampMs = (mTimeNanos / 1_000_000L).toInt()
+        mLogPacket.clear()
+        mLogPacket.put(mLogHeader)
+        mLogPacket.put(LOG_BLOCK_ID.toByte())
+        mLogPacket.put((timestampMs and 0xff).toByte())
+        mLogPacket.put(((timestampMs shr 8) and 0xff).toByte())
+        mLogPacket.put(((timestampMs shr 16) and 0xff).toByte())
+        mLogPacket.putFloat(mDistance)
+        mLogPacket.putFloat(mVelocity)
+        return mLogPacket.array().copyOf()
+    }
+
+    /*! apparent face height in pixels for a face that measures heightAtOneMeter at 1 m */
+    @Synchronized
+    fun getFaceHeight(heightAtOneMeter: Float): Float =
+        if (mDistance > 0f) heightAtOneMeter / mDistance else Float.MAX_VALUE
+
+    @Synchronized fun getDistance() = mDistance
+    @Synchronized fun getVelocity() = mVelocity
+    @Synchronized fun getTimeNanos() = mTimeNanos
+    @Synchronized fun getCommandCount() = mCommandCount
+    /*! number of direction reversals of the simulated drone so far */
+    @Synchronized fun getOscillationCount() = mOscillationCount
+    /*! simulated time since the last setpoint arrived, or -1 if none has */
+    @Synchronized fun getLastCommandAgeNanos() =
+        if (mLastCommandNanos < 0) -1L else mTimeNanos - mLastCommandNanos
+
+    override fun close() {
+        mOpen = false
+        mListener = null
+    }
+
+    override fun isOpen() = mOpen
+}
@@ -0,0 +1,40 @@
+package org.tensorflow.lite.examples.classification
+
+import com.felhr.usbserial.UsbSerialDevice
+import com.felhr.usbserial.UsbSerialInterface
+
+/*! CrtpLink backed by the USB serial port of the pod */
+class UsbSerialLink(serial: UsbSerialDevice, baudRate: Int): CrtpLink {
+    private val mSerial: UsbSerialDevice = serial
+    private val mBaudRate: Int = baudRate
+    private var mOpen: Boolean = false
+
+    override fun open(listener: CrtpLink.Listener): Boolean {
+        if (!mSerial.open()) {
+            return false
+        }
+        mSerial.setBaudRate(mBaudRate)
+        mSerial.setDataBits(UsbSerialInterface.DATA_BITS_8)
+        mSerial.setStopBits(UsbSerialInterface.STOP_BITS_1)
+        mSerial.setParity(UsbSerialInterface.PARITY_NONE)
+        mSerial.setFlowControl(UsbSerialInterface.FLOW_CONTROL_OFF)
+        mSerial.read { data ->
+            if (data != null && data.isNotEmpty()) {
+                listener.onPacketReceived(data)
+            }
+        }
+        mOpen = true
+        return true
+    }
+
+    override fun send(data: ByteArray) {
+        mSerial.write(data)
+    }
+
+    override fun close() {
+        mOpen = false
+        mSerial.close()
+    }
+
+    override fun isOpen() = mOpen
+}
@@ -0,0 +1,141 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.classification.customview;
+
+/**
+ * Moves a box smoothly between the positions reported by inference, which arrive a few times a
+ * second, so that it can be drawn at display rate.
+ *
+ * <p>Each update starts a linear move from where the box is shown to the new position, lasting the
+ * mean interval between updates, so the box reaches a position about when the next one arrives.
+ * Plain Java and not thread safe; {@link FaceOverlayView} guards it.
+ */
+public final class BoxInterpolator {
+  /** Shortest move, about a display frame. */
+  static final long MIN_DURATION_NANOS = 16_000_000L;
+  /** Longest move; a longer gap between updates is a lost face, not a slow one. */
+  static final long MAX_DURATION_NANOS = 500_000_000L;
+  /** Weight of the newest interval in the running mean. */
+  private static final float INTERVAL_SMOOTHING = 0.2f;
+
+  private boolean hasBox = false;
+  /** Whether the last update started a move rather than placing the box. */
+  private boolean gliding = false;
+  private float startLeft, startTop, startRight, startBottom;
+  private float targetLeft, targetTop, targetRight, targetBottom;
+  private long startNanos;
+  private long lastUpdateNanos;
+  private long durationNanos = MIN_DURATION_NANOS;
+  private boolean hasInterval = false;
+
+  // box of the last sample()
+  private float left, top, right, bottom;
+
+  /** Sets the position to move to, starting at {@code nowNanos}. */
+  public void update(long nowNanos, float left, float top, float right, float bottom) {
+    gliding = hasBox && nowNanos - lastUpdateNanos < MAX_DURATION_NANOS;
+    if (gliding) {
+      sample(nowNanos);
+      startLeft = this.left;
+      startTop = this.top;
+      startRight = this.right;
+      startBottom = this.bottom;
+      long interval = nowNanos - lastUpdateNanos;
+      durationNanos =
+          hasInterval
+              ? durationNanos + (long) (INTERVAL_SMOOTHING * (interval - durationNanos))
+              : interval;
+      durationNanos = Math.max(MIN_DURATION_NANOS, durationNanos);
+      hasInterval = true;
+    } else {
+      // first box, or the face was lost in between: appear at the new position
+      startLeft = left;
+      startTop = top;
+      startRight = right;
+      startBottom = bottom;
+    }
+    targetLeft = left;
+    targetTop = top;
+    targetRight = right;
+    targetBottom = bottom;
+    startNanos = nowNanos;
+    lastUpdateNanos = nowNanos;
+    hasBox = true;
+  }
+
+  public void clear() {
+    hasBox = false;
+  }
+
+  public boolean hasBox() {
+    return hasBox;
+  }
+
+  /**
+   * Computes the box shown at {@code nowNanos}, read back with {@link #getLeft()} and the other
+   * getters.
+   *
+   * @return Whether the box is still moving, so that another frame has to be drawn.
+   */
+  public boolean sample(long nowNanos) {
+    float progress = (float) (nowNanos - startNanos) / durationNanos;
+    if (progress >= 1 || progress < 0) {
+      progress = 1;
+    }
+    left = startLeft + progress * (targetLeft - startLeft);
+    top = startTop + progress * (targetTop - startTop);
+    right = startRight + progress * (targetRight - startRight);
+    bottom = startBottom + progress * (targetBottom - startBottom);
+    return hasBox && gliding && progress < 1;
+  }
+
+  public float getLeft() {
+    return left;
+  }
+
+  public float getTop() {
+    return top;
+  }
+
+  public float getRight() {
+    return right;
+  }
+
+  public float getBottom() {
+    return bottom;
+  }
+
+  public float getTargetLeft() {
+    return targetLeft;
+  }
+
+  public float getTargetTop() {
+    return targetTop;
+  }
+
+  public float getTargetRight() {
+    return targetRight;
+  }
+
+  public float getTargetBottom() {
+    return targetBottom;
+  }
+
+  /** Mean interval between updates, the length of each move. */
+  public long getDurationNanos() {
+    return durationNanos;
+  }
+}
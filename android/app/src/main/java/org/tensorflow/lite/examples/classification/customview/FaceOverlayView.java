@@ -0,0 +1,248 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.classification.customview;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.util.AttributeSet;
+import android.util.TypedValue;
+import android.view.View;
+
+/**
+ * Draws the tracked face box over the camera preview, with the emotion and its confidence, and
+ * greys it out when inference has not seen the face for a while.
+ *
+ * <p>Inference calls {@link #setFace} and {@link #clearFace} from its own thread; they only store
+ * the box and post an invalidation, so the overlay costs inference next to nothing. Between updates
+ * the box glides to its new position at display rate, see {@link BoxInterpolator}, and only the
+ * union of the old and new box is invalidated. Paints, rectangles and the text of every label are
+ * allocated once, so drawing allocates nothing.
+ *
+ * <p>The view is laid out over the preview's container. As {@link AutoFitTextureView} does, the
+ * preview is assumed to fill it from the top left corner at the aspect ratio of the rotated frame.
+ */
+public class FaceOverlayView extends View {
+  private static final float STROKE_WIDTH_DIP = 3;
+  private static final float TEXT_SIZE_DIP = 16;
+  /** Time without a face update after which the box is shown as stale. */
+  private static final long STALE_NANOS = 1_000_000_000L;
+  /** Labels of the emotion classes, in the order of the classifier's output. */
+  private static final String[] EMOTION_NAMES = {
+    "Angry", "Disgusted", "Afraid", "Happy", "Neutral", "Sad", "Surprised"
+  };
+
+  private final Paint boxPaint = new Paint();
+  private final Paint staleBoxPaint = new Paint();
+  private final Paint labelPaint = new Paint();
+  private final Paint textPaint = new Paint();
+  private final float textSizePx;
+  private final float padding;
+
+  // Text of each emotion and of each percentage from 0 to 100, with its measured width
+  private final char[][] emotionText = new char[EMOTION_NAMES.length][];
+  private final float[] emotionWidth = new float[EMOTION_NAMES.length];
+  private final char[][] percentText = new char[101][];
+  private final float[] percentWidth = new float[101];
+  private final float spaceWidth;
+  private final float maxLabelWidth;
+
+  private final RectF box = new RectF();
+  private final RectF label = new RectF();
+  private final RectF target = new RectF();
+  private final Rect dirty = new Rect();
+
+  // Written by the inference thread, guarded by this
+  private final BoxInterpolator interpolator = new BoxInterpolator();
+  private int frameWidth = 0;
+  private int frameHeight = 0;
+  private int rotation = 0;
+  private int emotion = -1;
+  private int percent = 0;
+  private long lastUpdateNanos = 0;
+  /** Bounds of everything drawn by the last onDraw(), empty if nothing was. */
+  private final Rect drawn = new Rect();
+
+  public FaceOverlayView(final Context context, final AttributeSet attrs) {
+    super(context, attrs);
+
+    final float density = getResources().getDisplayMetrics().density;
+    textSizePx =
+        TypedValue.applyDimension(
+            TypedValue.COMPLEX_UNIT_DIP, TEXT_SIZE_DIP, getResources().getDisplayMetrics());
+    padding = textSizePx / 4;
+
+    boxPaint.setStyle(Paint.Style.STROKE);
+    boxPaint.setStrokeWidth(STROKE_WIDTH_DIP * density);
+    boxPaint.setColor(0xff4285f4);
+    staleBoxPaint.set(boxPaint);
+    staleBoxPaint.setColor(Color.GRAY);
+    labelPaint.setColor(0xcc4285f4);
+    textPaint.setColor(Color.WHITE);
+    textPaint.setTextSize(textSizePx);
+    textPaint.setAntiAlias(true);
+
+    for (int i = 0; i < EMOTION_NAMES.length; i++) {
+      emotionText[i] = EMOTION_NAMES[i].toCharArray();
+      emotionWidth[i] = textPaint.measureText(EMOTION_NAMES[i]);
+    }
+    for (int i = 0; i < percentText.length; i++) {
+      final String text = i + "%";
+      percentText[i] = text.toCharArray();
+      percentWidth[i] = textPaint.measureText(text);
+    }
+    spaceWidth = textPaint.measureText(" ");
+    float maxEmotionWidth = 0;
+    for (float width : emotionWidth) {
+      maxEmotionWidth = Math.max(maxEmotionWidth, width);
+    }
+    maxLabelWidth = maxEmotionWidth + spaceWidth + percentWidth[100] + 2 * padding;
+  }
+
+  /**
+   * Sets the frames the boxes are given in. Any thread.
+   *
+   * @param rotation Clockwise rotation from the frame to the screen, in degrees.
+   */
+  public synchronized void setFrameConfiguration(int width, int height, int rotation) {
+    frameWidth = width;
+    frameHeight = height;
+    this.rotation = ((rotation % 360) + 360) % 360;
+    interpolator.clear();
+    postInvalidate();
+  }
+
+  /**
+   * Moves the box to a face found by inference. Any thread.
+   *
+   * @param emotion Index of the FER emotion class, or -1 to show the box only, e.g. for a model
+   *     whose classes are not emotions.
+   * @param score Confidence in the emotion, from 0 to 1.
+   */
+  public synchronized void setFace(
+      int left, int top, int right, int bottom, int emotion, float score) {
+    final long nowNanos = System.nanoTime();
+    interpolator.update(nowNanos, left, top, right, bottom);
+    this.emotion = emotion >= 0 && emotion < EMOTION_NAMES.length ? emotion : -1;
+    percent = Math.max(0, Math.min(100, Math.round(100 * score)));
+    lastUpdateNanos = nowNanos;
+
+    // what is shown now, and where the box is heading
+    mapTarget(target);
+    getCoveredBounds(target, dirty);
+    dirty.union(drawn);
+    postInvalidateOnAnimation(dirty.left, dirty.top, dirty.right, dirty.bottom);
+    // to grey the box out if no other update comes
+    postInvalidateDelayed(
+        STALE_NANOS / 1_000_000L + 1, dirty.left, dirty.top, dirty.right, dirty.bottom);
+  }
+
+  /** Removes the box, inference found no face. Any thread. */
+  public synchronized void clearFace() {
+    if (!interpolator.hasBox()) {
+      return;
+    }
+    interpolator.clear();
+    postInvalidateOnAnimation(drawn.left, drawn.top, drawn.right, drawn.bottom);
+  }
+
+  @Override
+  protected synchronized void onDraw(final Canvas canvas) {
+    if (!interpolator.hasBox() || frameWidth == 0 || frameHeight == 0) {
+      drawn.setEmpty();
+      return;
+    }
+    final long nowNanos = System.nanoTime();
+    final boolean moving = interpolator.sample(nowNanos);
+    map(
+        interpolator.getLeft(),
+        interpolator.getTop(),
+        interpolator.getRight(),
+        interpolator.getBottom(),
+        box);
+    final boolean stale = nowNanos - lastUpdateNanos > STALE_NANOS;
+    canvas.drawRect(box, stale ? staleBoxPaint : boxPaint);
+
+    getCoveredBounds(box, drawn);
+    if (emotion >= 0) {
+      final float textWidth = emotionWidth[emotion] + spaceWidth + percentWidth[percent];
+      final float labelTop = box.top - textSizePx - 2 * padding;
+      label.set(box.left, labelTop, box.left + textWidth + 2 * padding, box.top);
+      canvas.drawRect(label, labelPaint);
+      final float baseline = box.top - padding - textPaint.descent();
+      float x = box.left + padding;
+      canvas.drawText(emotionText[emotion], 0, emotionText[emotion].length, x, baseline, textPaint);
+      x += emotionWidth[emotion] + spaceWidth;
+      canvas.drawText(percentText[percent], 0, percentText[percent].length, x, baseline, textPaint);
+    }
+
+    if (moving) {
+      // the next box lies between this one and the target
+      mapTarget(target);
+      getCoveredBounds(target, dirty);
+      dirty.union(drawn);
+      postInvalidateOnAnimation(dirty.left, dirty.top, dirty.right, dirty.bottom);
+    }
+  }
+
+  private void mapTarget(RectF out) {
+    map(
+        interpolator.getTargetLeft(),
+        interpolator.getTargetTop(),
+        interpolator.getTargetRight(),
+        interpolator.getTargetBottom(),
+        out);
+  }
+
+  /** Maps a box from frame to view coordinates, rotating it and scaling it to fit the view. */
+  private void map(float left, float top, float right, float bottom, RectF out) {
+    final boolean transpose = rotation == 90 || rotation == 270;
+    final float rotatedWidth = transpose ? frameHeight : frameWidth;
+    final float rotatedHeight = transpose ? frameWidth : frameHeight;
+    final float scale = Math.min(getWidth() / rotatedWidth, getHeight() / rotatedHeight);
+    switch (rotation) {
+      case 90:
+        out.set(frameHeight - bottom, left, frameHeight - top, right);
+        break;
+      case 180:
+        out.set(frameWidth - right, frameHeight - bottom, frameWidth - left, frameHeight - top);
+        break;
+      case 270:
+        out.set(top, frameWidth - right, bottom, frameWidth - left);
+        break;
+      default:
+        out.set(left, top, right, bottom);
+        break;
+    }
+    out.left *= scale;
+    out.top *= scale;
+    out.right *= scale;
+    out.bottom *= scale;
+  }
+
+  /** The pixels a box, its stroke and the widest label above it may cover. */
+  private void getCoveredBounds(RectF box, Rect out) {
+    final float stroke = boxPaint.getStrokeWidth();
+    out.set(
+        (int) Math.floor(box.left - stroke),
+        (int) Math.floor(box.top - textSizePx - 2 * padding - stroke),
+        (int) Math.ceil(Math.max(box.right, box.left + maxLabelWidth) + stroke),
+        (int) Math.ceil(box.bottom + stroke));
+  }
+}
@@ -149,4 +149,16 @@ public class ImageUtils {
       }
     }
   }
+
+  /** Gray ARGB of a full-range luma plane, for frames without chroma. */
+  public static void convertLumaToARGB8888(
+      byte[] yData, int width, int height, int yRowStride, int[] out) {
+    int yp = 0;
+    for (int j = 0; j < height; j++) {
+      int pY = yRowStride * j;
+      for (int i = 0; i < width; i++) {
+        out[yp++] = 0xff000000 | (0x010101 * (0xff & yData[pY + i]));
+      }
+    }
+  }
 }
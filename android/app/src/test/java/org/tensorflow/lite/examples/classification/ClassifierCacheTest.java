@@ -0,0 +1,117 @@
+/*
+ * Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.classification;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.Closeable;
+import org.junit.Test;
+import org.tensorflow.lite.examples.classification.tflite.Classifier.Device;
+import org.tensorflow.lite.examples.classification.tflite.Classifier.Model;
+
+public class ClassifierCacheTest {
+  private static final ClassifierCache.Key CPU_1 =
+      new ClassifierCache.Key(Model.EMOTION, Device.CPU, 1, true);
+  private static final ClassifierCache.Key CPU_4 =
+      new ClassifierCache.Key(Model.EMOTION, Device.CPU, 4, true);
+  private static final ClassifierCache.Key NNAPI =
+      new ClassifierCache.Key(Model.EMOTION, Device.NNAPI, 1, true);
+
+  private final ClassifierCache<FakeClassifier> cache = new ClassifierCache<>(100);
+
+  private static final class FakeClassifier implements Closeable {
+    boolean closed = false;
+
+    @Override
+    public void close() {
+      closed = true;
+    }
+  }
+
+  @Test
+  public void takeRemovesTheClassifier() {
+    FakeClassifier classifier = new FakeClassifier();
+    cache.put(CPU_1, classifier, 40);
+
+    assertThat(cache.take(CPU_1)).isSameInstanceAs(classifier);
+    assertThat(cache.take(CPU_1)).isNull();
+    assertThat(cache.size()).isEqualTo(0);
+    assertThat(classifier.closed).isFalse();
+  }
+
+  @Test
+  public void evictsLeastRecentlyUsedBeyondTheCap() {
+    FakeClassifier first = new FakeClassifier();
+    FakeClassifier second = new FakeClassifier();
+    FakeClassifier third = new FakeClassifier();
+    cache.put(CPU_1, first, 40);
+    cache.put(CPU_4, second, 40);
+    // using the first makes the second the least recently used
+    FakeClassifier taken = cache.take(CPU_1);
+    cache.put(CPU_1, taken, 40);
+
+    cache.put(NNAPI, third, 40);
+
+    assertThat(second.closed).isTrue();
+    assertThat(first.closed).isFalse();
+    assertThat(third.closed).isFalse();
+    assertThat(cache.size()).isEqualTo(2);
+    assertThat(cache.take(CPU_4)).isNull();
+  }
+
+  @Test
+  public void closesAClassifierBiggerThanTheCap() {
+    FakeClassifier small = new FakeClassifier();
+    FakeClassifier huge = new FakeClassifier();
+    cache.put(CPU_1, small, 40);
+
+    cache.put(CPU_4, huge, 101);
+
+    assertThat(huge.closed).isTrue();
+    assertThat(small.closed).isTrue();
+    assertThat(cache.size()).isEqualTo(0);
+  }
+
+  @Test
+  public void replacingAKeyClosesTheOldClassifier() {
+    FakeClassifier old = new FakeClassifier();
+    FakeClassifier replacement = new FakeClassifier();
+    cache.put(CPU_1, old, 60);
+
+    cache.put(CPU_1, replacement, 60);
+
+    assertThat(old.closed).isTrue();
+    assertThat(replacement.closed).isFalse();
+    // only the replacement counts against the cap
+    assertThat(cache.size()).isEqualTo(1);
+    assertThat(cache.take(CPU_1)).isSameInstanceAs(replacement);
+  }
+
+  @Test
+  public void clearClosesEverything() {
+    FakeClassifier first = new FakeClassifier();
+    FakeClassifier second = new FakeClassifier();
+    cache.put(CPU_1, first, 10);
+    cache.put(CPU_4, second, 10);
+
+    cache.clear();
+
+    assertThat(first.closed).isTrue();
+    assertThat(second.closed).isTrue();
+    assertThat(cache.size()).isEqualTo(0);
+  }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.classification;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.Test;
+
+public class CrtpLinkHealthTest {
+  private static final long MS = 1_000_000L;
+
+  private long nowNanos = 1000 * MS;
+  // 11520 bytes per second on the wire
+  private final CrtpLinkHealth health = new CrtpLinkHealth(115200, () -> nowNanos);
+
+  private static byte[] hover() {
+    return new CommanderHoverPacket(0F, 0F, 0F, 0.6F).toByteArray();
+  }
+
+  private static byte[] bulk(int size) {
+    byte[] data = new byte[size];
+    data[0] = (byte) (CrtpPort.LOGGING.getNumber() << 4);
+    return data;
+  }
+
+  @Test
+  public void countsBytesPerPortOverOneSecond() {
+    CrtpPort port = CrtpPort.COMMANDER_GENERIC;
+    byte[] setpoint = hover();
+    health.recordWrite(setpoint, 0);
+    nowNanos += 500 * MS;
+    health.recordWrite(setpoint, 0);
+
+    assertThat(health.getTxBytesPerSecond(port)).isEqualTo(2L * setpoint.length);
+    assertThat(health.getTxBytesPerSecond(CrtpPort.LOGGING)).isEqualTo(0L);
+
+    // the first write leaves the window
+    nowNanos += 600 * MS;
+    assertThat(health.getTxBytesPerSecond(port)).isEqualTo((long) setpoint.length);
+    assertThat(health.getTotalTxBytes()).isEqualTo(2L * setpoint.length);
+  }
+
+  @Test
+  public void throttlesOnlyBulkNearCapacity() {
+    health.recordWrite(bulk(7000), 0);
+
+    assertThat(health.shouldThrottle(CrtpLane.BULK)).isTrue();
+    assertThat(health.shouldThrottle(CrtpLane.SETPOINT)).isFalse();
+    assertThat(health.shouldThrottle(CrtpLane.SAFETY)).isFalse();
+    assertThat(health.getAvailableBytesPerSecond()).isEqualTo(9216L - 7000L);
+  }
+
+  @Test
+  public void slowWritesThrottleBulkUntilTheyFade() {
+    for (int i = 0; i < 10; i++) {
+      health.recordWrite(hover(), 20 * MS);
+    }
+    assertThat(health.shouldThrottle(CrtpLane.BULK)).isTrue();
+
+    // no lane writes, yet the backlog hint fades and bulk traffic may go again
+    nowNanos += 300 * MS;
+    assertThat(health.shouldThrottle(CrtpLane.BULK)).isFalse();
+  }
+
+  @Test
+  public void fastWritesLowerTheAverage() {
+    for (int i = 0; i < 10; i++) {
+      health.recordWrite(hover(), 20 * MS);
+    }
+    long slow = health.getAverageWriteNanos();
+    health.recordWrite(hover(), 0);
+
+    assertThat(health.getAverageWriteNanos()).isLessThan(slow);
+    assertThat(health.getMaxWriteNanos()).isEqualTo(20 * MS);
+    assertThat(health.getLastWriteNanos()).isEqualTo(0L);
+  }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.classification;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import kotlin.Unit;
+import org.junit.Test;
+
+public class CrtpOutboundQueueTest {
+  private static final long TIMEOUT_MS = 2000;
+
+  private final List<byte[]> written = Collections.synchronizedList(new ArrayList<>());
+  private final CrtpOutboundQueue queue =
+      new CrtpOutboundQueue(
+          new CrtpLinkHealth(115200),
+          data -> {
+            written.add(data);
+            return Unit.INSTANCE;
+          });
+
+  private static byte[] hover() {
+    return new CommanderHoverPacket(0F, 0F, 0F, 0.6F).toByteArray();
+  }
+
+  /** High-level commander packet with the given command id. */
+  private static byte[] highLevel(int command) {
+    return new byte[] {(byte) (CrtpPort.COMMANDER_HL.getNumber() << 4), (byte) command, 0, 0};
+  }
+
+  private void offer(byte[] data) {
+    queue.offer(data, CrtpLane.Companion.forPacket(data));
+  }
+
+  private void awaitSent(CrtpLane lane, long count) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+    while (queue.getSentCount(lane) < count && System.currentTimeMillis() < deadline) {
+      Thread.sleep(1);
+    }
+    assertThat(queue.getSentCount(lane)).isEqualTo(count);
+  }
+
+  @Test
+  public void stopDropsPendingSetpoint() throws InterruptedException {
+    byte[] setpoint = hover();
+    byte[] stop = new CommanderStopPacket().toByteArray();
+    // both queued before the writer runs, the setpoint first
+    offer(setpoint);
+    offer(stop);
+    assertThat(queue.getDroppedByStopCount()).isEqualTo(1);
+
+    queue.start();
+    awaitSent(CrtpLane.SAFETY, 1);
+    queue.stop();
+
+    assertThat(queue.getSentCount(CrtpLane.SETPOINT)).isEqualTo(0);
+    assertThat(written.get(written.size() - 1)).isSameInstanceAs(stop);
+  }
+
+  @Test
+  public void newerSetpointReplacesWaitingOne() throws InterruptedException {
+    byte[] older = hover();
+    byte[] newer = hover();
+    offer(older);
+    offer(newer);
+    assertThat(queue.getCoalescedCount()).isEqualTo(1);
+
+    queue.start();
+    awaitSent(CrtpLane.SETPOINT, 1);
+    queue.stop();
+
+    assertThat(written).containsExactly(newer);
+  }
+
+  @Test
+  public void highLevelCommandsAreNeverCoalesced() throws InterruptedException {
+    byte[] takeoff = highLevel(7);
+    byte[] goTo = highLevel(4);
+    offer(takeoff);
+    offer(goTo);
+    offer(hover());
+
+    queue.start();
+    awaitSent(CrtpLane.COMMAND, 2);
+    awaitSent(CrtpLane.SETPOINT, 1);
+    queue.stop();
+
+    assertThat(written.subList(0, 2)).containsExactly(takeoff, goTo).inOrder();
+  }
+
+  @Test
+  public void routesStopAndLandToSafety() {
+    assertThat(CrtpLane.Companion.forPacket(new CommanderStopPacket().toByteArray()))
+        .isEqualTo(CrtpLane.SAFETY);
+    assertThat(CrtpLane.Companion.forPacket(highLevel(3))).isEqualTo(CrtpLane.SAFETY);
+    assertThat(CrtpLane.Companion.forPacket(highLevel(8))).isEqualTo(CrtpLane.SAFETY);
+    assertThat(CrtpLane.Companion.forPacket(highLevel(7))).isEqualTo(CrtpLane.COMMAND);
+    assertThat(CrtpLane.Companion.forPacket(hover())).isEqualTo(CrtpLane.SETPOINT);
+  }
+}
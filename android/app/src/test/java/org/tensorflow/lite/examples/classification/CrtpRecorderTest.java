@@ -0,0 +1,138 @@
+/*
+ * Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.classification;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CrtpRecorderTest {
+  @Rule public final TemporaryFolder folder = new TemporaryFolder();
+
+  private File file;
+  private volatile boolean closing = false;
+
+  @Before
+  public void setUp() {
+    file = new File(folder.getRoot(), "session.crtp");
+  }
+
+  private List<byte[]> replay() {
+    List<byte[]> packets = new ArrayList<>();
+    new CrtpReplayer(file).replay((timestampNanos, direction, data) -> packets.add(data), false);
+    return packets;
+  }
+
+  @Test
+  public void recordsPacketsInOrder() {
+    byte[] hover = new CommanderHoverPacket(0.1F, 0F, 0F, 0.6F).toByteArray();
+    byte[] log = new byte[] {0x52, 0, 1, 2, 3};
+    CrtpRecorder recorder = new CrtpRecorder(file);
+
+    assertThat(recorder.record(CrtpRecorder.DIRECTION_OUT, hover, 1000L)).isTrue();
+    assertThat(recorder.record(CrtpRecorder.DIRECTION_IN, log, 2000L)).isTrue();
+    recorder.close();
+
+    List<Long> timestamps = new ArrayList<>();
+    List<Integer> directions = new ArrayList<>();
+    List<byte[]> packets = new ArrayList<>();
+    int count =
+        new CrtpReplayer(file)
+            .replay(
+                (timestampNanos, direction, data) -> {
+                  timestamps.add(timestampNanos);
+                  directions.add(direction);
+                  packets.add(data);
+                },
+                false);
+
+    assertThat(count).isEqualTo(2);
+    assertThat(timestamps).containsExactly(1000L, 2000L).inOrder();
+    assertThat(directions)
+        .containsExactly(CrtpRecorder.DIRECTION_OUT, CrtpRecorder.DIRECTION_IN)
+        .inOrder();
+    assertThat(packets.get(0)).isEqualTo(hover);
+    assertThat(packets.get(1)).isEqualTo(log);
+    assertThat(file.length())
+        .isEqualTo(
+            (long) CrtpRecorder.HEADER_SIZE
+                + 2 * CrtpRecorder.RECORD_HEADER_SIZE
+                + hover.length
+                + log.length);
+  }
+
+  @Test
+  public void recordAfterCloseIsRejected() {
+    CrtpRecorder recorder = new CrtpRecorder(file);
+    byte[] stop = new CommanderStopPacket().toByteArray();
+    recorder.record(CrtpRecorder.DIRECTION_OUT, stop, 1000L);
+    recorder.close();
+
+    assertThat(recorder.record(CrtpRecorder.DIRECTION_OUT, stop, 2000L)).isFalse();
+    assertThat(recorder.getRecordedCount()).isEqualTo(1L);
+    assertThat(replay()).hasSize(1);
+  }
+
+  @Test
+  public void everyAcceptedPacketSurvivesARacingClose() throws InterruptedException {
+    CrtpRecorder recorder = new CrtpRecorder(file);
+    AtomicLong accepted = new AtomicLong();
+    CountDownLatch started = new CountDownLatch(4);
+    List<Thread> writers = new ArrayList<>();
+    for (int i = 0; i < 4; i++) {
+      byte[] packet = new byte[] {0x70, (byte) i};
+      Thread writer =
+          new Thread(
+              () -> {
+                boolean first = true;
+                // keep writing until close() turns us away; a full ring also refuses a packet
+                for (long timestamp = 1; ; timestamp++) {
+                  if (recorder.record(CrtpRecorder.DIRECTION_OUT, packet, timestamp)) {
+                    accepted.incrementAndGet();
+                    if (first) {
+                      first = false;
+                      started.countDown();
+                    }
+                  } else if (closing) {
+                    break;
+                  }
+                }
+              });
+      writers.add(writer);
+      writer.start();
+    }
+    started.await();
+
+    closing = true;
+    recorder.close();
+    for (Thread writer : writers) {
+      writer.join();
+    }
+
+    assertThat(accepted.get()).isGreaterThan(0L);
+    assertThat(recorder.getRecordedCount()).isEqualTo(accepted.get());
+    assertThat(replay()).hasSize((int) accepted.get());
+  }
+}
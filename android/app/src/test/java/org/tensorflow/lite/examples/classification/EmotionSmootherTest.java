@@ -0,0 +1,66 @@
+/*
+ * Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.classification;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.Test;
+
+public class EmotionSmootherTest {
+  private static final int HAPPY = 0;
+  private static final int NEUTRAL = 1;
+  private static final long FRAME_NANOS = 66_000_000L;
+
+  private static EmotionSmoother newSmoother() {
+    return new EmotionSmoother(2, 8, 200_000_000L, 1_000_000_000L)
+        .addDecision(HAPPY, 0.7F)
+        .setFallback(NEUTRAL);
+  }
+
+  @Test
+  public void singleFlickerDoesNotFlipTheDecision() {
+    EmotionSmoother smoother = newSmoother();
+    for (int i = 0; i < 8; i++) {
+      smoother.add(i * FRAME_NANOS, new float[] {0.95F, 0.05F});
+    }
+    smoother.add(8 * FRAME_NANOS, new float[] {0.1F, 0.9F});
+    assertThat(smoother.update(8 * FRAME_NANOS)).isTrue();
+    assertThat(smoother.decide()).isEqualTo(HAPPY);
+  }
+
+  @Test
+  public void sustainedChangeWins() {
+    EmotionSmoother smoother = newSmoother();
+    for (int i = 0; i < 8; i++) {
+      smoother.add(i * FRAME_NANOS, new float[] {0.95F, 0.05F});
+    }
+    for (int i = 8; i < 16; i++) {
+      smoother.add(i * FRAME_NANOS, new float[] {0.1F, 0.9F});
+    }
+    smoother.update(15 * FRAME_NANOS);
+    assertThat(smoother.decide()).isEqualTo(NEUTRAL);
+  }
+
+  @Test
+  public void samplesOutsideTheWindowAreIgnored() {
+    EmotionSmoother smoother = newSmoother();
+    smoother.add(0, new float[] {1F, 0F});
+    assertThat(smoother.update(500_000_000L)).isTrue();
+    assertThat(smoother.getProbability(HAPPY)).isEqualTo(1F);
+    assertThat(smoother.update(2_000_000_000L)).isFalse();
+  }
+}
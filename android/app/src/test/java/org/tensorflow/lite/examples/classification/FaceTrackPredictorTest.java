@@ -0,0 +1,48 @@
+/*
+ * Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.classification;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.Test;
+
+public class FaceTrackPredictorTest {
+  private static final long FRAME_NANOS = 100_000_000L;
+
+  @Test
+  public void predictsAheadOfAnApproachingFace() {
+    FaceTrackPredictor predictor = new FaceTrackPredictor();
+    // face grows by 20 px per second, detections every 100 ms
+    for (int i = 0; i < 30; i++) {
+      predictor.update(i * FRAME_NANOS, 320, 240, 50 + 2 * i);
+    }
+    long lastCapture = 29 * FRAME_NANOS;
+    float measured = 50 + 2 * 29;
+    // 150 ms of inference later the face is ~3 px larger than in the last frame
+    assertThat(predictor.predictHeight(lastCapture + 150_000_000L)).isWithin(0.5F).of(measured + 3);
+    assertThat(predictor.getHeightVelocity()).isWithin(1F).of(20F);
+  }
+
+  @Test
+  public void dropsStaleTracks() {
+    FaceTrackPredictor predictor = new FaceTrackPredictor();
+    assertThat(predictor.predictHeight(0)).isNaN();
+    predictor.update(0, 320, 240, 80);
+    assertThat(predictor.predictHeight(FRAME_NANOS)).isEqualTo(80F);
+    assertThat(predictor.predictHeight(2_000_000_000L)).isNaN();
+  }
+}
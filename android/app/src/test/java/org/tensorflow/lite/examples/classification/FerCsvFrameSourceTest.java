@@ -0,0 +1,83 @@
+/*
+ * Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.classification;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import org.junit.Test;
+
+public class FerCsvFrameSourceTest {
+  private static String row(String emotion, int pixels) {
+    StringBuilder line = new StringBuilder(emotion).append(",PrivateTest");
+    for (int i = 0; i < pixels; i++) {
+      line.append(',').append(i % 256);
+    }
+    return line.toString();
+  }
+
+  @Test
+  public void parsesLabelAndPixels() {
+    byte[] pixels = new byte[300];
+    assertThat(FerCsvFrameSource.parseRow(row("6", 300), pixels)).isEqualTo(6);
+    assertThat(pixels[0]).isEqualTo((byte) 0);
+    assertThat(pixels[7]).isEqualTo((byte) 7);
+    assertThat(pixels[255] & 0xff).isEqualTo(255);
+    assertThat(pixels[299]).isEqualTo((byte) 43);
+  }
+
+  @Test
+  public void parsesSemicolonRows() {
+    byte[] pixels = new byte[3];
+    String line = "5;PublicTest;0;128;255";
+
+    assertThat(FerCsvFrameSource.parseRow(line, ';', pixels)).isEqualTo(5);
+    assertThat(pixels).isEqualTo(new byte[] {0, (byte) 128, (byte) 255});
+    // a ',' parser sees a single unparseable column
+    assertThrows(IllegalArgumentException.class, () -> FerCsvFrameSource.parseRow(line, pixels));
+  }
+
+  @Test
+  public void detectsTheDelimiterOfTheHeader() {
+    assertThat(FerCsvFrameSource.detectDelimiter("emotion;Usage;pixel1;pixel2")).isEqualTo(';');
+    assertThat(FerCsvFrameSource.detectDelimiter("emotion,Usage,pixel1,pixel2")).isEqualTo(',');
+    assertThat(FerCsvFrameSource.detectDelimiter("3;Training;12;34")).isEqualTo(';');
+    assertThat(FerCsvFrameSource.detectDelimiter("emotion")).isEqualTo(',');
+  }
+
+  @Test
+  public void rejectsWrongPixelCount() {
+    byte[] pixels = new byte[300];
+    assertThrows(
+        IllegalArgumentException.class, () -> FerCsvFrameSource.parseRow(row("1", 299), pixels));
+    assertThrows(
+        IllegalArgumentException.class, () -> FerCsvFrameSource.parseRow(row("1", 301), pixels));
+  }
+
+  @Test
+  public void rejectsBadValues() {
+    byte[] pixels = new byte[2];
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> FerCsvFrameSource.parseRow("3,Training,12,256", pixels));
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> FerCsvFrameSource.parseRow("3,Training,12,", pixels));
+    assertThrows(
+        IllegalArgumentException.class, () -> FerCsvFrameSource.parseRow("x,Training,1,2", pixels));
+  }
+}
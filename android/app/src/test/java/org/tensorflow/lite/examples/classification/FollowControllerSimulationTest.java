@@ -0,0 +1,115 @@
+/*
+ * Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.classification;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.Test;
+
+/** Closes the loop: the controller sees the face the simulated drone would see and steers it. */
+public class FollowControllerSimulationTest {
+  private static final long STEP_NANOS = SimulatedCrtpLink.LOG_PERIOD_NANOS;
+  private static final long SECOND = 1_000_000_000L;
+  // face height in pixels with the drone one meter away
+  private static final float HEIGHT_AT_ONE_METER = 100F;
+
+  private final FollowController controller = new FollowController();
+  private final FollowController.Observation observation = new FollowController.Observation();
+  private int logPackets = 0;
+  private float minHeight;
+  private float maxHeight;
+
+  private SimulatedCrtpLink open(float distance) {
+    SimulatedCrtpLink drone = new SimulatedCrtpLink(distance);
+    drone.open(data -> logPackets++);
+    return drone;
+  }
+
+  /** Flies for durationNanos, tracking the face height seen during the second half. */
+  private void fly(SimulatedCrtpLink drone, int emotion, long durationNanos) {
+    minHeight = Float.MAX_VALUE;
+    maxHeight = 0F;
+    for (long t = 0; t < durationNanos; t += STEP_NANOS) {
+      drone.step(STEP_NANOS);
+      float height = drone.getFaceHeight(HEIGHT_AT_ONE_METER);
+      if (controller.step(drone.getTimeNanos(), observation.set(emotion, height))) {
+        float throttle = controller.getThrottle();
+        drone.send(new CommanderHoverPacket(throttle, 0F, 0F, 0.6F).toByteArray());
+      }
+      if (2 * t >= durationNanos) {
+        minHeight = Math.min(minHeight, height);
+        maxHeight = Math.max(maxHeight, height);
+      }
+    }
+  }
+
+  @Test
+  public void happyFaceIsApproachedUpToTheUpperLimit() {
+    SimulatedCrtpLink drone = open(2.0F);
+
+    fly(drone, FollowController.EMOTION_HAPPY, 10 * SECOND);
+
+    assertThat(drone.getDistance()).isLessThan(1.2F);
+    assertThat(minHeight).isAtLeast(80F);
+    assertThat(maxHeight).isAtMost(115F);
+    assertThat(drone.getCommandCount()).isGreaterThan(0L);
+    // hunting around the limit is fine, flapping every frame is not
+    assertThat(drone.getOscillationCount()).isAtMost(10L);
+    assertThat(logPackets).isEqualTo((int) (10 * SECOND / STEP_NANOS));
+  }
+
+  @Test
+  public void surprisedFaceIsBackedOffToTheLowerLimit() {
+    SimulatedCrtpLink drone = open(1.0F);
+
+    fly(drone, FollowController.EMOTION_SURPRISED, 10 * SECOND);
+
+    assertThat(drone.getDistance()).isGreaterThan(2.0F);
+    assertThat(minHeight).isAtLeast(35F);
+    assertThat(maxHeight).isAtMost(50F);
+    assertThat(drone.getOscillationCount()).isAtMost(10L);
+  }
+
+  @Test
+  public void neutralFaceTooFarAwayDriftsIntoTheBand() {
+    SimulatedCrtpLink drone = open(3.0F);
+
+    fly(drone, FollowController.EMOTION_NEUTRAL, 20 * SECOND);
+
+    float height = drone.getFaceHeight(HEIGHT_AT_ONE_METER);
+    assertThat(height).isAtLeast(40F);
+    assertThat(height).isAtMost(105F);
+    assertThat(drone.getOscillationCount()).isEqualTo(0L);
+  }
+
+  @Test
+  public void stopPacketHaltsTheDrone() {
+    SimulatedCrtpLink drone = open(2.0F);
+    fly(drone, FollowController.EMOTION_HAPPY, SECOND);
+    assertThat(drone.getVelocity()).isGreaterThan(0.1F);
+
+    drone.send(new CommanderStopPacket().toByteArray());
+    float distance = drone.getDistance();
+    for (int i = 0; i < 100; i++) {
+      drone.step(STEP_NANOS);
+    }
+
+    assertThat(drone.getVelocity()).isWithin(0.001F).of(0F);
+    assertThat(drone.getDistance()).isWithin(0.1F).of(distance);
+    assertThat(drone.getLastCommandAgeNanos()).isEqualTo(SECOND);
+  }
+}
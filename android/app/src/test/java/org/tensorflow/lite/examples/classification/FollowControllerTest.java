@@ -0,0 +1,92 @@
+/*
+ * Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.classification;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.Test;
+
+/** Replays recorded observation sequences through {@link FollowController}. */
+public class FollowControllerTest {
+  private static final long FRAME_NANOS = 33_000_000L;
+
+  /** {emotion, height} pairs, one per camera frame. */
+  private static final float[][] APPROACH_AND_BACK_OFF = {
+    {3, 60}, {3, 62}, {3, 65}, {3, 70}, {3, 74}, {3, 80}, {3, 85}, {3, 90},
+    {4, 95}, {4, 96}, {4, 96}, {6, 98}, {6, 95}, {6, 90}, {6, 84}, {6, 80},
+  };
+
+  private static float[] replay(FollowController controller, float[][] sequence) {
+    FollowController.Observation observation = new FollowController.Observation();
+    float[] sent = new float[sequence.length];
+    for (int i = 0; i < sequence.length; i++) {
+      observation.set((int) sequence[i][0], sequence[i][1]);
+      sent[i] = controller.step(i * FRAME_NANOS, observation) ? controller.getThrottle() : Float.NaN;
+    }
+    return sent;
+  }
+
+  @Test
+  public void replayIsDeterministic() {
+    float[] first = replay(new FollowController(0), APPROACH_AND_BACK_OFF);
+    float[] second = replay(new FollowController(0), APPROACH_AND_BACK_OFF);
+    assertThat(second).usingExactEquality().containsExactly(first).inOrder();
+  }
+
+  @Test
+  public void happyMovesForwardAndSurprisedMovesBack() {
+    FollowController controller = new FollowController(0);
+    replay(controller, APPROACH_AND_BACK_OFF);
+    assertThat(controller.getThrottle()).isLessThan(0F);
+
+    controller.reset();
+    FollowController.Observation happy = new FollowController.Observation().set(
+        FollowController.EMOTION_HAPPY, 60);
+    assertThat(controller.step(0, happy)).isTrue();
+    assertThat(controller.getThrottle()).isGreaterThan(0F);
+  }
+
+  @Test
+  public void throttleStaysWithinLimits() {
+    FollowController controller = new FollowController(0);
+    FollowController.Observation observation = new FollowController.Observation();
+    for (int i = 0; i < 200; i++) {
+      int emotion = (i / 20) % 2 == 0 ? FollowController.EMOTION_HAPPY : FollowController.EMOTION_SURPRISED;
+      controller.step(i * FRAME_NANOS, observation.set(emotion, 10 + (i * 7) % 150));
+      assertThat(Math.abs(controller.getThrottle())).isAtMost(0.3F);
+    }
+  }
+
+  @Test
+  public void observationsFasterThanThePeriodAreIgnored() {
+    FollowController controller = new FollowController(100_000_000L);
+    FollowController.Observation happy = new FollowController.Observation().set(
+        FollowController.EMOTION_HAPPY, 50);
+    assertThat(controller.step(0, happy)).isTrue();
+    float throttle = controller.getThrottle();
+    assertThat(controller.step(50_000_000L, happy)).isFalse();
+    assertThat(controller.getThrottle()).isEqualTo(throttle);
+  }
+
+  @Test
+  public void unknownHeightIsIgnored() {
+    FollowController controller = new FollowController(0);
+    FollowController.Observation observation = new FollowController.Observation();
+    assertThat(controller.step(0, observation)).isFalse();
+    assertThat(controller.getSmoothedHeight()).isEqualTo(-1F);
+  }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.classification;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.Test;
+
+public class HudModelTest {
+  private final HudModel model = new HudModel();
+  private final HudModel shown = new HudModel();
+  private final StringBuilder text = new StringBuilder();
+
+  @Test
+  public void unchangedValuesAreNotDirty() {
+    model.setCrop(48, 48);
+    model.setRotation(90);
+    assertThat(model.takeChanges(shown)).isEqualTo(HudModel.CROP | HudModel.ROTATION);
+
+    model.setCrop(48, 48);
+    model.setRotation(90);
+    assertThat(model.publish()).isFalse();
+    assertThat(model.takeChanges(shown)).isEqualTo(0);
+  }
+
+  @Test
+  public void publishSchedulesOnceUntilTaken() {
+    model.setRotation(90);
+    assertThat(model.publish()).isTrue();
+    model.setCameraSize(480);
+    // coalesced into the pending update
+    assertThat(model.publish()).isFalse();
+
+    assertThat(model.takeChanges(shown)).isEqualTo(HudModel.ROTATION | HudModel.CAMERA);
+    model.setRotation(0);
+    assertThat(model.publish()).isTrue();
+  }
+
+  @Test
+  public void formatsLikeTheOldLabels() {
+    model.setFrame(640, 480, 12, 3, 5);
+    model.setInference(25, 40, 7, 2, 1500);
+    model.takeChanges(shown);
+
+    shown.appendFrameInfo(text);
+    assertThat(text.toString()).isEqualTo("640x480, 12ms old, 3 lost, 5 superseded");
+    text.setLength(0);
+    shown.appendInference(text);
+    assertThat(text.toString()).isEqualTo("25ms, 40% static, model on 7%, 2 faces at 1500us");
+
+    model.setFrame(640, 480, 0, 0, 0);
+    model.setInference(25, 40, 7, 1, 0);
+    model.takeChanges(shown);
+    text.setLength(0);
+    shown.appendFrameInfo(text);
+    assertThat(text.toString()).isEqualTo("640x480");
+    text.setLength(0);
+    shown.appendInference(text);
+    assertThat(text.toString()).isEqualTo("25ms, 40% static, model on 7%");
+  }
+
+  @Test
+  public void formatsConfidenceWithTwoDecimals() {
+    model.setResult(0, "Happy", 0.9876F);
+    model.setResult(1, "Neutral", 0.0105F);
+    model.setResult(2, "Sad", 0.0F);
+    model.takeChanges(shown);
+
+    shown.appendConfidence(0, text);
+    text.append(' ');
+    shown.appendConfidence(1, text);
+    text.append(' ');
+    shown.appendConfidence(2, text);
+    assertThat(text.toString()).isEqualTo("98.76% 1.05% 0.00%");
+    assertThat(shown.getTitle(0)).isEqualTo("Happy");
+  }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.classification;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import org.tensorflow.lite.examples.classification.FrameSource.Frame;
+
+public class LatestFrameSlotTest {
+  private static final long MS = 1_000_000L;
+
+  private final List<Frame> released = new ArrayList<>();
+
+  private Frame frame(long timestampNanos) {
+    Frame frame = new Frame();
+    frame.timestampNanos = timestampNanos;
+    frame.setReleaser(() -> released.add(frame));
+    return frame;
+  }
+
+  @Test
+  public void processesRightAwayWhenIdle() {
+    LatestFrameSlot slot = new LatestFrameSlot();
+    Frame first = frame(0);
+    assertThat(slot.offer(first, 0)).isSameInstanceAs(first);
+    assertThat(slot.next(10 * MS)).isNull();
+
+    Frame second = frame(33 * MS);
+    assertThat(slot.offer(second, 33 * MS)).isSameInstanceAs(second);
+    assertThat(released).isEmpty();
+  }
+
+  @Test
+  public void newestFrameReplacesWaitingOne() {
+    LatestFrameSlot slot = new LatestFrameSlot();
+    slot.offer(frame(0), 0);
+    Frame older = frame(33 * MS);
+    Frame newer = frame(66 * MS);
+
+    assertThat(slot.offer(older, 33 * MS)).isNull();
+    assertThat(slot.offer(newer, 66 * MS)).isNull();
+    // released as soon as it was superseded, not when the pipeline frees up
+    assertThat(released).containsExactly(older);
+    assertThat(slot.getSupersededFrames()).isEqualTo(1);
+
+    assertThat(slot.next(70 * MS)).isSameInstanceAs(newer);
+    assertThat(slot.next(90 * MS)).isNull();
+  }
+
+  @Test
+  public void averagesAgeAtDequeue() {
+    LatestFrameSlot slot = new LatestFrameSlot();
+    slot.offer(frame(0), 0);
+    assertThat(slot.getMeanAgeNanos()).isEqualTo(0);
+
+    slot.offer(frame(33 * MS), 33 * MS);
+    slot.next(43 * MS);
+    // first age 0, then 10 ms with a weight of 0.1
+    assertThat(slot.getMeanAgeNanos()).isEqualTo(1 * MS);
+  }
+
+  @Test
+  public void clearReleasesWaitingFrame() {
+    LatestFrameSlot slot = new LatestFrameSlot();
+    slot.offer(frame(0), 0);
+    Frame waiting = frame(33 * MS);
+    slot.offer(waiting, 33 * MS);
+
+    slot.clear();
+    assertThat(released).containsExactly(waiting);
+    assertThat(slot.next(40 * MS)).isNull();
+  }
+
+  @Test
+  public void frameAfterClearIsProcessedRightAway() {
+    LatestFrameSlot slot = new LatestFrameSlot();
+    // the pipeline stopped with this frame in flight and never called next()
+    slot.offer(frame(0), 0);
+
+    slot.clear();
+
+    Frame resumed = frame(1000 * MS);
+    assertThat(slot.offer(resumed, 1000 * MS)).isSameInstanceAs(resumed);
+  }
+}
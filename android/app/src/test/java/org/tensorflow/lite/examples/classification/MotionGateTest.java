@@ -0,0 +1,99 @@
+/*
+ * Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.classification;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.util.Arrays;
+import org.junit.Test;
+
+public class MotionGateTest {
+  // one sampled pixel per grid cell: 16 x 12 cells, sampled every 4th pixel
+  private static final int WIDTH = 64;
+  private static final int HEIGHT = 48;
+  private static final int MAX_SKIPPED = 5;
+
+  private final MotionGate gate = new MotionGate(MAX_SKIPPED);
+
+  private static byte[] frame(int luma) {
+    byte[] frame = new byte[WIDTH * HEIGHT];
+    Arrays.fill(frame, (byte) luma);
+    return frame;
+  }
+
+  private boolean accept(byte[] frame) {
+    return gate.accept(frame, WIDTH, HEIGHT, WIDTH);
+  }
+
+  @Test
+  public void firstFramePassesAndAStaticSceneIsSkipped() {
+    assertThat(accept(frame(100))).isTrue();
+    assertThat(accept(frame(100))).isFalse();
+    assertThat(gate.getSkippedFrames()).isEqualTo(1L);
+    assertThat(gate.getSkipRate()).isEqualTo(0.5F);
+  }
+
+  @Test
+  public void meanDifferenceAboveThresholdPasses() {
+    accept(frame(100));
+
+    // 3 levels everywhere is at the threshold, not above
+    assertThat(accept(frame(103))).isFalse();
+    assertThat(accept(frame(104))).isTrue();
+  }
+
+  @Test
+  public void slowDriftAddsUpAgainstTheLastPassedFrame() {
+    accept(frame(100));
+
+    assertThat(accept(frame(102))).isFalse();
+    assertThat(accept(frame(104))).isTrue();
+  }
+
+  @Test
+  public void singleCellAboveThresholdPasses() {
+    accept(frame(100));
+
+    byte[] frame = frame(100);
+    frame[0] = (byte) 112;
+    assertThat(accept(frame)).isFalse();
+    frame[0] = (byte) 113;
+    assertThat(accept(frame)).isTrue();
+  }
+
+  @Test
+  public void staticSceneIsRefreshedAfterMaxSkippedFrames() {
+    accept(frame(100));
+    for (int i = 0; i < MAX_SKIPPED; i++) {
+      assertThat(accept(frame(100))).isFalse();
+    }
+
+    assertThat(accept(frame(100))).isTrue();
+    assertThat(accept(frame(100))).isFalse();
+  }
+
+  @Test
+  public void resetForcesTheNextFrameThrough() {
+    accept(frame(100));
+    assertThat(accept(frame(100))).isFalse();
+
+    gate.reset();
+
+    assertThat(accept(frame(100))).isTrue();
+    assertThat(accept(frame(100))).isFalse();
+  }
+}
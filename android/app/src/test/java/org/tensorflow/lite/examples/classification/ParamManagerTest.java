@@ -0,0 +1,324 @@
+/*
+ * Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.classification;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import kotlin.Unit;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ParamManagerTest {
+  private static final long CRC = 0x89abcdefL;
+  private static final byte TOC = 0x20;
+  private static final byte READ = 0x21;
+  private static final byte WRITE = 0x22;
+  private static final int TYPE_FLOAT = 0x06;
+  private static final int TYPE_HALF = 0x05;
+  private static final int TYPE_UINT8 = 0x08;
+  private static final int TYPE_UINT16 = 0x09;
+  private static final int TYPE_INT16 = 0x01;
+
+  @Rule public final TemporaryFolder folder = new TemporaryFolder();
+
+  private final List<byte[]> sent = new ArrayList<>();
+  private long nowNanos = 0;
+  private File dir;
+
+  @Before
+  public void setUp() {
+    dir = folder.getRoot();
+  }
+
+  private ParamManager newManager() {
+    return new ParamManager(
+        new ParamTocCache(dir),
+        data -> {
+          sent.add(data);
+          return Unit.INSTANCE;
+        },
+        () -> nowNanos);
+  }
+
+  private static ByteBuffer packet(byte header, int size) {
+    return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN).put(header);
+  }
+
+  private static byte[] tocInfo(int count, long crc) {
+    return packet(TOC, 8).put((byte) 3).putShort((short) count).putInt((int) crc).array();
+  }
+
+  private static byte[] tocItem(int id, int type, String group, String name) {
+    byte[] groupBytes = group.getBytes(StandardCharsets.US_ASCII);
+    byte[] nameBytes = name.getBytes(StandardCharsets.US_ASCII);
+    return packet(TOC, 7 + groupBytes.length + nameBytes.length)
+        .put((byte) 2)
+        .putShort((short) id)
+        .put((byte) type)
+        .put(groupBytes)
+        .put((byte) 0)
+        .put(nameBytes)
+        .put((byte) 0)
+        .array();
+  }
+
+  private static byte[] readFloat(int id, float value) {
+    return packet(READ, 8).putShort((short) id).put((byte) 0).putFloat(value).array();
+  }
+
+  private static byte[] readHalf(int id, float value) {
+    return packet(READ, 6)
+        .putShort((short) id)
+        .put((byte) 0)
+        .putShort(ParamManager.Companion.floatToHalf(value))
+        .array();
+  }
+
+  private static byte[] writeAck(int id, float value) {
+    return packet(WRITE, 7).putShort((short) id).putFloat(value).array();
+  }
+
+  private static byte[] readRequest(int id) {
+    return new byte[] {READ, (byte) id, (byte) (id >> 8)};
+  }
+
+  private byte[] lastSent() {
+    return sent.get(sent.size() - 1);
+  }
+
+  /** Connects to a drone with an unknown TOC of pid.kp = 1.5 (float) and pid.ki = 0.25 (fp16). */
+  private ParamManager fetchAll() {
+    ParamManager params = newManager();
+    params.onLinkUp();
+    params.onPacket(tocInfo(2, CRC));
+    params.onPacket(tocItem(0, TYPE_FLOAT, "pid", "kp"));
+    params.onPacket(tocItem(1, TYPE_HALF, "pid", "ki"));
+    params.onPacket(readFloat(0, 1.5F));
+    params.onPacket(readHalf(1, 0.25F));
+    return params;
+  }
+
+  @Test
+  public void fetchesAnUnknownTocAndItsValues() {
+    ParamManager params = newManager();
+    params.onLinkUp();
+    assertThat(lastSent()).isEqualTo(new byte[] {TOC, 3});
+
+    params.onPacket(tocInfo(2, CRC));
+    assertThat(params.getState()).isEqualTo(ParamManager.State.FETCHING_TOC);
+    assertThat(lastSent()).isEqualTo(new byte[] {TOC, 2, 0, 0});
+    params.onPacket(tocItem(0, TYPE_FLOAT, "pid", "kp"));
+    assertThat(lastSent()).isEqualTo(new byte[] {TOC, 2, 1, 0});
+    params.onPacket(tocItem(1, TYPE_HALF, "pid", "ki"));
+
+    assertThat(params.getState()).isEqualTo(ParamManager.State.FETCHING_VALUES);
+    assertThat(lastSent()).isEqualTo(readRequest(0));
+    params.onPacket(readFloat(0, 1.5F));
+    assertThat(lastSent()).isEqualTo(readRequest(1));
+    params.onPacket(readHalf(1, 0.25F));
+
+    assertThat(params.getState()).isEqualTo(ParamManager.State.READY);
+    assertThat(params.get("pid.kp")).isEqualTo(1.5F);
+    assertThat(params.get("pid.ki")).isEqualTo(0.25F);
+    assertThat(params.get("pid.kd")).isNaN();
+  }
+
+  @Test
+  public void tocSurvivesTheCache() {
+    fetchAll();
+
+    ParamToc toc = new ParamTocCache(dir).loadToc(CRC);
+
+    assertThat(toc).isNotNull();
+    assertThat(toc.size()).isEqualTo(2);
+    ParamTocEntry ki = toc.getEntry("pid.ki");
+    assertThat(ki.getMId()).isEqualTo(1);
+    assertThat(ki.getMType()).isEqualTo(TYPE_HALF);
+    assertThat(ki.getValueSize()).isEqualTo(2);
+    assertThat(new ParamTocCache(dir).loadToc(CRC + 1)).isNull();
+  }
+
+  @Test
+  public void cachedTocIsReadyAtOnceWithoutReadingValues() {
+    fetchAll();
+    sent.clear();
+
+    // another session against the same firmware
+    ParamManager params = newManager();
+    params.onLinkUp();
+    params.onPacket(tocInfo(2, CRC));
+
+    assertThat(params.getState()).isEqualTo(ParamManager.State.READY);
+    assertThat(params.get("pid.kp")).isEqualTo(1.5F);
+    assertThat(params.get("pid.ki")).isEqualTo(0.25F);
+    assertThat(params.isFetchingValues()).isFalse();
+    // only the TOC info request
+    assertThat(sent).hasSize(1);
+  }
+
+  @Test
+  public void cachedTocReadsOnlyValuesItDoesNotHold() {
+    ParamManager first = newManager();
+    first.onLinkUp();
+    first.onPacket(tocInfo(2, CRC));
+    first.onPacket(tocItem(0, TYPE_FLOAT, "pid", "kp"));
+    first.onPacket(tocItem(1, TYPE_HALF, "pid", "ki"));
+    // the link drops before pid.ki is read
+    first.onPacket(readFloat(0, 1.5F));
+    first.onLinkDown();
+    sent.clear();
+
+    ParamManager params = newManager();
+    params.onLinkUp();
+    params.onPacket(tocInfo(2, CRC));
+
+    assertThat(params.getState()).isEqualTo(ParamManager.State.READY);
+    assertThat(params.isFetchingValues()).isTrue();
+    assertThat(lastSent()).isEqualTo(readRequest(1));
+    params.onPacket(readHalf(1, 0.25F));
+    assertThat(params.get("pid.ki")).isEqualTo(0.25F);
+    assertThat(params.isFetchingValues()).isFalse();
+    assertThat(sent).hasSize(2);
+  }
+
+  @Test
+  public void valueSetWhileDisconnectedIsWrittenOnConnect() {
+    ParamManager params = fetchAll();
+    params.onLinkDown();
+    sent.clear();
+
+    assertThat(params.set("pid.ki", 0.5F)).isTrue();
+    assertThat(sent).isEmpty();
+    params.onLinkUp();
+    params.onPacket(tocInfo(2, CRC));
+
+    byte[] half = new byte[] {WRITE, 1, 0, 0, 0x38};
+    assertThat(sent.get(1)).isEqualTo(half);
+    // read back before the write took effect, the local value wins
+    params.onPacket(readFloat(0, 1.5F));
+    params.onPacket(readHalf(1, 0.25F));
+    assertThat(params.get("pid.ki")).isEqualTo(0.5F);
+  }
+
+  @Test
+  public void resendsAnOverdueRequestThenGivesUp() {
+    ParamManager params = newManager();
+    params.onLinkUp();
+    byte[] request = lastSent();
+
+    nowNanos += ParamManager.REQUEST_TIMEOUT_NANOS - 1;
+    params.checkTimeout();
+    assertThat(sent).hasSize(1);
+
+    for (int i = 0; i < ParamManager.MAX_RETRIES; i++) {
+      nowNanos += ParamManager.REQUEST_TIMEOUT_NANOS;
+      params.checkTimeout();
+      assertThat(lastSent()).isSameInstanceAs(request);
+    }
+    assertThat(sent).hasSize(1 + ParamManager.MAX_RETRIES);
+    assertThat(params.getRetryCount()).isEqualTo((long) ParamManager.MAX_RETRIES);
+
+    nowNanos += ParamManager.REQUEST_TIMEOUT_NANOS;
+    params.checkTimeout();
+    assertThat(params.getState()).isEqualTo(ParamManager.State.IDLE);
+    assertThat(sent).hasSize(1 + ParamManager.MAX_RETRIES);
+  }
+
+  @Test
+  public void duplicateReplyToAResentReadIsIgnored() {
+    ParamManager params = newManager();
+    params.onLinkUp();
+    params.onPacket(tocInfo(2, CRC));
+    params.onPacket(tocItem(0, TYPE_FLOAT, "pid", "kp"));
+    params.onPacket(tocItem(1, TYPE_HALF, "pid", "ki"));
+    nowNanos += ParamManager.REQUEST_TIMEOUT_NANOS;
+    params.checkTimeout();
+    sent.clear();
+
+    // both the request and its resend are answered
+    params.onPacket(readFloat(0, 1.5F));
+    params.onPacket(readFloat(0, 1.5F));
+
+    assertThat(sent).hasSize(1);
+    assertThat(lastSent()).isEqualTo(readRequest(1));
+    assertThat(params.getState()).isEqualTo(ParamManager.State.FETCHING_VALUES);
+  }
+
+  @Test
+  public void unackedWriteIsResentUntilAcked() {
+    ParamManager params = fetchAll();
+    sent.clear();
+
+    params.set("pid.kp", 2.0F);
+    byte[] write = lastSent();
+    nowNanos += ParamManager.REQUEST_TIMEOUT_NANOS;
+    params.checkTimeout();
+    assertThat(sent).hasSize(2);
+    assertThat(lastSent()).isSameInstanceAs(write);
+
+    params.onPacket(writeAck(0, 2.0F));
+    nowNanos += ParamManager.REQUEST_TIMEOUT_NANOS;
+    params.checkTimeout();
+    assertThat(sent).hasSize(2);
+    assertThat(params.get("pid.kp")).isEqualTo(2.0F);
+  }
+
+  @Test
+  public void ackOfAnOlderWriteKeepsTheNewerValue() {
+    ParamManager params = fetchAll();
+    params.set("pid.kp", 2.0F);
+    params.set("pid.kp", 3.0F);
+    sent.clear();
+
+    params.onPacket(writeAck(0, 2.0F));
+    assertThat(params.get("pid.kp")).isEqualTo(3.0F);
+    // the newer write is still waiting for its ack
+    nowNanos += ParamManager.REQUEST_TIMEOUT_NANOS;
+    params.checkTimeout();
+    assertThat(sent).hasSize(1);
+
+    params.onPacket(writeAck(0, 3.0F));
+    assertThat(params.get("pid.kp")).isEqualTo(3.0F);
+  }
+
+  @Test
+  public void unsignedValuesAreNotSignExtended() {
+    ParamManager params = newManager();
+    params.onLinkUp();
+    params.onPacket(tocInfo(3, CRC));
+    params.onPacket(tocItem(0, TYPE_UINT8, "led", "bitmask"));
+    params.onPacket(tocItem(1, TYPE_UINT16, "motor", "ratio"));
+    params.onPacket(tocItem(2, TYPE_INT16, "motor", "offset"));
+    params.onPacket(packet(READ, 5).putShort((short) 0).put((byte) 0).put((byte) 0xff).array());
+    params.onPacket(
+        packet(READ, 6).putShort((short) 1).put((byte) 0).putShort((short) 0xfffe).array());
+    params.onPacket(
+        packet(READ, 6).putShort((short) 2).put((byte) 0).putShort((short) 0xfffe).array());
+
+    assertThat(params.get("led.bitmask")).isEqualTo(255F);
+    assertThat(params.get("motor.ratio")).isEqualTo(65534F);
+    assertThat(params.get("motor.offset")).isEqualTo(-2F);
+  }
+}
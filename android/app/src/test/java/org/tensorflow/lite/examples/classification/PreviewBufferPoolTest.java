@@ -0,0 +1,84 @@
+/*
+ * Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.classification;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.Test;
+
+public class PreviewBufferPoolTest {
+  private static final long PERIOD = 33_000_000L;
+
+  @Test
+  public void tracksOwnership() {
+    PreviewBufferPool pool = new PreviewBufferPool(3);
+    byte[][] buffers = pool.allocate(16, PERIOD);
+    assertThat(buffers).hasLength(3);
+    assertThat(pool.getCameraOwned()).isEqualTo(3);
+
+    assertThat(pool.onDelivered(buffers[0], 0)).isEqualTo(0);
+    assertThat(pool.getCameraOwned()).isEqualTo(2);
+    // delivered twice without being queued again
+    assertThat(pool.onDelivered(buffers[0], PERIOD)).isEqualTo(-1);
+    assertThat(pool.onDelivered(buffers[2], PERIOD)).isEqualTo(2);
+
+    assertThat(pool.onReturned(buffers[0])).isTrue();
+    assertThat(pool.onReturned(buffers[0])).isFalse();
+    assertThat(pool.getCameraOwned()).isEqualTo(2);
+  }
+
+  @Test
+  public void ignoresBuffersOfPreviousCamera() {
+    PreviewBufferPool pool = new PreviewBufferPool(2);
+    byte[][] old = pool.allocate(16, PERIOD);
+    pool.onDelivered(old[0], 0);
+    byte[][] buffers = pool.allocate(16, PERIOD);
+
+    assertThat(buffers[0]).isNotSameInstanceAs(old[0]);
+    assertThat(pool.onReturned(old[0])).isFalse();
+    assertThat(pool.onDelivered(old[1], PERIOD)).isEqualTo(-1);
+    assertThat(pool.getCameraOwned()).isEqualTo(2);
+  }
+
+  @Test
+  public void countsFramesLostWhileStarved() {
+    PreviewBufferPool pool = new PreviewBufferPool(1);
+    byte[] buffer = pool.allocate(16, PERIOD)[0];
+
+    pool.onDelivered(buffer, 0);
+    pool.onReturned(buffer);
+    // the only buffer came back after three and a bit periods: two frames had nowhere to go
+    pool.onDelivered(buffer, 3 * PERIOD + 1_000_000L);
+
+    assertThat(pool.getDroppedFrames()).isEqualTo(2);
+    assertThat(pool.getDeliveredFrames()).isEqualTo(2);
+  }
+
+  @Test
+  public void gapsWithASpareBufferAreNotDrops() {
+    PreviewBufferPool pool = new PreviewBufferPool(2);
+    byte[][] buffers = pool.allocate(16, PERIOD);
+
+    pool.onDelivered(buffers[0], 0);
+    // the camera still had a buffer, a slow frame is the sensor's doing
+    pool.onDelivered(buffers[1], 3 * PERIOD);
+    pool.onReturned(buffers[0]);
+    pool.onDelivered(buffers[0], 4 * PERIOD);
+
+    assertThat(pool.getDroppedFrames()).isEqualTo(0);
+  }
+}
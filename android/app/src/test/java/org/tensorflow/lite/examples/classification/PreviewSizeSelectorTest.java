@@ -0,0 +1,77 @@
+/*
+ * Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.classification;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.Test;
+
+public class PreviewSizeSelectorTest {
+  // a typical back camera list, in the descending order cameras tend to report it
+  private static final int[] WIDTHS = {1920, 1440, 1280, 960, 720, 640, 352, 320, 176};
+  private static final int[] HEIGHTS = {1080, 1080, 720, 720, 480, 480, 288, 240, 144};
+
+  private static PreviewSizeSelector selector(int minShortSide) {
+    return new PreviewSizeSelector(minShortSide, 640, 480);
+  }
+
+  @Test
+  public void imageModelTakesSmallestSizeCoveringInput() {
+    int minShortSide = PreviewSizeSelector.requiredShortSide(224, 224, false, 0.1F);
+    assertThat(minShortSide).isEqualTo(224);
+
+    int chosen = selector(minShortSide).select(WIDTHS, HEIGHTS);
+    assertThat(WIDTHS[chosen]).isEqualTo(320);
+    assertThat(HEIGHTS[chosen]).isEqualTo(240);
+  }
+
+  @Test
+  public void faceModelLeavesRoomForSmallFaces() {
+    // a 48 pixel face a tenth of the frame across
+    int minShortSide = PreviewSizeSelector.requiredShortSide(48, 48, true, 0.1F);
+    assertThat(minShortSide).isEqualTo(480);
+
+    int chosen = selector(minShortSide).select(WIDTHS, HEIGHTS);
+    assertThat(WIDTHS[chosen]).isEqualTo(640);
+    assertThat(HEIGHTS[chosen]).isEqualTo(480);
+  }
+
+  @Test
+  public void equalAreasGoToPreferredAspect() {
+    int[] widths = {1280, 960};
+    int[] heights = {720, 960};
+    assertThat(new PreviewSizeSelector(700, 16, 9).select(widths, heights)).isEqualTo(0);
+
+    // same pixel count, the 4:3 one wins for a 4:3 preference
+    int[] sameArea = {1200, 1600};
+    int[] sameAreaHeights = {1600, 1200};
+    assertThat(selector(0).select(sameArea, sameAreaHeights)).isEqualTo(1);
+  }
+
+  @Test
+  public void fallsBackToBiggestShortSide() {
+    int chosen = selector(2000).select(WIDTHS, HEIGHTS);
+    assertThat(HEIGHTS[chosen]).isEqualTo(1080);
+    // 1920x1080 and 1440x1080 tie on the short side, 1440x1080 is 4:3
+    assertThat(WIDTHS[chosen]).isEqualTo(1440);
+  }
+
+  @Test
+  public void noSizesGivesNoChoice() {
+    assertThat(selector(224).select(new int[0], new int[0])).isEqualTo(-1);
+  }
+}
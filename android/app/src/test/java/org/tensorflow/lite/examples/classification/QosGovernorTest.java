@@ -0,0 +1,100 @@
+/*
+ * Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.classification;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.Test;
+import org.tensorflow.lite.examples.classification.QosGovernor.OperatingPoint;
+import org.tensorflow.lite.examples.classification.tflite.Classifier.Device;
+import org.tensorflow.lite.examples.classification.tflite.Classifier.Model;
+
+public class QosGovernorTest {
+  private static final long BUDGET = 60_000_000L;
+  private static final long SLOW = 2 * BUDGET;
+  private static final long FAST = BUDGET / 4;
+
+  private static final OperatingPoint[] POINTS = {
+    new OperatingPoint(Model.EMOTION, Device.CPU, 1.0F, 4, true),
+    new OperatingPoint(Model.EMOTION, Device.CPU, 0.75F, 4, true),
+    new OperatingPoint(Model.EMOTION, Device.CPU, 0.5F, 2, true),
+  };
+
+  /** Feeds a whole window of one latency, returning how many calls reported a change. */
+  private static int feedWindow(QosGovernor governor, long latencyNanos) {
+    int changes = 0;
+    for (int i = 0; i < QosGovernor.WINDOW; i++) {
+      if (governor.onInference(latencyNanos)) {
+        changes++;
+        // a change only comes with the last latency of the window
+        assertThat(i).isEqualTo(QosGovernor.WINDOW - 1);
+      }
+    }
+    return changes;
+  }
+
+  @Test
+  public void stepsDownOncePerFullWindow() {
+    QosGovernor governor = new QosGovernor(POINTS, BUDGET);
+
+    assertThat(feedWindow(governor, SLOW)).isEqualTo(1);
+    assertThat(governor.getOperatingPoint()).isSameInstanceAs(POINTS[1]);
+    // the window started over, the slow latencies of the previous point don't count
+    assertThat(feedWindow(governor, SLOW)).isEqualTo(1);
+    assertThat(governor.getOperatingPoint()).isSameInstanceAs(POINTS[2]);
+    // nothing cheaper left
+    assertThat(feedWindow(governor, SLOW)).isEqualTo(0);
+  }
+
+  @Test
+  public void windowResetsAfterChange() {
+    QosGovernor governor = new QosGovernor(POINTS, BUDGET);
+    feedWindow(governor, SLOW);
+
+    // a single fast latency after the change must not step back up
+    for (int i = 0; i < QosGovernor.WINDOW - 1; i++) {
+      assertThat(governor.onInference(FAST)).isFalse();
+    }
+    assertThat(governor.onInference(FAST)).isTrue();
+    assertThat(governor.getOperatingPoint()).isSameInstanceAs(POINTS[0]);
+  }
+
+  @Test
+  public void holdsBetweenThresholds() {
+    QosGovernor governor = new QosGovernor(POINTS, BUDGET);
+    feedWindow(governor, SLOW);
+
+    // under budget but above the step up fraction
+    assertThat(feedWindow(governor, (long) (0.8 * BUDGET))).isEqualTo(0);
+    assertThat(governor.getOperatingPoint()).isSameInstanceAs(POINTS[1]);
+  }
+
+  @Test
+  public void disabledAndReplacedPointsStartOver() {
+    QosGovernor governor = new QosGovernor(POINTS, BUDGET);
+    governor.setEnabled(false);
+    assertThat(feedWindow(governor, SLOW)).isEqualTo(0);
+
+    governor.setEnabled(true);
+    feedWindow(governor, SLOW);
+    OperatingPoint[] others = {
+      new OperatingPoint(Model.QUANTIZED_MOBILENET, Device.GPU, 1.0F, 1, true),
+    };
+    governor.setOperatingPoints(others);
+    assertThat(governor.getOperatingPoint()).isSameInstanceAs(others[0]);
+  }
+}
@@ -0,0 +1,82 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.classification.customview;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.Test;
+
+public class BoxInterpolatorTest {
+  private static final long MS = 1_000_000L;
+
+  @Test
+  public void firstBoxAppearsInPlace() {
+    BoxInterpolator interpolator = new BoxInterpolator();
+    interpolator.update(0, 10, 20, 30, 40);
+
+    assertThat(interpolator.sample(0)).isFalse();
+    assertThat(interpolator.getLeft()).isEqualTo(10F);
+    assertThat(interpolator.getBottom()).isEqualTo(40F);
+  }
+
+  @Test
+  public void movesOverTheUpdateInterval() {
+    BoxInterpolator interpolator = new BoxInterpolator();
+    interpolator.update(0, 0, 0, 100, 100);
+    interpolator.update(100 * MS, 100, 0, 200, 100);
+    assertThat(interpolator.getDurationNanos()).isEqualTo(100 * MS);
+
+    // halfway through the move at display rate
+    assertThat(interpolator.sample(150 * MS)).isTrue();
+    assertThat(interpolator.getLeft()).isWithin(1e-3F).of(50F);
+    assertThat(interpolator.getRight()).isWithin(1e-3F).of(150F);
+
+    assertThat(interpolator.sample(200 * MS)).isFalse();
+    assertThat(interpolator.getLeft()).isEqualTo(100F);
+  }
+
+  @Test
+  public void newUpdateStartsFromShownBox() {
+    BoxInterpolator interpolator = new BoxInterpolator();
+    interpolator.update(0, 0, 0, 100, 100);
+    interpolator.update(100 * MS, 100, 0, 200, 100);
+    // arrives halfway through the previous move, the box does not jump
+    interpolator.update(150 * MS, 100, 0, 200, 100);
+
+    interpolator.sample(150 * MS);
+    assertThat(interpolator.getLeft()).isWithin(1e-3F).of(50F);
+  }
+
+  @Test
+  public void lostFaceReappearsInPlace() {
+    BoxInterpolator interpolator = new BoxInterpolator();
+    interpolator.update(0, 0, 0, 100, 100);
+    interpolator.update(2000 * MS, 300, 300, 400, 400);
+
+    assertThat(interpolator.sample(2000 * MS)).isFalse();
+    assertThat(interpolator.getLeft()).isEqualTo(300F);
+  }
+
+  @Test
+  public void clearedHasNoBox() {
+    BoxInterpolator interpolator = new BoxInterpolator();
+    interpolator.update(0, 0, 0, 100, 100);
+    interpolator.clear();
+
+    assertThat(interpolator.hasBox()).isFalse();
+    assertThat(interpolator.sample(0)).isFalse();
+  }
+}
@@ -15,51 +15,54 @@ limitations under the License.
 
 package org.tensorflow.lite.examples.classification.tflite;
 
+import static java.lang.Math.max;
 import static java.lang.Math.min;
 
 import android.app.Activity;
 import android.graphics.Bitmap;
+import android.graphics.Rect;
 import android.graphics.RectF;
 import android.os.SystemClock;
 import android.os.Trace;
 import android.util.Log;
 
+import java.io.Closeable;
 import java.io.IOException;
-import java.nio.MappedByteBuffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.ArrayList;
-import java.util.Comparator;
 import java.util.List;
-import java.util.Map;
-import java.util.PriorityQueue;
 import org.tensorflow.lite.DataType;
 import org.tensorflow.lite.Interpreter;
+import org.tensorflow.lite.Tensor;
 import org.tensorflow.lite.examples.classification.tflite.Classifier.Device;
 import org.tensorflow.lite.gpu.CompatibilityList;
 import org.tensorflow.lite.gpu.GpuDelegate;
 import org.tensorflow.lite.nnapi.NnApiDelegate;
-import org.tensorflow.lite.support.common.FileUtil;
-import org.tensorflow.lite.support.common.TensorOperator;
-import org.tensorflow.lite.support.common.TensorProcessor;
+import org.tensorflow.lite.support.common.ops.NormalizeOp;
 import org.tensorflow.lite.support.image.ImageProcessor;
 import org.tensorflow.lite.support.image.TensorImage;
 import org.tensorflow.lite.support.image.ops.ResizeOp;
 import org.tensorflow.lite.support.image.ops.ResizeOp.ResizeMethod;
 import org.tensorflow.lite.support.image.ops.ResizeWithCropOrPadOp;
 import org.tensorflow.lite.support.image.ops.Rot90Op;
-import org.tensorflow.lite.support.label.TensorLabel;
 import org.tensorflow.lite.support.tensorbuffer.TensorBuffer;
 
-/** A classifier specialized to label images using TensorFlow Lite. */
-public abstract class Classifier {
+/**
+ * A classifier specialized to label images using TensorFlow Lite. The model file, labels and
+ * normalization come from a {@link ModelDescriptor} of the {@link ModelRegistry}.
+ */
+public class Classifier implements Closeable {
   public static final String TAG = "ClassifierWithSupport";
 
-  /** The model type used for classification. */
+  /** The models shipped with the app; their names match the entries of {@code models.json}. */
   public enum Model {
     FLOAT_MOBILENET,
     QUANTIZED_MOBILENET,
     FLOAT_EFFICIENTNET,
     QUANTIZED_EFFICIENTNET,
-    EMOTION
+    EMOTION,
+    EMOTION_QUANTIZED
   }
 
   /** The runtime device type used for executing classification. */
@@ -72,7 +75,8 @@ public abstract class Classifier {
   /** Number of results to show in the UI. */
   private static final int MAX_RESULTS = 3;
 
-  /** The loaded TensorFlow Lite model. */
+  /** Describes the loaded TensorFlow Lite model. */
+  private final ModelDescriptor descriptor;
 
   /** Image size along the x axis. */
   private final int imageSizeX;
@@ -101,8 +105,43 @@ public abstract class Classifier {
   /** Output probability TensorBuffer. */
   private final TensorBuffer outputProbabilityBuffer;
 
-  /** Processer to apply post processing of the output probability. */
-  private final TensorProcessor probabilityProcessor;
+  /** Whether float scores need normalizing, false if the output normalization is the identity. */
+  private final boolean normalizeOutput;
+
+  /** Float scores of the last inference, reused across frames. */
+  private final float[] outputScores;
+
+  /** Input normalization, null if it is the identity and can be skipped. */
+  private final NormalizeOp inputNormalizeOp;
+
+  /** Preprocessing of bitmaps, rebuilt only when the crop or rotation changes. */
+  private ImageProcessor imageProcessor;
+  private int imageProcessorCropSize = -1;
+  private int imageProcessorRotation = -1;
+
+  /** Input tensor filled straight from luma bytes, null unless the model takes gray images. */
+  private final ByteBuffer lumaInput;
+
+  /** Whether the input tensor is uint8, so luma bytes are copied without normalization. */
+  private final boolean quantizedInput;
+
+  /** Whether the output tensor is uint8; only the winning scores are dequantized. */
+  private final boolean quantizedOutput;
+
+  /** Quantization of a uint8 output tensor, {@code score = scale * (q - zeroPoint)}. */
+  private final float outputScale;
+  private final float outputZeroPoint;
+
+  /** Scratch for feeding bitmaps to gray models, reused while the bitmap size is stable. */
+  private int[] bitmapPixels;
+  private byte[] bitmapLuma;
+  private final Rect bitmapRoi = new Rect();
+
+  /** Time of the last {@code tflite.run}. */
+  private long lastInferenceNanos = 0;
+
+  /** Zero input of {@link #benchmarkInference}, allocated on first use. */
+  private ByteBuffer benchmarkInput;
 
   /**
    * Creates a classifier with the provided configuration.
@@ -115,19 +154,28 @@ public abstract class Classifier {
    */
   public static Classifier create(Activity activity, Model model, Device device, int numThreads)
       throws IOException {
-    if (model == Model.QUANTIZED_MOBILENET) {
-      return new ClassifierQuantizedMobileNet(activity, device, numThreads);
-    } else if (model == Model.FLOAT_MOBILENET) {
-      return new ClassifierFloatMobileNet(activity, device, numThreads);
-    } else if (model == Model.FLOAT_EFFICIENTNET) {
-      return new ClassifierFloatEfficientNet(activity, device, numThreads);
-    } else if (model == Model.QUANTIZED_EFFICIENTNET) {
-      return new ClassifierQuantizedEfficientNet(activity, device, numThreads);
-    } else if (model == Model.EMOTION) {
-      return new ClassifierEmotion(activity, device, numThreads);
-    } else {
-      throw new UnsupportedOperationException();
-    }
+    return create(activity, model.name(), device, numThreads, false);
+  }
+
+  /**
+   * Creates a classifier with the provided configuration. There is no face detector in this
+   * library, so {@code landmarks} is ignored; it exists to keep the API of both libraries the same.
+   */
+  public static Classifier create(
+      Activity activity, Model model, Device device, int numThreads, boolean landmarks)
+      throws IOException {
+    return create(activity, model.name(), device, numThreads, landmarks);
+  }
+
+  /**
+   * Creates a classifier for a model of the {@link ModelRegistry}, including variants that are
+   * only listed in {@code models.json}.
+   */
+  public static Classifier create(
+      Activity activity, String modelName, Device device, int numThreads, boolean landmarks)
+      throws IOException {
+    ModelDescriptor descriptor = ModelRegistry.get(activity).getDescriptor(modelName);
+    return new Classifier(activity, descriptor, device, numThreads);
   }
 
   /** An immutable result returned by a Classifier describing what was recognized. */
@@ -201,8 +249,12 @@ public abstract class Classifier {
   }
 
   /** Initializes a {@code Classifier}. */
-  protected Classifier(Activity activity, Device device, int numThreads) throws IOException {
-    MappedByteBuffer tfliteModel = FileUtil.loadMappedFile(activity, getModelPath());
+  protected Classifier(
+      Activity activity, ModelDescriptor descriptor, Device device, int numThreads)
+      throws IOException {
+    this.descriptor = descriptor;
+    ModelRegistry registry = ModelRegistry.get(activity);
+    ByteBuffer tfliteModel = registry.getModel(descriptor);
     switch (device) {
       case NNAPI:
         nnApiDelegate = new NnApiDelegate();
@@ -213,7 +265,7 @@ public abstract class Classifier {
         if(compatList.isDelegateSupportedOnThisDevice()){
           // if the device has a supported GPU, add the GPU delegate
           GpuDelegate.Options delegateOptions = compatList.getBestOptionsForThisDevice();
-          GpuDelegate gpuDelegate = new GpuDelegate(delegateOptions);
+          gpuDelegate = new GpuDelegate(delegateOptions);
           tfliteOptions.addDelegate(gpuDelegate);
           Log.d(TAG, "GPU supported. GPU delegate created and added to options");
         } else {
@@ -230,7 +282,7 @@ public abstract class Classifier {
     tflite = new Interpreter(tfliteModel, tfliteOptions);
 
     // Loads labels out from the label file.
-    labels = FileUtil.loadLabels(activity, getLabelPath());
+    labels = registry.getLabels(descriptor);
 
     // Reads type and shape of input and output tensors, respectively.
     int imageTensorIndex = 0;
@@ -249,14 +301,58 @@ public abstract class Classifier {
     // Creates the output tensor and its processor.
     outputProbabilityBuffer = TensorBuffer.createFixedSize(probabilityShape, probabilityDataType);
 
-    // Creates the post processor for the output probability.
-    probabilityProcessor = new TensorProcessor.Builder().add(getPostprocessNormalizeOp()).build();
+    // Normalization with mean 0 and std 1 is the identity, so it is left out of the pipeline.
+    inputNormalizeOp =
+        isIdentity(descriptor.inputMean, descriptor.inputStd)
+            ? null
+            : new NormalizeOp(descriptor.inputMean, descriptor.inputStd);
+    normalizeOutput = !isIdentity(descriptor.outputMean, descriptor.outputStd);
+
+    quantizedInput = imageDataType == DataType.UINT8;
+    if (descriptor.inputLayout == ModelDescriptor.InputLayout.NHWC_GRAY) {
+      lumaInput =
+          ByteBuffer.allocateDirect(imageSizeX * imageSizeY * (quantizedInput ? 1 : 4))
+              .order(ByteOrder.nativeOrder());
+    } else {
+      lumaInput = null;
+    }
+    quantizedOutput = probabilityDataType == DataType.UINT8;
+    Tensor.QuantizationParams outputQuantization =
+        tflite.getOutputTensor(probabilityTensorIndex).quantizationParams();
+    if (quantizedOutput && outputQuantization.getScale() > 0) {
+      outputScale = outputQuantization.getScale();
+      outputZeroPoint = outputQuantization.getZeroPoint();
+    } else {
+      // no quantization in the model file, dequantize with the descriptor's output normalization
+      outputScale = 1.0f / descriptor.outputStd;
+      outputZeroPoint = descriptor.outputMean;
+    }
+    outputScores = quantizedOutput ? null : new float[outputProbabilityBuffer.getFlatSize()];
 
     Log.d(TAG, "Created a Tensorflow Lite Image Classifier.");
   }
 
   /** Runs inference and returns the classification results. */
   public List<Recognition> recognizeImage(final Bitmap bitmap, int sensorOrientation) {
+    EmotionResultPool pool = new EmotionResultPool(MAX_RESULTS);
+    List<EmotionResult> results = new ArrayList<>(MAX_RESULTS);
+    recognize(bitmap, sensorOrientation, pool, results);
+    List<Recognition> recognitions = toRecognitions(results);
+    pool.releaseAll(results);
+    return recognitions;
+  }
+
+  /**
+   * Runs inference and appends the top results, best first, to {@code out}. The results are
+   * taken from {@code pool} and must be released back to it by the caller.
+   *
+   * @return The number of results added.
+   */
+  public int recognize(
+      final Bitmap bitmap, int sensorOrientation, EmotionResultPool pool, List<EmotionResult> out) {
+    if (lumaInput != null) {
+      return recognizeBitmapLuma(bitmap, sensorOrientation, pool, out);
+    }
     // Logs this method so that it can be analyzed with systrace.
     Trace.beginSection("recognizeImage");
 
@@ -270,22 +366,232 @@ public abstract class Classifier {
     // Runs the inference call.
     Trace.beginSection("runInference");
     long startTimeForReference = SystemClock.uptimeMillis();
+    long startNanos = SystemClock.elapsedRealtimeNanos();
     tflite.run(inputImageBuffer.getBuffer(), outputProbabilityBuffer.getBuffer().rewind());
+    lastInferenceNanos = SystemClock.elapsedRealtimeNanos() - startNanos;
     long endTimeForReference = SystemClock.uptimeMillis();
     Trace.endSection();
     Log.v(TAG, "Timecost to run model inference: " + (endTimeForReference - startTimeForReference));
 
-    // Gets the map of label and probability.
-    Map<String, Float> labeledProbability =
-        new TensorLabel(labels, probabilityProcessor.process(outputProbabilityBuffer))
-            .getMapWithFloatValue();
     Trace.endSection();
 
     // Gets top-k results.
-    return getTopKProbability(labeledProbability);
+    return getTopK(pool, out);
+  }
+
+  /**
+   * Not supported by this library, the call has no effect. Multi-face mode needs a face detector,
+   * which this library does not have, so the whole input is always classified as one. It exists
+   * to keep the API of both libraries the same.
+   */
+  public void setMultiFace(boolean multiFace) {}
+
+  /**
+   * Not supported by this library, the call has no effect. The smile cascade needs the smile
+   * probabilities of a face detector, which this library does not have, so the model classifies
+   * every input, see {@link #getCascadeModelRate()}. It exists to keep the API of both libraries
+   * the same.
+   */
+  public void setCascadeBand(float low, float high) {}
+
+  /** Fraction of faces the model had to classify; every input goes through it here. */
+  public float getCascadeModelRate() {
+    return 1f;
+  }
+
+  /**
+   * Face crops are only taken by the face detector of the task library, so this is ignored; use
+   * {@link #recognizeLuma} to classify luma directly. It exists to keep the API of both libraries
+   * the same.
+   */
+  public void setLumaFrame(byte[] luma, int width, int height, int rowStride) {}
+
+  /** Time of the last inference. */
+  public long getLastInferenceNanos() {
+    return lastInferenceNanos;
+  }
+
+  /** Number of faces classified by the last batched inference, always 0 in this library. */
+  public int getLastBatchSize() {
+    return 0;
+  }
+
+  /**
+   * Runs the model once on a zero input, without preprocessing, so a configuration can be timed
+   * without a camera frame.
+   *
+   * @return The inference time.
+   */
+  public long benchmarkInference() {
+    if (benchmarkInput == null) {
+      benchmarkInput =
+          ByteBuffer.allocateDirect(tflite.getInputTensor(0).numBytes())
+              .order(ByteOrder.nativeOrder());
+    }
+    benchmarkInput.rewind();
+    long start = SystemClock.elapsedRealtimeNanos();
+    tflite.run(benchmarkInput, outputProbabilityBuffer.getBuffer().rewind());
+    return SystemClock.elapsedRealtimeNanos() - start;
+  }
+
+  /** Whether the model takes gray images, so {@link #recognizeLuma} can be used. */
+  public boolean supportsLuma() {
+    return lumaInput != null;
+  }
+
+  /**
+   * Runs inference on a region of a luma plane, e.g. the Y plane of a camera frame, and appends
+   * the top results, best first, to {@code out}. The region is resized with nearest neighbor
+   * sampling straight into the input tensor; for uint8 models the bytes are copied as they are.
+   * The results are taken from {@code pool} and must be released back to it by the caller.
+   *
+   * @param luma Luma plane, one byte per pixel.
+   * @param width Width of the frame in pixels, at most {@code rowStride}.
+   * @param height Height of the frame in pixels; the plane may hold padding after its last row.
+   * @param rowStride Bytes per row of {@code luma}.
+   * @param roi Region to classify, usually a face.
+   * @param sensorOrientation Rotation of the frame in degrees, a multiple of 90.
+   * @return The number of results added, 0 if the model does not take gray images, see {@link
+   *     #supportsLuma()}.
+   */
+  public int recognizeLuma(
+      byte[] luma,
+      int width,
+      int height,
+      int rowStride,
+      Rect roi,
+      int sensorOrientation,
+      EmotionResultPool pool,
+      List<EmotionResult> out) {
+    if (lumaInput == null) {
+      return 0;
+    }
+    Trace.beginSection("recognizeLuma");
+    try {
+      Trace.beginSection("loadLuma");
+      writeLuma(luma, width, height, rowStride, roi, sensorOrientation / 90);
+      Trace.endSection();
+
+      Trace.beginSection("runInference");
+      long startTimeForReference = SystemClock.uptimeMillis();
+      long startNanos = SystemClock.elapsedRealtimeNanos();
+      tflite.run(lumaInput, outputProbabilityBuffer.getBuffer().rewind());
+      lastInferenceNanos = SystemClock.elapsedRealtimeNanos() - startNanos;
+      long endTimeForReference = SystemClock.uptimeMillis();
+      Trace.endSection();
+      Log.v(
+          TAG, "Timecost to run model inference: " + (endTimeForReference - startTimeForReference));
+
+      return getTopK(pool, out);
+    } finally {
+      Trace.endSection();
+    }
+  }
+
+  /** Feeds a bitmap to a gray model through its luma, using the centered square as region. */
+  private int recognizeBitmapLuma(
+      Bitmap bitmap, int sensorOrientation, EmotionResultPool pool, List<EmotionResult> out) {
+    int width = bitmap.getWidth();
+    int height = bitmap.getHeight();
+    if (bitmapPixels == null || bitmapPixels.length != width * height) {
+      bitmapPixels = new int[width * height];
+      bitmapLuma = new byte[width * height];
+    }
+    bitmap.getPixels(bitmapPixels, 0, width, 0, 0, width, height);
+    for (int i = 0; i < bitmapPixels.length; i++) {
+      int pixel = bitmapPixels[i];
+      // BT.601 luma in fixed point, the same weights the camera uses for its Y plane
+      int y =
+          (77 * ((pixel >> 16) & 0xff) + 150 * ((pixel >> 8) & 0xff) + 29 * (pixel & 0xff)) >> 8;
+      bitmapLuma[i] = (byte) y;
+    }
+    int cropSize = min(width, height);
+    bitmapRoi.set(
+        (width - cropSize) / 2,
+        (height - cropSize) / 2,
+        (width + cropSize) / 2,
+        (height + cropSize) / 2);
+    return recognizeLuma(
+        bitmapLuma, width, height, width, bitmapRoi, sensorOrientation, pool, out);
+  }
+
+  /**
+   * Samples the region into {@link #lumaInput}, rotated counter-clockwise by {@code numRotation}
+   * quarter turns like {@link Rot90Op}. Samples falling outside the frame are clamped to its edge.
+   */
+  private void writeLuma(
+      byte[] luma, int width, int height, int rowStride, Rect roi, int numRotation) {
+    lumaInput.rewind();
+    int roiWidth = roi.width();
+    int roiHeight = roi.height();
+    float mean = descriptor.inputMean;
+    float std = descriptor.inputStd;
+    for (int oy = 0; oy < imageSizeY; oy++) {
+      for (int ox = 0; ox < imageSizeX; ox++) {
+        // position in the rotated output, in units of the region
+        float u = (ox + 0.5f) / imageSizeX;
+        float v = (oy + 0.5f) / imageSizeY;
+        float su;
+        float sv;
+        switch (numRotation & 3) {
+          case 1:
+            su = 1 - v;
+            sv = u;
+            break;
+          case 2:
+            su = 1 - u;
+            sv = 1 - v;
+            break;
+          case 3:
+            su = v;
+            sv = 1 - u;
+            break;
+          default:
+            su = u;
+            sv = v;
+            break;
+        }
+        int sx = roi.left + min((int) (su * roiWidth), roiWidth - 1);
+        int sy = roi.top + min((int) (sv * roiHeight), roiHeight - 1);
+        sx = max(0, min(sx, width - 1));
+        sy = max(0, min(sy, height - 1));
+        byte value = luma[sy * rowStride + sx];
+        if (quantizedInput) {
+          lumaInput.put(value);
+        } else {
+          lumaInput.putFloat(((value & 0xff) - mean) / std);
+        }
+      }
+    }
+    lumaInput.rewind();
+  }
+
+  /** Gets the label of a class index. */
+  public String getLabel(int classId) {
+    return classId >= 0 && classId < labels.size() ? labels.get(classId) : null;
+  }
+
+  /** Converts a result into a {@link Recognition} for display. */
+  public Recognition toRecognition(EmotionResult result) {
+    String label = getLabel(result.classId);
+    RectF location =
+        result.hasLocation
+            ? new RectF(result.left, result.top, result.right, result.bottom)
+            : null;
+    return new Recognition("" + label, label, result.score, location);
+  }
+
+  /** Converts results into {@link Recognition}s for display. */
+  public List<Recognition> toRecognitions(List<EmotionResult> results) {
+    final ArrayList<Recognition> recognitions = new ArrayList<>(results.size());
+    for (int i = 0; i < results.size(); i++) {
+      recognitions.add(toRecognition(results.get(i)));
+    }
+    return recognitions;
   }
 
   /** Closes the interpreter and model to release resources. */
+  @Override
   public void close() {
     if (tflite != null) {
       tflite.close();
@@ -301,6 +607,11 @@ public abstract class Classifier {
     }
   }
 
+  /** Gets the descriptor of the loaded model. */
+  public ModelDescriptor getDescriptor() {
+    return descriptor;
+  }
+
   /** Get the image size along the x axis. */
   public int getImageSizeX() {
     return imageSizeX;
@@ -316,65 +627,139 @@ public abstract class Classifier {
     // Loads bitmap into a TensorImage.
     inputImageBuffer.load(bitmap);
 
-    // Creates processor for the TensorImage.
+    // Creates processor for the TensorImage, only when the frame geometry changed.
     int cropSize = min(bitmap.getWidth(), bitmap.getHeight());
     int numRotation = sensorOrientation / 90;
-    // TODO(b/143564309): Fuse ops inside ImageProcessor.
-    ImageProcessor imageProcessor =
-        new ImageProcessor.Builder()
-            .add(new ResizeWithCropOrPadOp(cropSize, cropSize))
-            // TODO(b/169379396): investigate the impact of the resize algorithm on accuracy.
-            // To get the same inference results as lib_task_api, which is built on top of the Task
-            // Library, use ResizeMethod.BILINEAR.
-            .add(new ResizeOp(imageSizeX, imageSizeY, ResizeMethod.NEAREST_NEIGHBOR))
-            .add(new Rot90Op(numRotation))
-            .add(getPreprocessNormalizeOp())
-            .build();
+    if (imageProcessor == null
+        || imageProcessorCropSize != cropSize
+        || imageProcessorRotation != numRotation) {
+      imageProcessor = createImageProcessor(bitmap.getWidth(), bitmap.getHeight(), numRotation);
+      imageProcessorCropSize = cropSize;
+      imageProcessorRotation = numRotation;
+    }
     return imageProcessor.process(inputImageBuffer);
   }
 
-  /** Gets the top-k results. */
-  private static List<Recognition> getTopKProbability(Map<String, Float> labelProb) {
-    // Find the best classifications.
-    PriorityQueue<Recognition> pq =
-        new PriorityQueue<>(
-            MAX_RESULTS,
-            new Comparator<Recognition>() {
-              @Override
-              public int compare(Recognition lhs, Recognition rhs) {
-                // Intentionally reversed to put high confidence at the head of the queue.
-                return Float.compare(rhs.getConfidence(), lhs.getConfidence());
-              }
-            });
-
-    for (Map.Entry<String, Float> entry : labelProb.entrySet()) {
-      pq.add(new Recognition("" + entry.getKey(), entry.getKey(), entry.getValue(), null));
+  /** Builds the preprocessing for frames of the given size, leaving out ops that do nothing. */
+  private ImageProcessor createImageProcessor(int width, int height, int numRotation) {
+    int cropSize = min(width, height);
+    // TODO(b/143564309): Fuse ops inside ImageProcessor.
+    ImageProcessor.Builder builder = new ImageProcessor.Builder();
+    if (width != height) {
+      builder.add(new ResizeWithCropOrPadOp(cropSize, cropSize));
     }
-
-    final ArrayList<Recognition> recognitions = new ArrayList<>();
-    int recognitionsSize = min(pq.size(), MAX_RESULTS);
-    for (int i = 0; i < recognitionsSize; ++i) {
-      recognitions.add(pq.poll());
+    // TODO(b/169379396): investigate the impact of the resize algorithm on accuracy.
+    // To get the same inference results as lib_task_api, which is built on top of the Task
+    // Library, use ResizeMethod.BILINEAR.
+    builder.add(new ResizeOp(imageSizeX, imageSizeY, ResizeMethod.NEAREST_NEIGHBOR));
+    if (numRotation % 4 != 0) {
+      builder.add(new Rot90Op(numRotation));
     }
-    return recognitions;
+    if (inputNormalizeOp != null) {
+      builder.add(inputNormalizeOp);
+    }
+    return builder.build();
   }
 
-  /** Gets the name of the model file stored in Assets. */
-  protected abstract String getModelPath();
-
-  /** Gets the name of the label file stored in Assets. */
-  protected abstract String getLabelPath();
+  private static boolean isIdentity(float mean, float std) {
+    return mean == 0.0f && std == 1.0f;
+  }
 
-  /** Gets the TensorOperator to nomalize the input image in preprocessing. */
-  protected abstract TensorOperator getPreprocessNormalizeOp();
+  /**
+   * Gets the top-k results of the last inference. Quantized outputs stay uint8 until the winners
+   * are known; float outputs are read into a reused array and normalized only if needed.
+   */
+  private int getTopK(EmotionResultPool pool, List<EmotionResult> out) {
+    ByteBuffer output = outputProbabilityBuffer.getBuffer();
+    if (quantizedOutput) {
+      return getTopKQuantized(output, pool, out);
+    }
+    for (int i = 0; i < outputScores.length; i++) {
+      outputScores[i] = output.getFloat(i * 4);
+    }
+    if (normalizeOutput) {
+      float mean = descriptor.outputMean;
+      float std = descriptor.outputStd;
+      for (int i = 0; i < outputScores.length; i++) {
+        outputScores[i] = (outputScores[i] - mean) / std;
+      }
+    }
+    return getTopKProbability(outputScores, pool, out);
+  }
 
   /**
-   * Gets the TensorOperator to dequantize the output probability in post processing.
-   *
-   * <p>For quantized model, we need de-quantize the prediction with NormalizeOp (as they are all
-   * essentially linear transformation). For float model, de-quantize is not required. But to
-   * uniform the API, de-quantize is added to float model too. Mean and std are set to 0.0f and
-   * 1.0f, respectively.
+   * Gets the top-k results of a uint8 output. Ranking works on the raw bytes since dequantization
+   * keeps the order, so only the reported scores are converted.
    */
-  protected abstract TensorOperator getPostprocessNormalizeOp();
+  private int getTopKQuantized(
+      ByteBuffer scores, EmotionResultPool pool, List<EmotionResult> out) {
+    int numClasses = scores.limit();
+    int count = min(numClasses, MAX_RESULTS);
+    int previous = Integer.MAX_VALUE;
+    int previousIndex = -1;
+    for (int k = 0; k < count; ++k) {
+      int best = -1;
+      int bestValue = -1;
+      for (int i = 0; i < numClasses; ++i) {
+        int q = scores.get(i) & 0xff;
+        boolean after = q < previous || (q == previous && i > previousIndex);
+        if (after && q > bestValue) {
+          best = i;
+          bestValue = q;
+        }
+      }
+      if (best < 0) {
+        return k;
+      }
+      EmotionResult result = pool.acquire();
+      result.classId = best;
+      result.score = outputScale * (bestValue - outputZeroPoint);
+      if (k == 0 && numClasses == EmotionResult.NUM_CLASSES) {
+        // emotion model: keep the full vector for temporal aggregation
+        for (int i = 0; i < numClasses; ++i) {
+          result.probabilities[i] = outputScale * ((scores.get(i) & 0xff) - outputZeroPoint);
+        }
+        result.hasProbabilities = true;
+      }
+      out.add(result);
+      previous = bestValue;
+      previousIndex = best;
+    }
+    return count;
+  }
+
+  /** Gets the top-k results. */
+  private static int getTopKProbability(
+      float[] probabilities, EmotionResultPool pool, List<EmotionResult> out) {
+    // A few passes over the scores beat sorting every label for such a small k.
+    int count = min(probabilities.length, MAX_RESULTS);
+    float previous = Float.POSITIVE_INFINITY;
+    int previousIndex = -1;
+    for (int k = 0; k < count; ++k) {
+      int best = -1;
+      for (int i = 0; i < probabilities.length; ++i) {
+        float p = probabilities[i];
+        // Only consider scores ranked after the previous pick, ties broken by index.
+        boolean after = p < previous || (p == previous && i > previousIndex);
+        if (after && (best < 0 || p > probabilities[best])) {
+          best = i;
+        }
+      }
+      if (best < 0) {
+        return k;
+      }
+      EmotionResult result = pool.acquire();
+      result.classId = best;
+      result.score = probabilities[best];
+      if (k == 0 && probabilities.length == EmotionResult.NUM_CLASSES) {
+        // emotion model: keep the full vector for temporal aggregation
+        System.arraycopy(probabilities, 0, result.probabilities, 0, EmotionResult.NUM_CLASSES);
+        result.hasProbabilities = true;
+      }
+      out.add(result);
+      previous = probabilities[best];
+      previousIndex = best;
+    }
+    return count;
+  }
 }
@@ -0,0 +1,96 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.classification.tflite;
+
+/**
+ * A mutable, primitive classification result for the per-frame path.
+ *
+ * <p>Instances come from an {@link EmotionResultPool} and go back to it once the frame has been
+ * handled. Use {@link Classifier#toRecognition(EmotionResult)} to get a {@link
+ * Classifier.Recognition} for display.
+ */
+public final class EmotionResult {
+  /** Class indices of the FER emotion models. */
+  public static final int ANGRY = 0;
+  public static final int DISGUSTED = 1;
+  public static final int AFRAID = 2;
+  public static final int HAPPY = 3;
+  public static final int NEUTRAL = 4;
+  public static final int SAD = 5;
+  public static final int SURPRISED = 6;
+  public static final int NUM_CLASSES = 7;
+
+  /** Index of the class in the classifier's labels, see {@link Classifier#getLabel(int)}. */
+  public int classId = -1;
+
+  /** Score of the class, higher is better. */
+  public float score;
+
+  /**
+   * Per-class scores of the emotion classes, indexed by the constants above, for temporal
+   * aggregation. Only valid if {@link #hasProbabilities} is set.
+   */
+  public final float[] probabilities = new float[NUM_CLASSES];
+  public boolean hasProbabilities;
+
+  /** Location in the source image, only valid if {@link #hasLocation} is set. */
+  public int left;
+  public int top;
+  public int right;
+  public int bottom;
+  public boolean hasLocation;
+
+  public void setLocation(int left, int top, int right, int bottom) {
+    this.left = left;
+    this.top = top;
+    this.right = right;
+    this.bottom = bottom;
+    this.hasLocation = true;
+  }
+
+  public int width() {
+    return right - left;
+  }
+
+  public int height() {
+    return bottom - top;
+  }
+
+  public float centerX() {
+    return (left + right) * 0.5f;
+  }
+
+  public float centerY() {
+    return (top + bottom) * 0.5f;
+  }
+
+  void reset() {
+    classId = -1;
+    score = 0f;
+    left = 0;
+    top = 0;
+    right = 0;
+    bottom = 0;
+    hasLocation = false;
+    hasProbabilities = false;
+  }
+
+  @Override
+  public String toString() {
+    return "EmotionResult[" + classId + " " + score + (hasLocation
+        ? " (" + left + ", " + top + ", " + right + ", " + bottom + ")]" : "]");
+  }
+}
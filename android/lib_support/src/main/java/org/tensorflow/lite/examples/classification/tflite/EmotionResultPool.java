@@ -0,0 +1,69 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.classification.tflite;
+
+import java.util.List;
+
+/**
+ * Preallocated pool of {@link EmotionResult}s.
+ *
+ * <p>Results are acquired on the inference thread and may be released from another one (e.g. the
+ * UI thread after rendering), so access is synchronized. If the pool runs dry a new result is
+ * allocated and counted in {@link #getMissCount()}, which should stay at zero in steady state.
+ */
+public final class EmotionResultPool {
+  private final EmotionResult[] free;
+  private int freeCount;
+  private int missCount = 0;
+
+  public EmotionResultPool(int capacity) {
+    free = new EmotionResult[capacity];
+    for (int i = 0; i < capacity; i++) {
+      free[i] = new EmotionResult();
+    }
+    freeCount = capacity;
+  }
+
+  public synchronized EmotionResult acquire() {
+    if (freeCount == 0) {
+      missCount++;
+      return new EmotionResult();
+    }
+    EmotionResult result = free[--freeCount];
+    free[freeCount] = null;
+    return result;
+  }
+
+  public synchronized void release(EmotionResult result) {
+    result.reset();
+    if (freeCount < free.length) {
+      free[freeCount++] = result;
+    }
+  }
+
+  /** Releases every result in the list and clears it. */
+  public synchronized void releaseAll(List<EmotionResult> results) {
+    for (int i = 0; i < results.size(); i++) {
+      release(results.get(i));
+    }
+    results.clear();
+  }
+
+  /** Number of acquires that had to allocate because the pool was empty. */
+  public synchronized int getMissCount() {
+    return missCount;
+  }
+}
@@ -0,0 +1,79 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.classification.tflite;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/** Describes one model of the {@link ModelRegistry}, as read from {@code models.json}. */
+public final class ModelDescriptor {
+  /** Layout of the input tensor. */
+  public enum InputLayout {
+    /** {1, height, width, 3} RGB. */
+    NHWC_RGB,
+    /** {1, height, width, 1} luma. */
+    NHWC_GRAY
+  }
+
+  /** Name the model is looked up by, e.g. {@code EMOTION}. */
+  public final String name;
+
+  /** Model file in the assets. */
+  public final String path;
+
+  /** Label file in the assets. */
+  public final String labels;
+
+  /** Input normalization, {@code (pixel - inputMean) / inputStd}. */
+  public final float inputMean;
+  public final float inputStd;
+
+  /** Output normalization; dequantizes the scores of quantized models. */
+  public final float outputMean;
+  public final float outputStd;
+
+  /** Whether the model has integer input and output tensors. */
+  public final boolean quantized;
+
+  public final InputLayout inputLayout;
+
+  /** Size of the input image in pixels, for picking the camera resolution; 0 if unknown. */
+  public final int inputWidth;
+  public final int inputHeight;
+
+  /** Whether the model classifies faces found by the face detector. */
+  public final boolean faceDetector;
+
+  ModelDescriptor(JSONObject json) throws JSONException {
+    name = json.getString("name");
+    path = json.getString("path");
+    labels = json.getString("labels");
+    inputMean = (float) json.optDouble("inputMean", 0.0);
+    inputStd = (float) json.optDouble("inputStd", 1.0);
+    outputMean = (float) json.optDouble("outputMean", 0.0);
+    outputStd = (float) json.optDouble("outputStd", 1.0);
+    quantized = json.optBoolean("quantized", false);
+    inputLayout = InputLayout.valueOf(json.optString("inputLayout", InputLayout.NHWC_RGB.name()));
+    inputWidth = json.optInt("inputWidth", 0);
+    inputHeight = json.optInt("inputHeight", 0);
+    faceDetector = json.optBoolean("faceDetector", false);
+  }
+
+  @Override
+  public String toString() {
+    return name + " (" + path + ")";
+  }
+}
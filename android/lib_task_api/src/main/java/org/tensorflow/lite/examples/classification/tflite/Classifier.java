@@ -19,29 +19,34 @@ import static java.lang.Math.min;
 
 import android.app.Activity;
 import android.graphics.Bitmap;
+import android.graphics.Canvas;
 import android.graphics.Matrix;
+import android.graphics.Paint;
 import android.graphics.PointF;
 import android.graphics.Rect;
 import android.graphics.RectF;
+import android.os.SystemClock;
 import android.os.Trace;
 import android.util.Log;
+import java.io.Closeable;
 import java.io.IOException;
-import java.nio.MappedByteBuffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import org.tensorflow.lite.DataType;
 import org.tensorflow.lite.Interpreter;
-import org.tensorflow.lite.support.common.FileUtil;
+import org.tensorflow.lite.Tensor;
+import org.tensorflow.lite.gpu.CompatibilityList;
+import org.tensorflow.lite.gpu.GpuDelegate;
+import org.tensorflow.lite.nnapi.NnApiDelegate;
 import org.tensorflow.lite.support.label.Category;
 import org.tensorflow.lite.support.metadata.MetadataExtractor;
-import org.tensorflow.lite.task.core.BaseOptions;
 import org.tensorflow.lite.task.core.vision.ImageProcessingOptions.Orientation;
 import org.tensorflow.lite.task.vision.classifier.Classifications;
 
-import androidx.annotation.NonNull;
-
-import com.google.android.gms.tasks.OnFailureListener;
-import com.google.android.gms.tasks.OnSuccessListener;
-import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
 import com.google.mlkit.vision.common.InputImage;
 import com.google.mlkit.vision.face.Face;
 import com.google.mlkit.vision.face.FaceDetection;
@@ -49,17 +54,21 @@ import com.google.mlkit.vision.face.FaceDetector;
 import com.google.mlkit.vision.face.FaceDetectorOptions;
 import com.google.mlkit.vision.face.FaceLandmark;
 
-/** A classifier specialized to label images using TensorFlow Lite. */
-public abstract class Classifier {
+/**
+ * A classifier specialized to label images using TensorFlow Lite. The model file comes from a
+ * {@link ModelDescriptor} of the {@link ModelRegistry}.
+ */
+public class Classifier implements Closeable {
   public static final String TAG = "ClassifierWithTaskApi";
 
-  /** The model type used for classification. */
+  /** The models shipped with the app; their names match the entries of {@code models.json}. */
   public enum Model {
     FLOAT_MOBILENET,
     QUANTIZED_MOBILENET,
     FLOAT_EFFICIENTNET,
     QUANTIZED_EFFICIENTNET,
-    EMOTION
+    EMOTION,
+    EMOTION_QUANTIZED
   }
 
   /** The runtime device type used for executing classification. */
@@ -72,6 +81,9 @@ public abstract class Classifier {
   /** Number of results to show in the UI. */
   private static final int MAX_RESULTS = 3;
 
+  /** Describes the loaded TensorFlow Lite model. */
+  private final ModelDescriptor descriptor;
+
   /** Image size along the x axis. */
   private final int imageSizeX;
 
@@ -80,9 +92,80 @@ public abstract class Classifier {
   /** An instance of the driver class to run model inference with Tensorflow Lite. */
   protected Interpreter imageClassifier = null;
 
+  /** Optional GPU delegate for acceleration of the emotion model. */
+  private GpuDelegate gpuDelegate = null;
+
+  /** Optional NNAPI delegate for acceleration of the emotion model. */
+  private NnApiDelegate nnApiDelegate = null;
+
+  /** Labels of the FER emotion classes, indexed by {@link EmotionResult#classId}. */
+  private static final String[] EMOTION_LABELS = {
+    "Angry", "Disgusted", "Afraid", "Happy", "Neutral", "Sad", "Surprised"
+  };
+
+  /** Smile probability above which a face counts as happy. */
+  private static final float HAPPY_SMILE_PROBABILITY = 0.8f;
+
+  /** Mouth opening, relative to the eye distance, above which a face counts as surprised. */
+  private static final float SURPRISED_MOUTH_RATIO = 0.25f;
+
   // to detect faces
   protected FaceDetector detector;
-  public ArrayList<Recognition> recognitions = new ArrayList<>();
+
+  /**
+   * Default band of ambiguous smile probabilities. Above it the face is happy and below it the
+   * landmarks decide, as ML Kit is rarely wrong at the extremes.
+   */
+  private static final float DEFAULT_CASCADE_LOW = 0.1f;
+  private static final float DEFAULT_CASCADE_HIGH = HAPPY_SMILE_PROBABILITY;
+
+  /** Most faces classified in one batch in multi-face mode. */
+  private static final int MAX_FACES = 8;
+
+  /** Whether every detected face is classified by the emotion model, see {@link #setMultiFace}. */
+  private boolean multiFace = false;
+
+  // Emotion model input {batch, height, width, channels} and output {batch, classes}
+  private int faceSizeX;
+  private int faceSizeY;
+  private int faceChannels;
+  private boolean quantizedFaceInput;
+  private int numClasses;
+  private boolean quantizedFaceOutput;
+  private float outputScale;
+  private float outputZeroPoint;
+
+  // Batch buffers for MAX_FACES faces, and views of them sized to the allocated batch
+  private ByteBuffer batchInputStorage;
+  private ByteBuffer batchOutputStorage;
+  private ByteBuffer batchInput;
+  private ByteBuffer batchOutput;
+  private int batchSize = 1;
+
+  // Scratch for cropping faces
+  private Bitmap faceBitmap;
+  private Canvas faceCanvas;
+  private int[] facePixels;
+  private final Rect faceSrc = new Rect();
+  private final Rect faceDst = new Rect();
+  private final Paint facePaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+  private final Face[] batchFaces = new Face[MAX_FACES];
+  private FaceAligner faceAligner;
+
+  // Luma plane of the frame being classified, see setLumaFrame
+  private byte[] frameLuma;
+  private int frameLumaWidth;
+  private int frameLumaHeight;
+  private int frameLumaStride;
+
+  private long lastInferenceNanos = 0;
+  private int lastBatchSize = 0;
+
+  /** Smile probabilities between these are ambiguous and go to the emotion model. */
+  private float cascadeLow = DEFAULT_CASCADE_LOW;
+  private float cascadeHigh = DEFAULT_CASCADE_HIGH;
+  private long cascadeFaces = 0;
+  private long cascadeModelRuns = 0;
 
   /**
    * Creates a classifier with the provided configuration.
@@ -95,19 +178,35 @@ public abstract class Classifier {
    */
   public static Classifier create(Activity activity, Model model, Device device, int numThreads)
       throws IOException {
-    if (model == Model.QUANTIZED_MOBILENET) {
-      return new ClassifierQuantizedMobileNet(activity, device, numThreads);
-    } else if (model == Model.FLOAT_MOBILENET) {
-      return new ClassifierFloatMobileNet(activity, device, numThreads);
-    } else if (model == Model.FLOAT_EFFICIENTNET) {
-      return new ClassifierFloatEfficientNet(activity, device, numThreads);
-    } else if (model == Model.QUANTIZED_EFFICIENTNET) {
-      return new ClassifierQuantizedEfficientNet(activity, device, numThreads);
-    } else if (model == Model.EMOTION) {
-      return new ClassifierEmotion(activity, device, numThreads);
-    } else {
-      throw new UnsupportedOperationException();
-    }
+    return create(activity, model, device, numThreads, true);
+  }
+
+  /**
+   * Creates a classifier with the provided configuration.
+   *
+   * @param activity The current Activity.
+   * @param model The model to use for classification.
+   * @param device The device to use for classification.
+   * @param numThreads The number of threads to use for classification.
+   * @param landmarks Whether the face detector looks for landmarks. Without them surprise can't
+   *     be detected, but detection is cheaper.
+   * @return A classifier with the desired configuration.
+   */
+  public static Classifier create(
+      Activity activity, Model model, Device device, int numThreads, boolean landmarks)
+      throws IOException {
+    return create(activity, model.name(), device, numThreads, landmarks);
+  }
+
+  /**
+   * Creates a classifier for a model of the {@link ModelRegistry}, including variants that are
+   * only listed in {@code models.json}.
+   */
+  public static Classifier create(
+      Activity activity, String modelName, Device device, int numThreads, boolean landmarks)
+      throws IOException {
+    ModelDescriptor descriptor = ModelRegistry.get(activity).getDescriptor(modelName);
+    return new Classifier(activity, descriptor, device, numThreads, landmarks);
   }
 
   /** An immutable result returned by a Classifier describing what was recognized. */
@@ -181,28 +280,56 @@ public abstract class Classifier {
   }
 
   /** Initializes a {@code Classifier}. */
-  protected Classifier(Activity activity, Device device, int numThreads) throws IOException {
-    BaseOptions.Builder baseOptionsBuilder = BaseOptions.builder();
-    switch (device) {
-      case GPU:
-        baseOptionsBuilder.useGpu();
-        break;
-      case NNAPI:
-        baseOptionsBuilder.useNnapi();
-        break;
-      default:
-        break;
-    }
+  protected Classifier(
+      Activity activity, ModelDescriptor descriptor, Device device, int numThreads)
+      throws IOException {
+    this(activity, descriptor, device, numThreads, true);
+  }
 
-    if (getModelPath() == "compressed_model.tflite") {
-      MappedByteBuffer tfliteModel = FileUtil.loadMappedFile(activity, getModelPath());
-      imageClassifier = new Interpreter(tfliteModel);
+  /** Initializes a {@code Classifier}, optionally without face landmark detection. */
+  protected Classifier(
+      Activity activity,
+      ModelDescriptor descriptor,
+      Device device,
+      int numThreads,
+      boolean landmarks)
+      throws IOException {
+    this.descriptor = descriptor;
+    // the registry maps each model file once, however often classifiers are re-created
+    ByteBuffer tfliteModel = ModelRegistry.get(activity).getModel(descriptor);
+
+    if (descriptor.faceDetector) {
+      Interpreter.Options options = new Interpreter.Options();
+      switch (device) {
+        case NNAPI:
+          nnApiDelegate = new NnApiDelegate();
+          options.addDelegate(nnApiDelegate);
+          break;
+        case GPU:
+          CompatibilityList compatList = new CompatibilityList();
+          if (compatList.isDelegateSupportedOnThisDevice()) {
+            gpuDelegate = new GpuDelegate(compatList.getBestOptionsForThisDevice());
+            options.addDelegate(gpuDelegate);
+            Log.d(TAG, "GPU supported. GPU delegate created and added to options");
+          } else {
+            Log.d(TAG, "GPU not supported. Default to CPU.");
+          }
+          break;
+        case CPU:
+          break;
+      }
+      options.setNumThreads(numThreads);
+      imageClassifier = new Interpreter(tfliteModel, options);
+      initBatch();
 
       // initialize face detector to detect smiles
       FaceDetectorOptions classification_options =
               new FaceDetectorOptions.Builder()
                       .setClassificationMode(FaceDetectorOptions.CLASSIFICATION_MODE_ALL)
-                      .setLandmarkMode(FaceDetectorOptions.LANDMARK_MODE_ALL)
+                      .setLandmarkMode(
+                              landmarks
+                                  ? FaceDetectorOptions.LANDMARK_MODE_ALL
+                                  : FaceDetectorOptions.LANDMARK_MODE_NONE)
                       .build();
       detector = FaceDetection.getClient(classification_options);
     }
@@ -210,8 +337,7 @@ public abstract class Classifier {
     Log.d(TAG, "Created a Tensorflow Lite Image Classifier and detector.");
 
     // Get the input image size information of the underlying tflite model.
-    MappedByteBuffer tfliteModel = FileUtil.loadMappedFile(activity, getModelPath());
-    MetadataExtractor metadataExtractor = new MetadataExtractor(tfliteModel);
+    MetadataExtractor metadataExtractor = new MetadataExtractor(tfliteModel.duplicate());
     // Image shape is in the format of {1, height, width, 3}.
     int[] imageShape = metadataExtractor.getInputTensorShape(/*inputIndex=*/ 0);
     imageSizeY = imageShape[1];
@@ -219,6 +345,123 @@ public abstract class Classifier {
 
   }
 
+  /** Reads the emotion model's tensors and allocates buffers for the biggest batch. */
+  private void initBatch() {
+    Tensor input = imageClassifier.getInputTensor(0);
+    int[] inputShape = input.shape(); // {1, height, width, channels}
+    faceSizeY = inputShape[1];
+    faceSizeX = inputShape[2];
+    faceChannels = inputShape.length > 3 ? inputShape[3] : 1;
+    quantizedFaceInput = input.dataType() == DataType.UINT8;
+    Tensor output = imageClassifier.getOutputTensor(0);
+    numClasses = output.shape()[1];
+    quantizedFaceOutput = output.dataType() == DataType.UINT8;
+    Tensor.QuantizationParams quantization = output.quantizationParams();
+    outputScale = quantizedFaceOutput ? quantization.getScale() : 1.0f;
+    outputZeroPoint = quantizedFaceOutput ? quantization.getZeroPoint() : 0.0f;
+
+    int faceBytes = faceSizeX * faceSizeY * faceChannels * (quantizedFaceInput ? 1 : 4);
+    int scoreBytes = numClasses * (quantizedFaceOutput ? 1 : 4);
+    batchInputStorage = ByteBuffer.allocateDirect(MAX_FACES * faceBytes);
+    batchOutputStorage = ByteBuffer.allocateDirect(MAX_FACES * scoreBytes);
+    batchInput = view(batchInputStorage, faceBytes);
+    batchOutput = view(batchOutputStorage, scoreBytes);
+    faceBitmap = Bitmap.createBitmap(faceSizeX, faceSizeY, Bitmap.Config.ARGB_8888);
+    faceCanvas = new Canvas(faceBitmap);
+    facePixels = new int[faceSizeX * faceSizeY];
+    faceDst.set(0, 0, faceSizeX, faceSizeY);
+    faceAligner = new FaceAligner(faceSizeX, faceSizeY);
+  }
+
+  /** The first {@code bytes} of {@code storage}, in native order as the interpreter expects. */
+  private static ByteBuffer view(ByteBuffer storage, int bytes) {
+    storage.clear();
+    storage.limit(bytes);
+    return storage.slice().order(ByteOrder.nativeOrder());
+  }
+
+  /**
+   * Resizes the emotion model's input to {@code n} faces. Tensors are only reallocated when the
+   * number of faces changes, not on every frame.
+   */
+  private void ensureBatchSize(int n) {
+    if (n == batchSize) {
+      return;
+    }
+    imageClassifier.resizeInput(0, new int[] {n, faceSizeY, faceSizeX, faceChannels});
+    imageClassifier.allocateTensors();
+    batchInput = view(batchInputStorage, n * batchInputStorage.capacity() / MAX_FACES);
+    batchOutput = view(batchOutputStorage, n * batchOutputStorage.capacity() / MAX_FACES);
+    batchSize = n;
+  }
+
+  /**
+   * Classifies every detected face instead of only the biggest one. All faces go through the
+   * emotion model in a single batched inference, and a result per face is returned, biggest face
+   * first. Off by default, where the biggest face is classified from its smile and landmarks.
+   */
+  public void setMultiFace(boolean multiFace) {
+    this.multiFace = multiFace;
+  }
+
+  /**
+   * Sets the band of smile probabilities, exclusive, in which the emotion model classifies the
+   * biggest face instead of the smile and landmark rules. Faces smiling with {@code high} or more
+   * are happy. An empty band ({@code low >= high}) turns the model off, and faces are then happy
+   * from a fixed smile probability; {@code (0, 1)} runs the model on nearly every face.
+   */
+  public void setCascadeBand(float low, float high) {
+    cascadeLow = low;
+    cascadeHigh = high;
+  }
+
+  /** Fraction of faces the emotion model had to classify since creation. */
+  public float getCascadeModelRate() {
+    return cascadeFaces == 0 ? 0f : (float) cascadeModelRuns / cascadeFaces;
+  }
+
+  /**
+   * Gives the luma plane of the frame passed to the next {@link #recognize} call. Gray emotion
+   * models then get their face crops sampled straight from it, aligned on the eyes, instead of
+   * going through bitmaps. The bitmap may be a scaled copy of the frame.
+   */
+  public void setLumaFrame(byte[] luma, int width, int height, int rowStride) {
+    frameLuma = luma;
+    frameLumaWidth = width;
+    frameLumaHeight = height;
+    frameLumaStride = rowStride;
+  }
+
+  /** Time of the last inference, for the whole batch in multi-face mode. */
+  public long getLastInferenceNanos() {
+    return lastInferenceNanos;
+  }
+
+  /**
+   * Number of faces classified by the last batched inference, 0 if the last call did not run the
+   * emotion model. Latency per face is amortized over it.
+   */
+  public int getLastBatchSize() {
+    return lastBatchSize;
+  }
+
+  /**
+   * Runs the emotion model once on a single face of whatever the input holds, zeros on a new
+   * classifier, without face detection, so a configuration can be timed without a face in view.
+   *
+   * @return The inference time, or -1 if this classifier has no emotion model.
+   */
+  public long benchmarkInference() {
+    if (imageClassifier == null) {
+      return -1;
+    }
+    ensureBatchSize(1);
+    batchInput.rewind();
+    long start = SystemClock.elapsedRealtimeNanos();
+    imageClassifier.run(batchInput, batchOutput.rewind());
+    return SystemClock.elapsedRealtimeNanos() - start;
+  }
+
   public static Bitmap scaleDown(Bitmap realImage, float maxImageSize,
                                  boolean filter) {
     float ratio = Math.min(
@@ -234,176 +477,418 @@ public abstract class Classifier {
 
   /** Runs inference and returns the classification results. */
   public List<Recognition> recognizeImage(Bitmap bitmap, int sensorOrientation) {
+    EmotionResultPool pool = new EmotionResultPool(1);
+    List<EmotionResult> results = new ArrayList<>(1);
+    recognize(bitmap, sensorOrientation, pool, results);
+    List<Recognition> recognitions = toRecognitions(results);
+    pool.releaseAll(results);
+    return recognitions;
+  }
+
+  /**
+   * Detects faces and appends the emotion of the biggest one to {@code out}. Confident smile
+   * probabilities are taken as they are; in the ambiguous band (see {@link #setCascadeBand}) the
+   * emotion model classifies the face crop. The result is taken from {@code pool} and must be
+   * released back to it by the caller.
+   *
+   * <p>Blocks until face detection has finished, so it must not be called on the main thread.
+   *
+   * @return The number of results added, 0 or 1.
+   */
+  public int recognize(
+      Bitmap bitmap, int sensorOrientation, EmotionResultPool pool, List<EmotionResult> out) {
+    if (detector == null) {
+      return 0;
+    }
+    lastBatchSize = 0;
     // Logs this method so that it can be analyzed with systrace.
     Trace.beginSection("recognizeImage");
+    try {
+      InputImage image = InputImage.fromBitmap(bitmap, 0);
+
+      // run smile detection on input image, on this thread so the result belongs to this frame
+      List<Face> faces;
+      try {
+        faces = Tasks.await(detector.process(image));
+      } catch (ExecutionException e) {
+        Log.e(TAG, "Failed to detect face!", e);
+        return 0;
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return 0;
+      }
 
-    InputImage image = InputImage.fromBitmap(bitmap, 0);
-
-    // run smile detection on input image
-    Task<List<Face>> result =
-            detector.process(image)
-                    .addOnSuccessListener(
-                            new OnSuccessListener<List<Face>>() {
-                              @Override
-                              public void onSuccess(List<Face> faces) {
-                                if (faces.size() == 0) {
-                                  recognitions.removeAll(recognitions);
-                                }
-
-                                Rect biggest_bounds = null;
-                                float smileProb = 0;
-                                boolean isSurprised = false;
-
-                                for (Face face : faces) {
-                                  Rect bounds = face.getBoundingBox();
-                                  float rotY = face.getHeadEulerAngleY();  // Head is rotated to the right rotY degrees
-                                  float rotZ = face.getHeadEulerAngleZ();  // Head is tilted sideways rotZ degrees
-
-                                  // if face is biggest seen
-                                  if (face.getSmilingProbability() != null && (biggest_bounds == null || biggest_bounds.width()*bounds.height() > biggest_bounds.height()*biggest_bounds.width())) {
-                                    smileProb = face.getSmilingProbability();
-                                    biggest_bounds = bounds;
-
-                                    // detect landmarks to see if face is surprised
-                                    FaceLandmark rightMouth = face.getLandmark(FaceLandmark.MOUTH_RIGHT);
-                                    FaceLandmark leftMouth = face.getLandmark(FaceLandmark.MOUTH_LEFT);
-                                    FaceLandmark bottomMouth = face.getLandmark(FaceLandmark.MOUTH_BOTTOM);
-                                    FaceLandmark leftEye = face.getLandmark(FaceLandmark.LEFT_EYE);
-                                    FaceLandmark rightEye = face.getLandmark(FaceLandmark.RIGHT_EYE);
-                                    PointF rightMouthPos = null;
-                                    PointF leftMouthPos = null;
-                                    PointF bottomMouthPos = null;
-                                    PointF leftEyePos = null;
-                                    PointF rightEyePos = null;
-                                    if (rightMouth != null) {
-                                      rightMouthPos = rightMouth.getPosition();
-                                    }
-                                    if (leftMouth != null) {
-                                      leftMouthPos = leftMouth.getPosition();
-                                    }
-                                    if (bottomMouth != null) {
-                                      bottomMouthPos = bottomMouth.getPosition();
-                                    }
-                                    if (leftEye != null) {
-                                      leftEyePos = leftEye.getPosition();
-                                    }
-                                    if (rightEye != null) {
-                                      rightEyePos = rightEye.getPosition();
-                                    }
-                                    float mouthDistance = bottomMouthPos.y-(leftMouthPos.y+rightMouthPos.y)/2;
-                                    float scaledMouthDistance = mouthDistance / (rightEyePos.x-leftEyePos.x);
-                                    Log.e("Landmarks: ", "Left: "+leftMouthPos.y+", Right: "+rightMouthPos.y+", Bottom: "+bottomMouthPos.y);
-                                    Log.e("Surprised: ", ""+scaledMouthDistance);
-
-                                    if (scaledMouthDistance > 0.25) {
-                                      isSurprised = true;
-                                    }
-                                  }
-                                }
-                                // report the closest face's smile probability and bounding box
-                                reportResults(smileProb, biggest_bounds, isSurprised);
-                              }
-                            })
-                    .addOnFailureListener(
-                            new OnFailureListener() {
-                              @Override
-                              public void onFailure(@NonNull Exception e) {
-                                // Task failed with an exception
-                                // ...
-                                Log.e(TAG, "Failed to detect face!");
-                              }
-                            });
-
-//    bitmap = scaleDown(bitmap, 48, true);
-//    int width = bitmap.getWidth();
-//    int height = bitmap.getHeight();
-//    int cropSize = min(width, height);
-//    // TODO(b/169379396): investigate the impact of the resize algorithm on accuracy.
-//    // Task Library resize the images using bilinear interpolation, which is slightly different from
-//    // the nearest neighbor sampling algorithm used in lib_support. See
-//    // https://github.com/tensorflow/examples/blob/0ef3d93e2af95d325c70ef3bcbbd6844d0631e07/lite/examples/image_classification/android/lib_support/src/main/java/org/tensorflow/lite/examples/classification/tflite/Classifier.java#L310.
-//    ImageProcessingOptions imageOptions =
-//        ImageProcessingOptions.builder()
-//            .setOrientation(getOrientation(sensorOrientation))
-//            // Set the ROI to the center of the image.
-//            .setRoi(
-//                new Rect(
-//                    /*left=*/ (width - cropSize) / 2,
-//                    /*top=*/ (height - cropSize) / 2,
-//                    /*right=*/ (width + cropSize) / 2,
-//                    /*bottom=*/ (height + cropSize) / 2))
-//            .build();
-//
-//    // Runs the inference call.
-//    Trace.beginSection("runInference");
-//    long startTimeForReference = SystemClock.uptimeMillis();
-//
-//    float[][] output=new float[1][7];
-//    int pixels[] = new int[width * height];
-//    float grayscaleImg[][][][] = new float[1][48][48][1];
-//
-//    bitmap.getPixels(pixels,0, width, 0, 0, width, height);
-//
-//    for (int i = 0; i < width*height; i++) {
-//      int x = i % width;
-//      int y = i / width;
-////      Log.e(TAG, "x: " + x + " y: " + y + " Red: " + Color.red(pixels[i]) + " Green: " + Color.green(pixels[i]) + " Blue: " + Color.blue(pixels[i]));
-//      grayscaleImg[0][x][y][0] = (int) (Color.red(pixels[i]) * 0.299 + Color.green(pixels[i]) * 0.587 + Color.blue(pixels[i]) * 0.114);
-//    }
-//
-//    String classes[] = {"angry", "disgusted", "afraid", "happy", "neutral", "sad", "surprised"};
-//
-////    Log.e(TAG, "Before image classifier");
-//    imageClassifier.run(grayscaleImg, output);
-//    String prediction = "";
-//    int best_ind = 0;
-//    float highest_score = 0;
-//
-//    for (int i = 0; i < 7; i++) {
-//      if (output[0][i] > highest_score) {
-//        best_ind = i;
-//        highest_score = output[0][i];
-//      }
-//    }
-//    prediction = classes[best_ind];
-////    Log.e(TAG, "Pred: "+prediction);
-//
-//    long endTimeForReference = SystemClock.uptimeMillis();
-//    Trace.endSection();
-//    Log.v(TAG, "Timecost to run model inference: " + (endTimeForReference - startTimeForReference));
-//    Log.v(TAG, "Model Output: " + output);
-//
-//    Trace.endSection();
-//
-//    final ArrayList<Recognition> recognitions = new ArrayList<>();
-//    recognitions.add(new Recognition(prediction, prediction, highest_score, null));
+      if (multiFace && imageClassifier != null) {
+        return recognizeFaces(bitmap, faces, pool, out);
+      }
 
-    return recognitions;
+      // pick the biggest face that has a smile probability
+      Face biggest = null;
+      int biggestArea = -1;
+      for (int i = 0; i < faces.size(); i++) {
+        Face face = faces.get(i);
+        Rect bounds = face.getBoundingBox();
+        int area = bounds.width() * bounds.height();
+        if (face.getSmilingProbability() != null && area > biggestArea) {
+          biggest = face;
+          biggestArea = area;
+        }
+      }
+      if (biggest == null) {
+        return 0;
+      }
+
+      EmotionResult result = pool.acquire();
+      float smileProb = biggest.getSmilingProbability();
+      cascadeFaces++;
+      if (imageClassifier != null && smileProb > cascadeLow && smileProb < cascadeHigh) {
+        // ML Kit is unsure, let the emotion model decide on the face crop
+        cascadeModelRuns++;
+        batchFaces[0] = biggest;
+        runEmotionModel(bitmap, 1);
+        batchFaces[0] = null;
+        setFromScores(result, 0);
+        Rect bounds = biggest.getBoundingBox();
+        result.setLocation(bounds.left, bounds.top, bounds.right, bounds.bottom);
+        out.add(result);
+        return 1;
+      }
+      float surpriseScore = getSurpriseScore(biggest);
+      // the rules take over right where the band ends
+      float happySmile = cascadeLow < cascadeHigh ? cascadeHigh : HAPPY_SMILE_PROBABILITY;
+      if (smileProb >= happySmile) {
+        result.classId = EmotionResult.HAPPY;
+        result.score = smileProb;
+      } else if (surpriseScore > 0.5f) {
+        result.classId = EmotionResult.SURPRISED;
+        result.score = smileProb;
+      } else {
+        result.classId = EmotionResult.NEUTRAL;
+        result.score = 1 - smileProb;
+      }
+      // soft scores so callers can aggregate over time instead of using the hard decision
+      result.probabilities[EmotionResult.HAPPY] = smileProb;
+      result.probabilities[EmotionResult.SURPRISED] = surpriseScore;
+      result.probabilities[EmotionResult.NEUTRAL] = 1 - smileProb;
+      result.hasProbabilities = true;
+      Rect bounds = biggest.getBoundingBox();
+      result.setLocation(bounds.left, bounds.top, bounds.right, bounds.bottom);
+      out.add(result);
+      return 1;
+    } finally {
+      Trace.endSection();
+    }
+  }
+
+  /** Classifies up to {@link #MAX_FACES} faces, biggest first, in one batched inference. */
+  private int recognizeFaces(
+      Bitmap bitmap, List<Face> faces, EmotionResultPool pool, List<EmotionResult> out) {
+    // insertion sort by area into the reused array, the list is short
+    int n = 0;
+    for (int i = 0; i < faces.size(); i++) {
+      Face face = faces.get(i);
+      int area = area(face);
+      if (n == MAX_FACES && area <= area(batchFaces[n - 1])) {
+        continue;
+      }
+      int j = n < MAX_FACES ? n++ : n - 1;
+      while (j > 0 && area(batchFaces[j - 1]) < area) {
+        batchFaces[j] = batchFaces[j - 1];
+        j--;
+      }
+      batchFaces[j] = face;
+    }
+    if (n == 0) {
+      return 0;
+    }
+
+    runEmotionModel(bitmap, n);
+    for (int i = 0; i < n; i++) {
+      EmotionResult result = pool.acquire();
+      setFromScores(result, i);
+      Rect bounds = batchFaces[i].getBoundingBox();
+      result.setLocation(bounds.left, bounds.top, bounds.right, bounds.bottom);
+      out.add(result);
+      batchFaces[i] = null;
+    }
+    return n;
+  }
+
+  /** Runs the emotion model on the first {@code n} faces of {@link #batchFaces}. */
+  private void runEmotionModel(Bitmap bitmap, int n) {
+    Trace.beginSection("loadFaces");
+    ensureBatchSize(n);
+    batchInput.clear();
+    boolean fromLuma = frameLuma != null && faceChannels == 1;
+    for (int i = 0; i < n; i++) {
+      if (fromLuma) {
+        alignFace(batchFaces[i], (float) frameLumaWidth / bitmap.getWidth());
+      } else {
+        writeFace(bitmap, batchFaces[i].getBoundingBox());
+      }
+    }
+    batchInput.rewind();
+    Trace.endSection();
+
+    Trace.beginSection("runInference");
+    long start = SystemClock.elapsedRealtimeNanos();
+    imageClassifier.run(batchInput, batchOutput.rewind());
+    lastInferenceNanos = SystemClock.elapsedRealtimeNanos() - start;
+    lastBatchSize = n;
+    Trace.endSection();
+    // the message is only built when someone listens, this runs on every inference
+    if (Log.isLoggable(TAG, Log.VERBOSE)) {
+      Log.v(TAG, "Batch of " + n + " faces: " + lastInferenceNanos / n / 1000 + " us per face");
+    }
+  }
+
+  /** Sets the class, score and class scores of face {@code i} of the last batch. */
+  private void setFromScores(EmotionResult result, int i) {
+    int best = 0;
+    for (int c = 0; c < numClasses; c++) {
+      float score = getScore(i, c);
+      if (c < EmotionResult.NUM_CLASSES) {
+        result.probabilities[c] = score;
+      }
+      if (score > getScore(i, best)) {
+        best = c;
+      }
+    }
+    result.classId = best;
+    result.score = getScore(i, best);
+    result.hasProbabilities = numClasses == EmotionResult.NUM_CLASSES;
+  }
+
+  private static int area(Face face) {
+    Rect bounds = face.getBoundingBox();
+    return bounds.width() * bounds.height();
+  }
+
+  /** Dequantized score of class {@code c} of face {@code i} of the last batch. */
+  private float getScore(int i, int c) {
+    int index = i * numClasses + c;
+    if (quantizedFaceOutput) {
+      return outputScale * ((batchOutput.get(index) & 0xff) - outputZeroPoint);
+    }
+    return batchOutput.getFloat(index * 4);
+  }
+
+  /**
+   * Samples the face from the luma plane into the batch in one pass, aligned on the eyes if
+   * they were found.
+   *
+   * @param scale Luma plane pixels per bitmap pixel.
+   */
+  private void alignFace(Face face, float scale) {
+    FaceLandmark leftEye = face.getLandmark(FaceLandmark.LEFT_EYE);
+    FaceLandmark rightEye = face.getLandmark(FaceLandmark.RIGHT_EYE);
+    if (leftEye != null && rightEye != null) {
+      // the subject's right eye is on the left of the unmirrored frame
+      PointF first = rightEye.getPosition();
+      PointF second = leftEye.getPosition();
+      faceAligner.setEyes(
+          first.x * scale, first.y * scale, second.x * scale, second.y * scale);
+    } else {
+      Rect bounds = face.getBoundingBox();
+      faceAligner.setBox(
+          bounds.left * scale, bounds.top * scale, bounds.right * scale, bounds.bottom * scale);
+    }
+    faceAligner.align(
+        frameLuma,
+        frameLumaWidth,
+        frameLumaHeight,
+        frameLumaStride,
+        quantizedFaceInput,
+        descriptor.inputMean,
+        descriptor.inputStd,
+        batchInput);
   }
 
-  public void reportResults(float smileProb, Rect boundingBox, boolean isSurprised) {
-    recognitions = new ArrayList<>();
+  /** Scales the face to the model input and appends it to the batch. */
+  private void writeFace(Bitmap bitmap, Rect bounds) {
+    faceSrc.set(bounds);
+    if (!faceSrc.intersect(0, 0, bitmap.getWidth(), bitmap.getHeight())) {
+      faceSrc.set(0, 0, 1, 1);
+    }
+    faceCanvas.drawBitmap(bitmap, faceSrc, faceDst, facePaint);
+    faceBitmap.getPixels(facePixels, 0, faceSizeX, 0, 0, faceSizeX, faceSizeY);
+    float mean = descriptor.inputMean;
+    float std = descriptor.inputStd;
+    for (int pixel : facePixels) {
+      int r = (pixel >> 16) & 0xff;
+      int g = (pixel >> 8) & 0xff;
+      int b = pixel & 0xff;
+      if (faceChannels == 1) {
+        // BT.601 luma in fixed point
+        int y = (77 * r + 150 * g + 29 * b) >> 8;
+        putChannel(y, mean, std);
+      } else {
+        putChannel(r, mean, std);
+        putChannel(g, mean, std);
+        putChannel(b, mean, std);
+      }
+    }
+  }
 
-    if (smileProb > 0.8) {
-      recognitions.add(new Recognition("Happy", "Happy", smileProb, boundingBox));
-      Log.e("Emotion: ", "Happy");
+  private void putChannel(int value, float mean, float std) {
+    if (quantizedFaceInput) {
+      batchInput.put((byte) value);
+    } else {
+      batchInput.putFloat((value - mean) / std);
     }
-    else if (isSurprised) {
-      recognitions.add(new Recognition("Surprised", "Surprised", smileProb, boundingBox));
-      Log.e("Emotion: ", "Surprised");
+  }
+
+  /**
+   * Uses the landmarks to see how wide the mouth is open relative to the eye distance. Returns a
+   * score in [0, 1] that crosses 0.5 at {@link #SURPRISED_MOUTH_RATIO}, or 0 if landmarks are
+   * missing.
+   */
+  private static float getSurpriseScore(Face face) {
+    FaceLandmark rightMouth = face.getLandmark(FaceLandmark.MOUTH_RIGHT);
+    FaceLandmark leftMouth = face.getLandmark(FaceLandmark.MOUTH_LEFT);
+    FaceLandmark bottomMouth = face.getLandmark(FaceLandmark.MOUTH_BOTTOM);
+    FaceLandmark leftEye = face.getLandmark(FaceLandmark.LEFT_EYE);
+    FaceLandmark rightEye = face.getLandmark(FaceLandmark.RIGHT_EYE);
+    if (rightMouth == null
+        || leftMouth == null
+        || bottomMouth == null
+        || leftEye == null
+        || rightEye == null) {
+      return 0f;
+    }
+    return getSurpriseScore(
+        leftMouth.getPosition().y,
+        rightMouth.getPosition().y,
+        bottomMouth.getPosition().y,
+        leftEye.getPosition().x,
+        rightEye.getPosition().x);
+  }
+
+  /** {@link #getSurpriseScore(Face)} on the landmark coordinates, in image pixels. */
+  static float getSurpriseScore(
+      float leftMouthY, float rightMouthY, float bottomMouthY, float leftEyeX, float rightEyeX) {
+    float mouthDistance = bottomMouthY - (leftMouthY + rightMouthY) / 2;
+    // the subject's right eye is on the left of an unmirrored frame and on the right of a
+    // mirrored one, only the distance matters
+    float eyeDistance = Math.abs(leftEyeX - rightEyeX);
+    if (eyeDistance == 0f) {
+      return 0f;
+    }
+    float scaledMouthDistance = mouthDistance / eyeDistance;
+    return Math.max(0f, Math.min(1f, scaledMouthDistance / (2 * SURPRISED_MOUTH_RATIO)));
+  }
+
+  /**
+   * Whether frames can be classified with {@link #recognizeLuma} alone. Faces are found by the
+   * detector on the bitmap, so this library always classifies bitmaps; {@link #recognizeLuma}
+   * only classifies a face that is already known.
+   */
+  public boolean supportsLuma() {
+    return false;
+  }
+
+  /**
+   * Classifies a face region of a luma plane with a gray emotion model, without face detection.
+   * The region is sampled into the model's input with {@link FaceAligner}, upright and unrotated
+   * like the bitmaps given to {@link #recognize}. The result is taken from {@code pool} and must be
+   * released back to it by the caller.
+   *
+   * @param width Width of the frame in pixels, at most {@code rowStride}.
+   * @param height Height of the frame in pixels; the plane may hold padding after its last row.
+   * @param roi Face to classify, in pixels of the luma plane.
+   * @param sensorOrientation Ignored, faces are classified as they appear in the frame.
+   * @return The number of results added: 1, or 0 if the emotion model does not take gray images.
+   */
+  public int recognizeLuma(
+      byte[] luma,
+      int width,
+      int height,
+      int rowStride,
+      Rect roi,
+      int sensorOrientation,
+      EmotionResultPool pool,
+      List<EmotionResult> out) {
+    lastBatchSize = 0;
+    if (imageClassifier == null || faceChannels != 1) {
+      return 0;
     }
-    else {
-      recognitions.add(new Recognition("Neutral", "Neutral", 1-smileProb, boundingBox));
-      Log.e("Emotion: ", "Neutral");
+    Trace.beginSection("recognizeLuma");
+    try {
+      ensureBatchSize(1);
+      batchInput.clear();
+      faceAligner.setBox(roi.left, roi.top, roi.right, roi.bottom);
+      faceAligner.align(
+          luma,
+          width,
+          height,
+          rowStride,
+          quantizedFaceInput,
+          descriptor.inputMean,
+          descriptor.inputStd,
+          batchInput);
+      batchInput.rewind();
+
+      long start = SystemClock.elapsedRealtimeNanos();
+      imageClassifier.run(batchInput, batchOutput.rewind());
+      lastInferenceNanos = SystemClock.elapsedRealtimeNanos() - start;
+      lastBatchSize = 1;
+
+      EmotionResult result = pool.acquire();
+      setFromScores(result, 0);
+      result.setLocation(roi.left, roi.top, roi.right, roi.bottom);
+      out.add(result);
+      return 1;
+    } finally {
+      Trace.endSection();
     }
   }
 
+  /** Gets the label of a class index. */
+  public String getLabel(int classId) {
+    return classId >= 0 && classId < EMOTION_LABELS.length ? EMOTION_LABELS[classId] : null;
+  }
+
+  /** Converts a result into a {@link Recognition} for display. */
+  public Recognition toRecognition(EmotionResult result) {
+    String label = getLabel(result.classId);
+    Rect location =
+        result.hasLocation ? new Rect(result.left, result.top, result.right, result.bottom) : null;
+    return new Recognition(label, label, result.score, location);
+  }
+
+  /** Converts results into {@link Recognition}s for display. */
+  public List<Recognition> toRecognitions(List<EmotionResult> results) {
+    final ArrayList<Recognition> recognitions = new ArrayList<>(results.size());
+    for (int i = 0; i < results.size(); i++) {
+      recognitions.add(toRecognition(results.get(i)));
+    }
+    return recognitions;
+  }
 
   /** Closes the interpreter and model to release resources. */
+  @Override
   public void close() {
     if (imageClassifier != null) {
       imageClassifier.close();
+      imageClassifier = null;
+    }
+    if (gpuDelegate != null) {
+      gpuDelegate.close();
+      gpuDelegate = null;
+    }
+    if (nnApiDelegate != null) {
+      nnApiDelegate.close();
+      nnApiDelegate = null;
     }
+    if (detector != null) {
+      detector.close();
+      detector = null;
+    }
+  }
+
+  /** Gets the descriptor of the loaded model. */
+  public ModelDescriptor getDescriptor() {
+    return descriptor;
   }
 
   /** Get the image size along the x axis. */
@@ -447,7 +932,4 @@ public abstract class Classifier {
         return Orientation.TOP_LEFT;
     }
   }
-
-  /** Gets the name of the model file stored in Assets. */
-  protected abstract String getModelPath();
 }
@@ -0,0 +1,154 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.classification.tflite;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Crops a face from a luma plane into a model input in a single pass.
+ *
+ * <p>One similarity transform (scale, rotation and translation) maps the output onto the frame, so
+ * that the eyes land on {@link #LEFT_EYE_X}/{@link #RIGHT_EYE_X} at height {@link #EYE_Y} of the
+ * output whatever the roll of the head. Each output pixel is sampled bilinearly from the luma
+ * bytes and written as uint8 or as normalized float, with no intermediate bitmaps. Pixels outside
+ * the frame repeat its border.
+ *
+ * <p>Allocation free; not thread safe.
+ */
+public final class FaceAligner {
+  /** Where the eyes end up in the output, as fractions of its width and height. */
+  public static final float LEFT_EYE_X = 0.3f;
+  public static final float RIGHT_EYE_X = 0.7f;
+  public static final float EYE_Y = 0.38f;
+
+  private final int outputWidth;
+  private final int outputHeight;
+
+  // frame = origin + x * column + y * row, for output coordinates (x, y)
+  private float originX;
+  private float originY;
+  private float columnX = 1;
+  private float columnY = 0;
+  private float rowX = 0;
+  private float rowY = 1;
+
+  public FaceAligner(int outputWidth, int outputHeight) {
+    this.outputWidth = outputWidth;
+    this.outputHeight = outputHeight;
+  }
+
+  /**
+   * Aligns on the eyes, given in frame pixels. The first eye is the one that appears on the left
+   * of the output, i.e. the subject's right eye in an unmirrored frame.
+   */
+  public void setEyes(float firstX, float firstY, float secondX, float secondY) {
+    float outLeftX = LEFT_EYE_X * outputWidth;
+    float outRightX = RIGHT_EYE_X * outputWidth;
+    float outY = EYE_Y * outputHeight;
+    // the output eye line is horizontal, so the frame eye vector over its length is the column
+    // step, and the row step is the same vector turned by a quarter
+    float outDistance = outRightX - outLeftX;
+    columnX = (secondX - firstX) / outDistance;
+    columnY = (secondY - firstY) / outDistance;
+    rowX = -columnY;
+    rowY = columnX;
+    originX = firstX - (outLeftX * columnX + outY * rowX);
+    originY = firstY - (outLeftX * columnY + outY * rowY);
+  }
+
+  /** Maps the output onto an upright box in frame pixels, for faces without eye landmarks. */
+  public void setBox(float left, float top, float right, float bottom) {
+    columnX = (right - left) / outputWidth;
+    columnY = 0;
+    rowX = 0;
+    rowY = (bottom - top) / outputHeight;
+    originX = left;
+    originY = top;
+  }
+
+  /** Frame x coordinate of the output point (x, y). */
+  public float mapX(float x, float y) {
+    return originX + x * columnX + y * rowX;
+  }
+
+  /** Frame y coordinate of the output point (x, y). */
+  public float mapY(float x, float y) {
+    return originY + x * columnY + y * rowY;
+  }
+
+  /**
+   * Samples the aligned face into {@code out} at its position, {@code outputWidth *
+   * outputHeight} values row by row, one channel.
+   *
+   * @param luma Luma plane, one byte per pixel.
+   * @param width Frame width in pixels.
+   * @param height Frame height in pixels.
+   * @param rowStride Bytes per row of {@code luma}.
+   * @param quantized Writes the uint8 luma if true, else {@code (luma - mean) / std} as float.
+   */
+  public void align(
+      byte[] luma,
+      int width,
+      int height,
+      int rowStride,
+      boolean quantized,
+      float mean,
+      float std,
+      ByteBuffer out) {
+    float inverseStd = 1.0f / std;
+    for (int oy = 0; oy < outputHeight; oy++) {
+      // frame position of this row's first pixel center, shifted so frame pixel centers are
+      // integers
+      float sx = mapX(0.5f, oy + 0.5f) - 0.5f;
+      float sy = mapY(0.5f, oy + 0.5f) - 0.5f;
+      for (int ox = 0; ox < outputWidth; ox++) {
+        float value = sample(luma, width, height, rowStride, sx, sy);
+        if (quantized) {
+          out.put((byte) Math.min(255, (int) (value + 0.5f)));
+        } else {
+          out.putFloat((value - mean) * inverseStd);
+        }
+        sx += columnX;
+        sy += columnY;
+      }
+    }
+  }
+
+  /** Bilinear sample at (x, y) in pixel-center coordinates, clamped to the frame. */
+  private static float sample(byte[] luma, int width, int height, int rowStride, float x, float y) {
+    if (x < 0) {
+      x = 0;
+    } else if (x > width - 1) {
+      x = width - 1;
+    }
+    if (y < 0) {
+      y = 0;
+    } else if (y > height - 1) {
+      y = height - 1;
+    }
+    int x0 = (int) x;
+    int y0 = (int) y;
+    int x1 = Math.min(x0 + 1, width - 1);
+    int y1 = Math.min(y0 + 1, height - 1);
+    float fx = x - x0;
+    float fy = y - y0;
+    int row0 = y0 * rowStride;
+    int row1 = y1 * rowStride;
+    float top = (luma[row0 + x0] & 0xff) * (1 - fx) + (luma[row0 + x1] & 0xff) * fx;
+    float bottom = (luma[row1 + x0] & 0xff) * (1 - fx) + (luma[row1 + x1] & 0xff) * fx;
+    return top * (1 - fy) + bottom * fy;
+  }
+}
@@ -0,0 +1,111 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.classification.tflite;
+
+import android.content.Context;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.tensorflow.lite.support.common.FileUtil;
+
+/**
+ * The models available to the app, read from the {@code models.json} manifest in the assets.
+ *
+ * <p>Adding a model variant only takes a manifest entry next to the model file. Model files and
+ * labels are loaded on first use and shared by every classifier created afterwards, so swapping
+ * or re-creating classifiers does not map the same file again.
+ */
+public final class ModelRegistry {
+  private static final String MANIFEST = "models.json";
+
+  private static ModelRegistry instance;
+
+  private final Context context;
+  private final Map<String, ModelDescriptor> descriptors = new LinkedHashMap<>();
+  private final Map<String, MappedByteBuffer> models = new HashMap<>();
+  private final Map<String, List<String>> labels = new HashMap<>();
+
+  /** The registry of this process, reading the manifest on first call. */
+  public static synchronized ModelRegistry get(Context context) throws IOException {
+    if (instance == null) {
+      instance = new ModelRegistry(context.getApplicationContext());
+    }
+    return instance;
+  }
+
+  private ModelRegistry(Context context) throws IOException {
+    this.context = context;
+    try (InputStream in = context.getAssets().open(MANIFEST)) {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      byte[] buffer = new byte[4096];
+      int read;
+      while ((read = in.read(buffer)) > 0) {
+        out.write(buffer, 0, read);
+      }
+      JSONArray entries = new JSONObject(out.toString("UTF-8")).getJSONArray("models");
+      for (int i = 0; i < entries.length(); i++) {
+        ModelDescriptor descriptor = new ModelDescriptor(entries.getJSONObject(i));
+        descriptors.put(descriptor.name, descriptor);
+      }
+    } catch (JSONException e) {
+      throw new IOException("Invalid " + MANIFEST, e);
+    }
+  }
+
+  /** Names of all models in manifest order. */
+  public List<String> getNames() {
+    return Collections.unmodifiableList(new ArrayList<>(descriptors.keySet()));
+  }
+
+  public ModelDescriptor getDescriptor(String name) {
+    ModelDescriptor descriptor = descriptors.get(name);
+    if (descriptor == null) {
+      throw new IllegalArgumentException("No model named " + name + " in " + MANIFEST);
+    }
+    return descriptor;
+  }
+
+  /** The model file, mapped once and shared; each caller gets its own buffer position. */
+  public synchronized ByteBuffer getModel(ModelDescriptor descriptor) throws IOException {
+    MappedByteBuffer model = models.get(descriptor.path);
+    if (model == null) {
+      model = FileUtil.loadMappedFile(context, descriptor.path);
+      models.put(descriptor.path, model);
+    }
+    return model.duplicate();
+  }
+
+  /** The labels of the model, loaded once and shared. */
+  public synchronized List<String> getLabels(ModelDescriptor descriptor) throws IOException {
+    List<String> list = labels.get(descriptor.labels);
+    if (list == null) {
+      list = Collections.unmodifiableList(FileUtil.loadLabels(context, descriptor.labels));
+      labels.put(descriptor.labels, list);
+    }
+    return list;
+  }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.classification.tflite;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import org.junit.Test;
+
+public class FaceAlignerTest {
+  private static final int SIZE = 48;
+
+  /** Frame whose luma is x + 2y, which bilinear sampling reproduces exactly. */
+  private static byte[] rampFrame(int width, int height, int rowStride) {
+    byte[] luma = new byte[rowStride * height];
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        luma[y * rowStride + x] = (byte) (x + 2 * y);
+      }
+    }
+    return luma;
+  }
+
+  @Test
+  public void boxOfOutputSizeCopiesPixels() {
+    byte[] luma = rampFrame(60, 50, 64);
+    FaceAligner aligner = new FaceAligner(SIZE, SIZE);
+    aligner.setBox(5, 1, 5 + SIZE, 1 + SIZE);
+    ByteBuffer out = ByteBuffer.allocate(SIZE * SIZE);
+    aligner.align(luma, 60, 50, 64, true, 0, 1, out);
+
+    assertThat(out.position()).isEqualTo(SIZE * SIZE);
+    for (int y = 0; y < SIZE; y++) {
+      for (int x = 0; x < SIZE; x++) {
+        assertThat(out.get(y * SIZE + x) & 0xff).isEqualTo((5 + x) + 2 * (1 + y));
+      }
+    }
+  }
+
+  @Test
+  public void eyesLandOnTheirOutputPositions() {
+    FaceAligner aligner = new FaceAligner(SIZE, SIZE);
+    // head rolled by a quarter turn: the eyes are one above the other
+    aligner.setEyes(40, 20, 40, 60);
+    float leftX = FaceAligner.LEFT_EYE_X * SIZE;
+    float rightX = FaceAligner.RIGHT_EYE_X * SIZE;
+    float eyeY = FaceAligner.EYE_Y * SIZE;
+    assertThat(aligner.mapX(leftX, eyeY)).isWithin(1e-4f).of(40f);
+    assertThat(aligner.mapY(leftX, eyeY)).isWithin(1e-4f).of(20f);
+    assertThat(aligner.mapX(rightX, eyeY)).isWithin(1e-4f).of(40f);
+    assertThat(aligner.mapY(rightX, eyeY)).isWithin(1e-4f).of(60f);
+  }
+
+  @Test
+  public void rotatedCropSamplesAlongTheEyeLine() {
+    byte[] luma = rampFrame(80, 80, 80);
+    FaceAligner aligner = new FaceAligner(SIZE, SIZE);
+    aligner.setEyes(40, 20, 40, 60);
+    ByteBuffer out = ByteBuffer.allocate(SIZE * SIZE * 4);
+    aligner.align(luma, 80, 80, 80, false, 0, 1, out);
+    out.rewind();
+
+    // one output column is one step down the frame (+2 per unit), one output row one step left
+    float step = 40f / ((FaceAligner.RIGHT_EYE_X - FaceAligner.LEFT_EYE_X) * SIZE);
+    int x = 20;
+    int y = 20;
+    float here = out.getFloat((y * SIZE + x) * 4);
+    float right = out.getFloat((y * SIZE + x + 1) * 4);
+    float below = out.getFloat(((y + 1) * SIZE + x) * 4);
+    assertThat(right - here).isWithin(1e-3f).of(2 * step);
+    assertThat(below - here).isWithin(1e-3f).of(-step);
+  }
+
+  @Test
+  public void normalizesFloatOutput() {
+    byte[] luma = new byte[SIZE * SIZE];
+    Arrays.fill(luma, (byte) 255);
+    FaceAligner aligner = new FaceAligner(SIZE, SIZE);
+    aligner.setBox(0, 0, SIZE, SIZE);
+    ByteBuffer out = ByteBuffer.allocate(SIZE * SIZE * 4);
+    aligner.align(luma, SIZE, SIZE, SIZE, false, 0, 255, out);
+    assertThat(out.getFloat(0)).isWithin(1e-6f).of(1f);
+    assertThat(out.getFloat((SIZE * SIZE - 1) * 4)).isWithin(1e-6f).of(1f);
+  }
+}
@@ -0,0 +1,59 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.classification.tflite;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.Test;
+
+public class SurpriseScoreTest {
+  // a face looking at the back camera: the subject's right eye is on the left of the frame
+  private static final float RIGHT_EYE_X = 120f;
+  private static final float LEFT_EYE_X = 180f;
+  private static final float MOUTH_CORNER_Y = 260f;
+
+  private static float score(float bottomMouthY, float leftEyeX, float rightEyeX) {
+    return Classifier.getSurpriseScore(
+        MOUTH_CORNER_Y, MOUTH_CORNER_Y, bottomMouthY, leftEyeX, rightEyeX);
+  }
+
+  @Test
+  public void openMouthIsSurprised() {
+    // 30 px opening over 60 px between the eyes
+    assertThat(score(290f, LEFT_EYE_X, RIGHT_EYE_X)).isEqualTo(1f);
+  }
+
+  @Test
+  public void closedMouthIsNotSurprised() {
+    // 6 px opening over 60 px between the eyes
+    float score = score(266f, LEFT_EYE_X, RIGHT_EYE_X);
+    assertThat(score).isWithin(1e-6f).of(0.2f);
+    assertThat(score).isLessThan(0.5f);
+  }
+
+  @Test
+  public void mirroredFrameScoresTheSame() {
+    // 15 px opening is right at the threshold ratio
+    float unmirrored = score(275f, LEFT_EYE_X, RIGHT_EYE_X);
+    assertThat(unmirrored).isWithin(1e-6f).of(0.5f);
+    assertThat(score(275f, RIGHT_EYE_X, LEFT_EYE_X)).isEqualTo(unmirrored);
+  }
+
+  @Test
+  public void degenerateEyesScoreZero() {
+    assertThat(score(290f, LEFT_EYE_X, LEFT_EYE_X)).isEqualTo(0f);
+  }
+}
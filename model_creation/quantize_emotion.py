@@ -0,0 +1,123 @@
+"""Converts the emotion model to a full-integer uint8 TFLite model and compares it
+with the float model on the FER CSVs.
+
+The uint8 model takes the 48x48 gray face as raw luma bytes (the float model is
+trained on pixels / 255, so the input quantization is scale 1/255, zero point 0)
+and returns uint8 scores, which lets the app copy the Y plane of a camera frame
+straight into the input tensor.
+
+Usage, from this directory:
+
+    python quantize_emotion.py
+    cp compressed_model.tflite compressed_model_uint8.tflite \
+        ../android/models/src/main/assets/
+"""
+
+import argparse
+import time
+
+import numpy as np
+import pandas as pd
+import tensorflow as tf
+
+IMAGE_SIZE = 48
+CLASSES = ["angry", "disgusted", "afraid", "happy", "neutral", "sad", "surprised"]
+
+
+def load_csv(path):
+    """Returns (pixels as uint8 [N, 48, 48, 1], labels [N]) of a FER CSV.
+
+    The CSVs in data/ are not consistent: data_val.csv is ';'-delimited while the
+    others use ',', so the separator is sniffed from the file.
+    """
+    data = pd.read_csv(path, sep=None, engine="python")
+    data = data.dropna(axis=1)
+    labels = np.array(data["emotion"], dtype=np.int64)
+    pixels = np.array(data.drop(["emotion", "Usage"], axis=1), dtype=np.uint8)
+    return pixels.reshape((len(pixels), IMAGE_SIZE, IMAGE_SIZE, 1)), labels
+
+
+def convert_float(saved_model):
+    converter = tf.lite.TFLiteConverter.from_saved_model(saved_model)
+    return converter.convert()
+
+
+def convert_uint8(saved_model, calibration):
+    converter = tf.lite.TFLiteConverter.from_saved_model(saved_model)
+    converter.optimizations = [tf.lite.Optimize.DEFAULT]
+
+    def representative_dataset():
+        for image in calibration:
+            yield [image[np.newaxis].astype(np.float32) / 255.0]
+
+    converter.representative_dataset = representative_dataset
+    converter.target_spec.supported_ops = [tf.lite.OpsSet.TFLITE_BUILTINS_INT8]
+    converter.inference_input_type = tf.uint8
+    converter.inference_output_type = tf.uint8
+    return converter.convert()
+
+
+def evaluate(model_content, pixels, labels, num_threads):
+    """Returns (accuracy, latencies in ms) of single-image inference."""
+    interpreter = tf.lite.Interpreter(model_content=model_content, num_threads=num_threads)
+    interpreter.allocate_tensors()
+    input_details = interpreter.get_input_details()[0]
+    output_details = interpreter.get_output_details()[0]
+    quantized_input = input_details["dtype"] == np.uint8
+    if quantized_input:
+        scale, zero_point = input_details["quantization"]
+        if abs(scale * 255.0 - 1.0) > 1e-3 or zero_point != 0:
+            print("warning: input quantization is %s, raw luma bytes need requantizing"
+                  % (input_details["quantization"],))
+
+    correct = 0
+    latencies = np.empty(len(pixels))
+    for i, image in enumerate(pixels):
+        if quantized_input:
+            tensor = image[np.newaxis]
+        else:
+            tensor = image[np.newaxis].astype(np.float32) / 255.0
+        interpreter.set_tensor(input_details["index"], tensor)
+        start = time.perf_counter()
+        interpreter.invoke()
+        latencies[i] = (time.perf_counter() - start) * 1000.0
+        # the ranking of uint8 scores is the ranking of the dequantized ones
+        scores = interpreter.get_tensor(output_details["index"])[0]
+        if np.argmax(scores) == labels[i]:
+            correct += 1
+    return correct / len(pixels), latencies
+
+
+def main():
+    parser = argparse.ArgumentParser(description=__doc__.split("\n")[0])
+    parser.add_argument("--saved_model", default="./")
+    parser.add_argument("--val_csv", default="data/data_val.csv",
+                        help="calibration images for the uint8 conversion")
+    parser.add_argument("--test_csv", default="data/data_test.csv")
+    parser.add_argument("--calibration_samples", type=int, default=500)
+    parser.add_argument("--num_threads", type=int, default=1)
+    parser.add_argument("--float_output", default="compressed_model.tflite")
+    parser.add_argument("--uint8_output", default="compressed_model_uint8.tflite")
+    args = parser.parse_args()
+
+    calibration, _ = load_csv(args.val_csv)
+    calibration = calibration[:args.calibration_samples]
+    test_pixels, test_labels = load_csv(args.test_csv)
+
+    models = [
+        ("float32", args.float_output, convert_float(args.saved_model)),
+        ("uint8", args.uint8_output, convert_uint8(args.saved_model, calibration)),
+    ]
+
+    print("%-8s %10s %9s %9s %9s %9s" % ("model", "size KB", "accuracy", "mean ms", "p50 ms", "p95 ms"))
+    for name, path, content in models:
+        with open(path, "wb") as f:
+            f.write(content)
+        accuracy, latencies = evaluate(content, test_pixels, test_labels, args.num_threads)
+        print("%-8s %10d %9.4f %9.3f %9.3f %9.3f" % (
+            name, len(content) // 1024, accuracy, latencies.mean(),
+            np.percentile(latencies, 50), np.percentile(latencies, 95)))
+
+
+if __name__ == "__main__":
+    main()